@@ -0,0 +1,193 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.benchmarks;
+
+import com.kolich.common.functional.either.Either;
+import com.kolich.http.HttpClient4ClosureBuilder;
+import com.kolich.http.common.response.HttpFailure;
+import com.kolich.http.helpers.ByteArrayClosures.ByteArrayOrHttpFailureClosure;
+import com.kolich.http.helpers.GsonClosures.GsonOrHttpFailureClosure;
+import com.kolich.http.helpers.StatusCodeAndHeaderClosures.StatusCodeAndHeadersClosure;
+import com.kolich.http.helpers.StringClosures.StringOrHttpFailureClosure;
+import com.kolich.http.testing.StubHttpServer;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/**
+ * Each of the built in closures, end to end against a {@link StubHttpServer},
+ * across response sizes.  Reading the same response with a raw
+ * {@link HttpClient#execute} and {@link EntityUtils#toByteArray} is the
+ * baseline.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClosureBenchmark {
+
+    /**
+     * The elements of the JSON response.
+     */
+    public static final class Item {
+        private long id;
+        private String name;
+        private List<String> tags;
+    }
+
+    @Param({"64", "4096", "65536", "1048576"})
+    public int size;
+
+    private StubHttpServer server_;
+    private HttpClient client_;
+
+    @State(Scope.Thread)
+    public static class Closures {
+        private StringOrHttpFailureClosure string_;
+        private ByteArrayOrHttpFailureClosure byteArray_;
+        private GsonOrHttpFailureClosure<Item[]> gson_;
+        private StatusCodeAndHeadersClosure statusAndHeaders_;
+        private HttpGet text_;
+        private HttpGet json_;
+        @Setup(Level.Trial)
+        public void setup(final ClosureBenchmark benchmark) {
+            final HttpClient client = benchmark.client_;
+            string_ = new StringOrHttpFailureClosure(client);
+            byteArray_ = new ByteArrayOrHttpFailureClosure(client);
+            gson_ = new GsonOrHttpFailureClosure<>(client, Item[].class);
+            statusAndHeaders_ = new StatusCodeAndHeadersClosure(client);
+            text_ = new HttpGet(benchmark.server_.getUri("/text"));
+            json_ = new HttpGet(benchmark.server_.getUri("/json"));
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server_ = new StubHttpServer();
+        server_.stub("/text").body(getText(size), "text/plain; charset=UTF-8");
+        server_.stub("/json").body(getJson(size), "application/json; charset=UTF-8");
+        client_ = new HttpClient4ClosureBuilder()
+            .useProxySelector(false)
+            .getNewHttpClientInstance();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server_.close();
+    }
+
+    @Benchmark
+    public byte[] rawExecute(final Closures closures) throws IOException {
+        final HttpGet get = closures.text_;
+        get.reset();
+        final HttpResponse response = client_.execute(get);
+        try {
+            return EntityUtils.toByteArray(response.getEntity());
+        } finally {
+            EntityUtils.consume(response.getEntity());
+        }
+    }
+
+    @Benchmark
+    public Either<HttpFailure,String> string(final Closures closures) {
+        final HttpGet get = closures.text_;
+        get.reset();
+        return closures.string_.get(get);
+    }
+
+    @Benchmark
+    public Either<HttpFailure,byte[]> byteArray(final Closures closures) {
+        final HttpGet get = closures.text_;
+        get.reset();
+        return closures.byteArray_.get(get);
+    }
+
+    @Benchmark
+    public Either<HttpFailure,Item[]> gson(final Closures closures) {
+        final HttpGet get = closures.json_;
+        get.reset();
+        return closures.gson_.get(get);
+    }
+
+    /**
+     * Reads nothing but the status line and headers; the body is drained.
+     */
+    @Benchmark
+    public int statusAndHeaders(final Closures closures) {
+        final HttpGet get = closures.text_;
+        get.reset();
+        closures.statusAndHeaders_.get(get);
+        return closures.statusAndHeaders_.getStatusCode();
+    }
+
+    private static byte[] getText(final int size) {
+        final byte[] text = new byte[size];
+        for(int i = 0; i < size; i++) {
+            text[i] = (byte)((i % 64 == 63) ? '\n' : 'a' + (i % 26));
+        }
+        return text;
+    }
+
+    /**
+     * A JSON array of items, about the given number of bytes long.
+     */
+    private static byte[] getJson(final int size) {
+        final StringBuilder json = new StringBuilder(size + 64).append('[');
+        for(int i = 0; json.length() < size - 1; i++) {
+            if(i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":").append(i)
+                .append(",\"name\":\"item-").append(i)
+                .append("\",\"tags\":[\"red\",\"green\"]}");
+        }
+        return json.append(']').toString().getBytes(UTF_8);
+    }
+
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.benchmarks;
+
+import com.kolich.common.functional.either.Either;
+import com.kolich.http.HttpClient4ClosureBuilder;
+import com.kolich.http.common.response.HttpFailure;
+import com.kolich.http.helpers.StringClosures.StringOrHttpFailureClosure;
+import com.kolich.http.testing.StubHttpServer;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/**
+ * A JSON like response read into a String with content compression off,
+ * with HttpClient's own gzip support, and with the pooled inflater of
+ * {@link HttpClient4ClosureBuilder#useContentDecoding}, against a
+ * {@link StubHttpServer}.  Run with <code>-prof gc</code> to compare
+ * <code>gc.alloc.rate.norm</code>, the bytes allocated per response.  The
+ * body bytes on the wire per response are printed at the end of each
+ * trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ContentDecodingBenchmark {
+
+    @Param({"65536"})
+    public int size;
+
+    @Param({"none", "httpclient", "pooled"})
+    public String decoding;
+
+    private StubHttpServer server_;
+    private HttpClient client_;
+    private String path_;
+    private int bodyBytes_;
+
+    @State(Scope.Thread)
+    public static class Closures {
+        private StringOrHttpFailureClosure closure_;
+        private HttpGet get_;
+        @Setup(Level.Trial)
+        public void setup(final ContentDecodingBenchmark benchmark) {
+            closure_ = new StringOrHttpFailureClosure(benchmark.client_);
+            get_ = new HttpGet(benchmark.server_.getUri(benchmark.path_));
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        final byte[] payload = getPayload(size);
+        final ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try(GZIPOutputStream gos = new GZIPOutputStream(gzipped)) {
+            gos.write(payload);
+        }
+        server_ = new StubHttpServer();
+        server_.stub("/plain").body(payload, "application/json; charset=UTF-8");
+        server_.stub("/gzip").body(gzipped.toByteArray(), "application/json; charset=UTF-8")
+            .header("Content-Encoding", "gzip");
+        final HttpClient4ClosureBuilder builder = new HttpClient4ClosureBuilder()
+            .useProxySelector(false);
+        if("httpclient".equals(decoding)) {
+            builder.disableContentCompression(false);
+        } else if("pooled".equals(decoding)) {
+            builder.useContentDecoding(true);
+        }
+        client_ = builder.getNewHttpClientInstance();
+        path_ = "none".equals(decoding) ? "/plain" : "/gzip";
+        bodyBytes_ = "none".equals(decoding) ? payload.length : gzipped.size();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.out.println();
+        System.out.println(decoding + ": " + bodyBytes_ + " body bytes/response");
+        server_.close();
+    }
+
+    @Benchmark
+    public String get(final Closures closures) {
+        final HttpGet get = closures.get_;
+        get.reset();
+        final Either<HttpFailure,String> result = closures.closure_.get(get);
+        final String body = result.right();
+        if(body == null || body.length() != size) {
+            throw new IllegalStateException("Unexpected response body.");
+        }
+        return body;
+    }
+
+    private static byte[] getPayload(final int size) {
+        final Random random = new Random(1L);
+        final StringBuilder sb = new StringBuilder("[");
+        while(sb.length() < size) {
+            sb.append("{\"id\":").append(random.nextInt(1000000))
+                .append(",\"name\":\"user").append(random.nextInt(1000))
+                .append("\",\"active\":").append(random.nextBoolean()).append("},");
+        }
+        sb.setLength(size - 1);
+        return sb.append(']').toString().getBytes(UTF_8);
+    }
+
+}
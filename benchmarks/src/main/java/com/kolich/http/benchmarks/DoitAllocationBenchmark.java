@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.benchmarks;
+
+import com.kolich.common.functional.either.Either;
+import com.kolich.http.HttpClient4ClosureBuilder;
+import com.kolich.http.common.response.HttpFailure;
+import com.kolich.http.helpers.StatusCodeAndHeaderClosures.StatusCodeOrHttpFailureClosure;
+import com.kolich.http.testing.StubHttpServer;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.URI;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/**
+ * Measures the cost of a request through {@link com.kolich.http.HttpClient4Closure#doit}
+ * against a raw {@link HttpClient#execute}, with and without a request
+ * timeout, against an in-process server returning a tiny body.  Run with
+ * <code>-prof gc</code> and compare <code>gc.alloc.rate.norm</code>, the
+ * bytes allocated per request, of the closure and raw benchmarks to see
+ * what the closure pipeline itself allocates, and with an opt-in reused
+ * context.  The {@link StubHttpServer}
+ * allocates next to nothing per request, such that it doesn't drown out
+ * the client.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DoitAllocationBenchmark {
+
+    private StubHttpServer server_;
+    private HttpClient client_;
+    private URI uri_;
+
+    @State(Scope.Thread)
+    public static class Closures {
+        // Just the status code, a cached small Integer, so that the result
+        // itself allocates nothing.
+        private StatusCodeOrHttpFailureClosure closure_;
+        private StatusCodeOrHttpFailureClosure timeoutClosure_;
+        private StatusCodeOrHttpFailureClosure reuseContextClosure_;
+        private HttpGet get_;
+        @Setup(Level.Trial)
+        public void setup(final DoitAllocationBenchmark benchmark) {
+            closure_ = new StatusCodeOrHttpFailureClosure(benchmark.client_);
+            timeoutClosure_ = new StatusCodeOrHttpFailureClosure(benchmark.client_);
+            timeoutClosure_.timeout(60000L);
+            reuseContextClosure_ = new StatusCodeOrHttpFailureClosure(benchmark.client_);
+            reuseContextClosure_.reuseContext(true);
+            get_ = new HttpGet(benchmark.uri_);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server_ = new StubHttpServer();
+        server_.stub("/").body("ok", "text/plain");
+        uri_ = server_.getUri("/");
+        client_ = new HttpClient4ClosureBuilder()
+            .useProxySelector(false)
+            .getNewHttpClientInstance();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server_.close();
+    }
+
+    @Benchmark
+    public int rawExecute(final Closures closures) throws IOException {
+        final HttpGet get = closures.get_;
+        get.reset();
+        final HttpResponse response = client_.execute(get);
+        try {
+            return response.getStatusLine().getStatusCode();
+        } finally {
+            EntityUtils.consume(response.getEntity());
+        }
+    }
+
+    @Benchmark
+    public Either<HttpFailure,Integer> doit(final Closures closures) {
+        final HttpGet get = closures.get_;
+        get.reset();
+        return closures.closure_.get(get);
+    }
+
+    @Benchmark
+    public Either<HttpFailure,Integer> doitWithTimeout(final Closures closures) {
+        final HttpGet get = closures.get_;
+        get.reset();
+        return closures.timeoutClosure_.get(get);
+    }
+
+    @Benchmark
+    public Either<HttpFailure,Integer> doitReuseContext(final Closures closures) {
+        final HttpGet get = closures.get_;
+        get.reset();
+        return closures.reuseContextClosure_.get(get);
+    }
+
+}
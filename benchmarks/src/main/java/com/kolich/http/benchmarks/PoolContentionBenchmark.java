@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.benchmarks;
+
+import com.kolich.common.functional.either.Either;
+import com.kolich.http.HttpClient4ClosureBuilder;
+import com.kolich.http.common.response.HttpFailure;
+import com.kolich.http.helpers.StatusCodeAndHeaderClosures.StatusCodeOrHttpFailureClosure;
+import com.kolich.http.testing.StubHttpServer;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Total throughput of one shared client, with a fixed number of pooled
+ * connections to a {@link StubHttpServer}, as more and more threads
+ * compete for them.  Shows how the connection pool, with and without
+ * priority leasing, and the shared request timeout queue hold up under
+ * contention.  JMH fixes the thread count per method, hence one method
+ * per thread count.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PoolContentionBenchmark {
+
+    @Param({"16"})
+    public int connections;
+
+    @Param({"false", "true"})
+    public boolean priorityLeasing;
+
+    @Param({"0", "60000"})
+    public long timeoutMs;
+
+    private StubHttpServer server_;
+    private HttpClient client_;
+
+    @State(Scope.Thread)
+    public static class Closures {
+        private StatusCodeOrHttpFailureClosure closure_;
+        private HttpGet get_;
+        @Setup(Level.Trial)
+        public void setup(final PoolContentionBenchmark benchmark) {
+            closure_ = new StatusCodeOrHttpFailureClosure(benchmark.client_);
+            closure_.timeout(benchmark.timeoutMs);
+            get_ = new HttpGet(benchmark.server_.getUri("/"));
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server_ = new StubHttpServer();
+        server_.stub("/").body("ok", "text/plain");
+        client_ = new HttpClient4ClosureBuilder()
+            .useProxySelector(false)
+            .setMaxTotalConnections(connections)
+            .setMaxConnectionsPerRoute(connections)
+            // Wait as long as it takes, it's throughput that counts.
+            .setLeaseTimeout(0)
+            .usePriorityLeasing(priorityLeasing)
+            .getNewHttpClientInstance();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server_.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Either<HttpFailure,Integer> threads1(final Closures closures) {
+        return get(closures);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Either<HttpFailure,Integer> threads4(final Closures closures) {
+        return get(closures);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Either<HttpFailure,Integer> threads16(final Closures closures) {
+        return get(closures);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Either<HttpFailure,Integer> threads64(final Closures closures) {
+        return get(closures);
+    }
+
+    @Benchmark
+    @Threads(256)
+    public Either<HttpFailure,Integer> threads256(final Closures closures) {
+        return get(closures);
+    }
+
+    private static Either<HttpFailure,Integer> get(final Closures closures) {
+        final HttpGet get = closures.get_;
+        get.reset();
+        final Either<HttpFailure,Integer> result = closures.closure_.get(get);
+        if(!result.success()) {
+            // Failing fast would only inflate the throughput.
+            throw new IllegalStateException("Request failed.",
+                result.left().getCause());
+        }
+        return result;
+    }
+
+}
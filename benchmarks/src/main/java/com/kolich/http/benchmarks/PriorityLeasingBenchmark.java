@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.benchmarks;
+
+import com.kolich.common.functional.either.Either;
+import com.kolich.http.HttpClient4ClosureBuilder;
+import com.kolich.http.common.RequestPriority;
+import com.kolich.http.common.response.HttpFailure;
+import com.kolich.http.helpers.StatusCodeAndHeaderClosures.StatusCodeOrHttpFailureClosure;
+import com.kolich.http.testing.StubHttpServer;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * The latency of a trickle of interactive, high priority, requests while a
+ * flood of bulk, low priority, requests saturates the connections to the
+ * same route of a {@link StubHttpServer} that takes 20ms per request;
+ * with a plain pool, which serves waiters first come first served, with
+ * priority leasing, and with priority leasing and two connections reserved
+ * for high priority requests.  Compare the percentiles of the
+ * <code>interactive</code> method across pools.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PriorityLeasingBenchmark {
+
+    private static final long SERVER_LATENCY_MS = 20L;
+    private static final int MAX_CONNECTIONS_PER_ROUTE = 15;
+    private static final long INTERACTIVE_THINK_MS = 50L;
+
+    @Param({"fifo", "priority", "reserved"})
+    public String pool;
+
+    private StubHttpServer server_;
+    private HttpClient client_;
+
+    @State(Scope.Thread)
+    public static class Bulk {
+        private StatusCodeOrHttpFailureClosure closure_;
+        private HttpGet get_;
+        @Setup(Level.Trial)
+        public void setup(final PriorityLeasingBenchmark benchmark) {
+            closure_ = new StatusCodeOrHttpFailureClosure(benchmark.client_);
+            closure_.priority(RequestPriority.LOW);
+            get_ = new HttpGet(benchmark.server_.getUri("/"));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Interactive {
+        private StatusCodeOrHttpFailureClosure closure_;
+        private HttpGet get_;
+        @Setup(Level.Trial)
+        public void setup(final PriorityLeasingBenchmark benchmark) {
+            closure_ = new StatusCodeOrHttpFailureClosure(benchmark.client_);
+            closure_.priority(RequestPriority.HIGH);
+            get_ = new HttpGet(benchmark.server_.getUri("/"));
+        }
+        /**
+         * Think time between interactive requests, outside of the
+         * measurement.
+         */
+        @Setup(Level.Invocation)
+        public void think() throws InterruptedException {
+            Thread.sleep(INTERACTIVE_THINK_MS);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server_ = new StubHttpServer();
+        server_.stub("/").body("ok", "text/plain").latency(SERVER_LATENCY_MS);
+        final HttpClient4ClosureBuilder builder = new HttpClient4ClosureBuilder()
+            .useProxySelector(false)
+            .setMaxConnectionsPerRoute(MAX_CONNECTIONS_PER_ROUTE)
+            // Wait as long as it takes, it's the wait that's measured.
+            .setLeaseTimeout(0);
+        if(!"fifo".equals(pool)) {
+            builder.usePriorityLeasing(true);
+        }
+        if("reserved".equals(pool)) {
+            builder.setReservedConnectionsPerRoute(RequestPriority.HIGH, 2);
+        }
+        client_ = builder.getNewHttpClientInstance();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server_.close();
+    }
+
+    @Benchmark
+    @Group("flood")
+    @GroupThreads(60)
+    public Either<HttpFailure,Integer> bulk(final Bulk bulk) {
+        return get(bulk.closure_, bulk.get_);
+    }
+
+    @Benchmark
+    @Group("flood")
+    @GroupThreads(4)
+    public Either<HttpFailure,Integer> interactive(final Interactive interactive) {
+        return get(interactive.closure_, interactive.get_);
+    }
+
+    private static Either<HttpFailure,Integer> get(final StatusCodeOrHttpFailureClosure closure,
+                                                   final HttpGet get) {
+        get.reset();
+        final Either<HttpFailure,Integer> result = closure.get(get);
+        if(!result.success()) {
+            throw new IllegalStateException("Request failed.",
+                result.left().getCause());
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.benchmarks;
+
+import com.kolich.http.common.entity.EntityDecoding;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.util.EntityUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/**
+ * Compares {@link EntityUtils#toString(HttpEntity, String)}, as previously
+ * used by the string closures, with {@link EntityDecoding}, across payload
+ * sizes and charsets, with and without a known Content-Length.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StringDecodingBenchmark {
+
+    public enum Payload {
+        ASCII_UTF8("UTF-8", UTF_8, 'a'),
+        LATIN1("ISO-8859-1", ISO_8859_1, '\u00e9'),
+        MULTIBYTE_UTF8("UTF-8", UTF_8, '\u00e9');
+        private final String name_;
+        private final Charset charset_;
+        private final char fill_;
+        Payload(final String name, final Charset charset, final char fill) {
+            name_ = name;
+            charset_ = charset;
+            fill_ = fill;
+        }
+    }
+
+    @Param({"64", "4096", "262144"})
+    public int size;
+
+    @Param({"ASCII_UTF8", "LATIN1", "MULTIBYTE_UTF8"})
+    public Payload payload;
+
+    @Param({"true", "false"})
+    public boolean knownLength;
+
+    private byte[] bytes_;
+    private String contentType_;
+
+    @Setup
+    public void setup() {
+        final char[] chars = new char[size];
+        // Mostly ASCII JSON-ish text, with the payload specific char sprinkled in.
+        for(int i = 0; i < size; i++) {
+            chars[i] = (i % 16 == 0) ? payload.fill_ : (char)('a' + (i % 26));
+        }
+        bytes_ = new String(chars).getBytes(payload.charset_);
+        contentType_ = "application/json; charset=" + payload.name_;
+        // Make sure both implementations agree before measuring anything.
+        try {
+            if(!EntityUtils.toString(entity(), "UTF-8").equals(
+                EntityDecoding.toString(entity(), "UTF-8"))) {
+                throw new IllegalStateException("Decoders disagree: " + Arrays.toString(bytes_));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Benchmark
+    public String entityUtils() throws IOException {
+        return EntityUtils.toString(entity(), "UTF-8");
+    }
+
+    @Benchmark
+    public String entityDecoding() throws IOException {
+        return EntityDecoding.toString(entity(), "UTF-8");
+    }
+
+    private HttpEntity entity() {
+        final ByteArrayInputStream is = new ByteArrayInputStream(bytes_);
+        final InputStreamEntity entity = knownLength ?
+            new InputStreamEntity(is, bytes_.length) :
+            new InputStreamEntity(is, -1L);
+        entity.setContentType(contentType_);
+        return entity;
+    }
+
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.benchmarks;
+
+import com.kolich.common.functional.either.Either;
+import com.kolich.http.HttpClient4ClosureBuilder;
+import com.kolich.http.common.response.HttpFailure;
+import com.kolich.http.common.transport.ClosureTransport;
+import com.kolich.http.common.transport.HttpClient4Transport;
+import com.kolich.http.common.transport.JdkHttpClientTransport;
+import com.kolich.http.helpers.StatusCodeAndHeaderClosures.StatusCodeOrHttpFailureClosure;
+import com.kolich.http.testing.StubHttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Throughput at high concurrency of the Apache HttpClient 4 transport and
+ * the JDK (HTTP/2 capable) transport, against a {@link StubHttpServer},
+ * which speaks HTTP/1.1 only.  The number of connections each transport
+ * opened to the stub server is printed at the end of each trial.  Point
+ * it at a local HTTP/2 server instead, like with
+ * <code>-p url=https://localhost:8443/</code>, to see the effect of
+ * multiplexing.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(TransportBenchmark.CONCURRENCY)
+@State(Scope.Benchmark)
+public class TransportBenchmark {
+
+    /* package private */ static final int CONCURRENCY = 256;
+
+    private static final String STUB = "stub";
+
+    @Param({"httpclient4", "jdk"})
+    public String transport;
+
+    /**
+     * The URL to request, or "stub" for the stub server.
+     */
+    @Param({STUB})
+    public String url;
+
+    private StubHttpServer server_;
+    private ClosureTransport transport_;
+    private String url_;
+
+    @State(Scope.Thread)
+    public static class Closures {
+        private StatusCodeOrHttpFailureClosure closure_;
+        @Setup(Level.Trial)
+        public void setup(final TransportBenchmark benchmark) {
+            closure_ = new StatusCodeOrHttpFailureClosure(benchmark.transport_);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        if(STUB.equals(url)) {
+            server_ = new StubHttpServer();
+            server_.stub("/").body("ok", "text/plain");
+            url_ = server_.getUri("/").toString();
+        } else {
+            url_ = url;
+        }
+        if("jdk".equals(transport)) {
+            transport_ = new JdkHttpClientTransport();
+        } else {
+            transport_ = new HttpClient4Transport(new HttpClient4ClosureBuilder()
+                .setMaxTotalConnections(CONCURRENCY)
+                .setMaxConnectionsPerRoute(CONCURRENCY)
+                .useProxySelector(false)
+                .getNewHttpClientInstance());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if(server_ != null) {
+            System.out.println();
+            System.out.println(transport + ": " + server_.getConnections() + " connections");
+            server_.close();
+        }
+    }
+
+    @Benchmark
+    public Either<HttpFailure,Integer> get(final Closures closures) {
+        final Either<HttpFailure,Integer> result = closures.closure_.get(url_);
+        if(!result.success()) {
+            // Failing fast would only inflate the throughput.
+            throw new IllegalStateException("Request failed.",
+                result.left().getCause());
+        }
+        return result;
+    }
+
+}
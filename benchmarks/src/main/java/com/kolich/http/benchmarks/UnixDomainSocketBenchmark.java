@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.benchmarks;
+
+import com.kolich.common.functional.either.Either;
+import com.kolich.http.HttpClient4ClosureBuilder;
+import com.kolich.http.common.conn.UnixDomainSockets;
+import com.kolich.http.common.response.HttpFailure;
+import com.kolich.http.helpers.StatusCodeAndHeaderClosures.StatusCodeOrHttpFailureClosure;
+import com.kolich.http.testing.StubHttpServer;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Throughput of requests to a {@link StubHttpServer} over a Unix domain
+ * socket, like to a sidecar on the same host, against the same over
+ * loopback TCP.  Unix domain sockets require JDK 16 or later; on older
+ * JDKs the trials fail at setup, which is JMH's only way of skipping them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UnixDomainSocketBenchmark {
+
+    private static final String SIDECAR = "sidecar";
+
+    @Param({"uds", "tcp"})
+    public String transport;
+
+    private Path directory_;
+    private StubHttpServer server_;
+    private HttpClient client_;
+    private String url_;
+
+    @State(Scope.Thread)
+    public static class Closures {
+        private StatusCodeOrHttpFailureClosure closure_;
+        private HttpGet get_;
+        @Setup(Level.Trial)
+        public void setup(final UnixDomainSocketBenchmark benchmark) {
+            closure_ = new StatusCodeOrHttpFailureClosure(benchmark.client_);
+            get_ = new HttpGet(benchmark.url_);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        if(!UnixDomainSockets.isSupported()) {
+            throw new IllegalStateException("Skipped, Unix domain sockets " +
+                "require JDK 16 or later.");
+        }
+        server_ = new StubHttpServer();
+        server_.stub("/").body("ok", "text/plain");
+        final HttpClient4ClosureBuilder builder = new HttpClient4ClosureBuilder()
+            .useProxySelector(false)
+            .setMaxTotalConnections(8)
+            .setMaxConnectionsPerRoute(8);
+        if("uds".equals(transport)) {
+            directory_ = Files.createTempDirectory("closure-uds");
+            final Path socketPath = directory_.resolve("server.sock");
+            server_.listen(socketPath);
+            builder.setUnixDomainSocket(SIDECAR, socketPath);
+            url_ = "http://" + SIDECAR + "/";
+        } else {
+            url_ = server_.getUri("/").toString();
+        }
+        client_ = builder.getNewHttpClientInstance();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if(server_ != null) {
+            server_.close();
+        }
+        if(directory_ != null) {
+            Files.deleteIfExists(directory_);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Either<HttpFailure,Integer> threads1(final Closures closures) {
+        return get(closures);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Either<HttpFailure,Integer> threads8(final Closures closures) {
+        return get(closures);
+    }
+
+    private static Either<HttpFailure,Integer> get(final Closures closures) {
+        final HttpGet get = closures.get_;
+        get.reset();
+        final Either<HttpFailure,Integer> result = closures.closure_.get(get);
+        if(!result.success()) {
+            // Failing fast would only inflate the throughput.
+            throw new IllegalStateException("Request failed.",
+                result.left().getCause());
+        }
+        return result;
+    }
+
+}
@@ -29,9 +29,32 @@ package com.kolich.http;
 import com.kolich.common.functional.either.Either;
 import com.kolich.common.functional.either.Left;
 import com.kolich.common.functional.either.Right;
+import com.kolich.http.common.Bulkhead;
+import com.kolich.http.common.ClosureStats;
+import com.kolich.http.common.HostRateLimiter;
 import com.kolich.http.common.HttpClient4ClosureBase;
+import com.kolich.http.common.RequestPriority;
+import com.kolich.http.common.entity.GzipCompressingEntity;
+import com.kolich.http.common.entity.LimitedEntity;
+import com.kolich.http.common.exceptions.EntityWriterException;
+import com.kolich.http.common.exceptions.RateLimitedException;
+import com.kolich.http.common.exceptions.RequestTimeoutException;
+import com.kolich.http.common.exceptions.ResponseTooLargeException;
+import com.kolich.http.common.jfr.ClosureBeforeEvent;
+import com.kolich.http.common.jfr.ClosureCheckEvent;
+import com.kolich.http.common.jfr.ClosureExecuteEvent;
+import com.kolich.http.common.jfr.ClosureFailureEvent;
+import com.kolich.http.common.jfr.ClosureSuccessEvent;
+import com.kolich.http.common.jfr.ResponseDrainEvent;
+import com.kolich.http.common.response.FailureType;
+import com.kolich.http.common.response.HttpClientClosureResponse;
 import com.kolich.http.common.response.HttpFailure;
 import com.kolich.http.common.response.HttpSuccess;
+import com.kolich.http.common.transport.ClosureTransport;
+import com.kolich.http.common.transport.EndpointGroup;
+import com.kolich.http.common.transport.HttpClient4Transport;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpRequestBase;
@@ -41,59 +64,200 @@ import java.io.IOException;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
+import static com.kolich.http.common.response.ResponseUtils.abortResponseQuietly;
 import static com.kolich.http.common.response.ResponseUtils.consumeResponseQuietly;
+import static com.kolich.http.common.response.ResponseUtils.drainResponseQuietly;
 import static java.lang.System.currentTimeMillis;
+import static java.lang.System.nanoTime;
+import static org.apache.http.HttpHeaders.CONTENT_ENCODING;
 
 public abstract class HttpClient4Closure<F,S> extends HttpClient4ClosureBase<Either<F,S>> {
 
     /**
-     * The underlying {@link HttpClient} doing all the work.
+     * The {@link HttpContext} attribute holding a default maximum number of
+     * response body bytes, as a {@link Long}, used by closures that have
+     * not set their own via {@link #maxResponseBytes(long)}.  Usually set
+     * by the {@link HttpClient4ClosureBuilder}.
      */
-	private final HttpClient client_;
+    public static final String MAX_RESPONSE_BYTES_ATTRIBUTE =
+        "com.kolich.http.max-response-bytes";
+
+    /**
+     * The {@link HttpContext} attribute holding the {@link Bulkhead} a
+     * single call is assigned to, like that of a tenant, overriding any
+     * set on the closure with {@link #bulkhead(Bulkhead)}.
+     */
+    public static final String BULKHEAD_ATTRIBUTE = "com.kolich.http.bulkhead";
+
+    /**
+     * The underlying {@link ClosureTransport} doing all the work, usually
+     * backed by an {@link HttpClient}.
+     */
+	private final ClosureTransport transport_;
+
+    /**
+     * The maximum number of response body bytes the built in closures will
+     * read, if any.  A negative value means "not set" in which case the
+     * default in the {@link HttpContext}, if present, applies.
+     */
+    private long maxResponseBytes_ = -1L;
+
+    /**
+     * Request bodies at least this many bytes long, or of unknown length,
+     * are gzip compressed on the fly as they're sent.  A negative value
+     * means never compress.
+     */
+    private long compressRequestMinBytes_ = -1L;
+
+    /**
+     * Paces requests per host, if set.
+     */
+    private HostRateLimiter rateLimiter_ = null;
+
+    /**
+     * The bulkhead this closure's requests are assigned to, if any.
+     */
+    private Bulkhead bulkhead_ = null;
+
+    /**
+     * The priority of this closure's requests when waiting for a pooled
+     * connection, if set.
+     */
+    private RequestPriority priority_ = null;
+
+	public HttpClient4Closure(final ClosureTransport transport) {
+		transport_ = checkNotNull(transport, "Transport cannot be null.");
+	}
 
 	public HttpClient4Closure(final HttpClient client) {
-		client_ = checkNotNull(client, "HttpClient cannot be null.");
+		this(new HttpClient4Transport(client));
 	}
 	
 	@Override
 	public final Either<F,S> doit(final HttpRequestBase request,
                                   final HttpContext context) {
+		final long start = nanoTime();
 		Either<F,S> result = null;
+		// Which way the request went, for the closure class' stats; null
+		// means it succeeded.
+		FailureType failureType = null;
 		// Any failures/exceptions encountered during request execution
-		// (in a call to execute) are wrapped up as a Left() and are dealt
+		// (in a call to execute) come back as an HttpFailure and are dealt
 		// with in the failure path below.
-		final Either<HttpFailure,HttpSuccess> response = execute(request, context);
-        final boolean success = response.success();
+		final HttpClientClosureResponse response = execute(request, context);
 		try {
-			if(success) {
-				result = Right.right(success(((Right<HttpFailure,HttpSuccess>)response).right_));
+			if(response instanceof HttpSuccess) {
+				final ClosureSuccessEvent event = ClosureSuccessEvent.start();
+				try {
+					result = Right.right(success((HttpSuccess)response));
+				} finally {
+					if(event != null) {
+						event.commit(request, response.getResponse(), context);
+					}
+				}
 			} else {
-				result = Left.left(failure(((Left<HttpFailure,HttpSuccess>)response).left_));
+				// The failure, and its context, may well be the result.
+				detachContext(context);
+				failureType = ((HttpFailure)response).getType();
+				result = Left.left(failure(request, (HttpFailure)response, context));
 			}
 		} catch (Exception e) {
 			// Wrap up any failures/exceptions that might have occurred while processing the response.
-			result = Left.left(failure(new HttpFailure(e)));
+			final HttpFailure failure = new HttpFailure(e);
+			failureType = failure.getType();
+			result = Left.left(failure(request, failure, context));
 		} finally {
-			if(success) {
-                consumeResponseQuietly(((Right<HttpFailure, HttpSuccess>)response).right_.getResponse());
-			} else {
-                consumeResponseQuietly(((Left<HttpFailure, HttpSuccess>)response).left_.getResponse());
-			}
+            drainResponse(request, response.getResponse(), context);
+			// Done with the endpoint chosen by a load balancing transport,
+			// if any; whatever failed the request counts against it.
+			EndpointGroup.complete(context, result != null && result.success());
+			// And with any bulkhead slot taken for the request.
+			Bulkhead.release(context);
+			// No result at all means something worse than an exception.
+			ClosureStats.of(getClass()).record(nanoTime() - start,
+				(result == null && failureType == null) ? FailureType.OTHER : failureType);
 		}
 		return result;
 	}
+
+	private final F failure(final HttpRequestBase request,
+                            final HttpFailure failure,
+                            final HttpContext context) {
+		final ClosureFailureEvent event = ClosureFailureEvent.start();
+		try {
+			return failure(failure);
+		} finally {
+			if(event != null) {
+				event.commit(request, failure, context);
+			}
+		}
+	}
+
+	/**
+	 * Consumes what's left of the response, if anything, such that its
+	 * connection can be reused; counting the bytes thrown away only if
+	 * someone is recording them.
+	 */
+	private static final void drainResponse(final HttpRequestBase request,
+                                            final HttpResponse response,
+                                            final HttpContext context) {
+		final ResponseDrainEvent event = (response != null) ?
+			ResponseDrainEvent.start() : null;
+		if(event != null) {
+			event.commit(request, response, context, drainResponseQuietly(response));
+		} else {
+			consumeResponseQuietly(response);
+		}
+	}
 	
-	private final Either<HttpFailure,HttpSuccess> execute(final HttpRequestBase request,
-                                                          final HttpContext context) {
+	/**
+	 * Returns an {@link HttpSuccess} or an {@link HttpFailure}; not wrapped
+	 * in an {@link Either}, one less allocation per request.
+	 */
+	private final HttpClientClosureResponse execute(final HttpRequestBase request,
+                                                    final HttpContext context) {
 		HttpResponse response = null;
 		try {
 			// Before the request is "executed" give the consumer an entry
 			// point into the raw request object to tweak as necessary first.
 			// Usually things like "signing" the request or modifying the
 			// destination host are done here.
+			final ClosureBeforeEvent beforeEvent = ClosureBeforeEvent.start();
 			before(request, context);
+			if(beforeEvent != null) {
+				beforeEvent.commit(request, null, context);
+			}
+			// Compress the request body, if asked to, after any changes
+			// to the request made above.
+			compressRequestBody(request);
+			// Settle which host the request goes to, if it's up to the
+			// transport, such that the limits below apply to that host.
+			transport_.resolve(request, context);
+			// Wait for, or fail without, a permit to send the request to
+			// its host if rate limited.  First, such that a request waiting
+			// on the rate limiter doesn't hold a bulkhead slot meanwhile.
+			if(rateLimiter_ != null) {
+				try {
+					rateLimiter_.acquire(request);
+				} catch (RateLimitedException e) {
+					// Turned away by the endpoint the transport chose, if
+					// any, counts against it such that others get a turn.
+					EndpointGroup.reject(context);
+					throw e;
+				}
+			}
+			// Take a slot in the bulkhead the request is assigned to, if
+			// any, for the whole exchange; or be turned away.
+			final Bulkhead bulkhead = getBulkhead(context);
+			if(bulkhead != null) {
+				bulkhead.acquire(request, context);
+			}
 			// Actually execute the request, get a response.
             response = clientExecute(request, context);
+			// Back off from hosts that say they're overloaded.
+			if(rateLimiter_ != null) {
+				rateLimiter_.onResponse(request, response);
+			}
 			// Immediately after execution, only if the request was executed.
 			after(response, context);
 			// Check if the response was "successful".  The definition of
@@ -103,22 +267,38 @@ public abstract class HttpClient4Closure<F,S> extends HttpClient4ClosureBase<Eit
 			// it's considered "good".  If the user wants evaluate this
 			// response against some custom criteria, they should override
 			// this check() method.
-			if(check(response, context)) {
-				return Right.right(new HttpSuccess(response, context));
+			final ClosureCheckEvent checkEvent = ClosureCheckEvent.start();
+			final boolean success = check(response, context);
+			if(checkEvent != null) {
+				checkEvent.commit(request, response, context);
+			}
+			if(success) {
+				return new HttpSuccess(response, context);
 			} else {
-				return Left.left(new HttpFailure(response, context));
+				return new HttpFailure(response, context);
 			}
 		} catch (Exception e) {
+			// Was the request aborted from elsewhere before it failed?
+			final boolean aborted = request.isAborted();
 			// Something went wrong with the request, abort it,
 			// return failure.
 			request.abort();
-			return Left.left(new HttpFailure(e, response, context));
+			// Failures thrown by a request entity writer are surfaced as is.
+			final Exception cause = (e instanceof EntityWriterException) ?
+				(Exception)e.getCause() : e;
+			FailureType type = FailureType.of(cause);
+			if(aborted && type == FailureType.IO) {
+				// Aborting usually just closes the socket out from under it.
+				type = FailureType.ABORTED;
+			}
+			return new HttpFailure(cause, response, context, type);
 		}
 	}
 
     private final HttpResponse clientExecute(final HttpRequestBase request,
                                              final HttpContext context) throws IOException {
         ClosureDelayable<HttpRequestBase> delayable = null;
+        final ClosureExecuteEvent event = ClosureExecuteEvent.start();
         HttpResponse response = null;
         try {
             // If the request timeout is something greater than zero, that means
@@ -126,15 +306,35 @@ public abstract class HttpClient4Closure<F,S> extends HttpClient4ClosureBase<Eit
             // don't bother creating a delayable and adding it to the delay queue.
             // A request timeout of zero means never timeout.
             if(requestTimeoutMs_ > 0L) {
-                delayable = new ClosureDelayable<>(request,
-                    // The request will "timeout" and be aborted at now
-                    // plus some delta.
-                    currentTimeMillis() + requestTimeoutMs_);
-                // Add the delayable to the internal timeout queue.
-                timeoutQueue__.add(delayable);
+                // Add a delayable to the internal timeout queue; the request
+                // will "timeout" and be aborted at now plus some delta.
+                delayable = watch(request, currentTimeMillis() + requestTimeoutMs_);
+            }
+            // Let the connection manager know how urgently this request
+            // needs a connection, if it cares.
+            final RequestPriority previousPriority = (priority_ != null) ?
+                RequestPriority.setCurrent(priority_) : null;
+            try {
+                // Actually execute the request.
+                response = transport_.execute(request, context);
+                return response;
+            } finally {
+                if(previousPriority != null) {
+                    RequestPriority.setCurrent(previousPriority);
+                }
             }
-            // Actually execute the request.
-            response = client_.execute(request, context);
+        } catch (IOException e) {
+            // If the timeout manager already took the delayable, the request
+            // was aborted for taking too long; say so, instead of whatever
+            // the abort happened to break.
+            if(delayable != null) {
+                final boolean timedOut = !unwatch(delayable);
+                delayable = null;
+                if(timedOut) {
+                    throw new RequestTimeoutException(requestTimeoutMs_, e);
+                }
+            }
+            throw e;
         } finally {
             // If we get here, we must have either finished or bailed out in
             // error.  Regardless, remove the delayable from the monitor queue.
@@ -142,10 +342,12 @@ public abstract class HttpClient4Closure<F,S> extends HttpClient4ClosureBase<Eit
             if(delayable != null) {
                 // Only remove the delayable from the queue if it was
                 // established before the request/context was sent.
-                timeoutQueue__.remove(delayable);
+                unwatch(delayable);
+            }
+            if(event != null) {
+                event.commit(request, response, context);
             }
         }
-        return response;
     }
 
     public final HttpClient4Closure<F,S> timeout(final long requestTimeoutMs) {
@@ -153,6 +355,121 @@ public abstract class HttpClient4Closure<F,S> extends HttpClient4ClosureBase<Eit
         requestTimeoutMs_ = requestTimeoutMs;
         return this;
     }
+
+    /**
+     * Gzip compress request bodies on the fly, with chunked transfer
+     * encoding, when they are at least <code>minBytes</code> long or their
+     * length is unknown.  Bodies that already have a Content-Encoding are
+     * left alone.
+     */
+    public final HttpClient4Closure<F,S> compressRequestBody(final long minBytes) {
+        checkState(minBytes >= 0L, "Min request body bytes to compress must be >= 0L.");
+        compressRequestMinBytes_ = minBytes;
+        return this;
+    }
+
+    /**
+     * Take a permit from the given rate limiter, which may be shared with
+     * other closures, before sending each request.
+     */
+    public final HttpClient4Closure<F,S> rateLimit(final HostRateLimiter rateLimiter) {
+        rateLimiter_ = rateLimiter;
+        return this;
+    }
+
+    /**
+     * Send requests with the given priority, which decides who goes first
+     * when waiting for a pooled connection.  See
+     * {@link com.kolich.http.common.conn.PriorityConnectionManager}.
+     */
+    public final HttpClient4Closure<F,S> priority(final RequestPriority priority) {
+        priority_ = checkNotNull(priority, "Priority cannot be null.");
+        return this;
+    }
+
+    /**
+     * Assign this closure's requests to the given bulkhead, which may be
+     * shared with other closures.
+     */
+    public final HttpClient4Closure<F,S> bulkhead(final Bulkhead bulkhead) {
+        bulkhead_ = bulkhead;
+        return this;
+    }
+
+    /**
+     * Recycle the context of requests made without one for the next request
+     * on the same thread, saving an allocation per request.  Only for
+     * closures that don't keep the context of an {@link HttpSuccess} past
+     * {@link #success}.
+     */
+    public final HttpClient4Closure<F,S> reuseContext(final boolean reuseContext) {
+        reuseContext_ = reuseContext;
+        return this;
+    }
+
+    public final HttpClient4Closure<F,S> maxResponseBytes(final long maxResponseBytes) {
+        checkState(maxResponseBytes >= 0L, "Max response bytes must be >= 0L.");
+        maxResponseBytes_ = maxResponseBytes;
+        return this;
+    }
+
+    private final void compressRequestBody(final HttpRequestBase request) {
+        if(compressRequestMinBytes_ < 0L || !(request instanceof HttpEntityEnclosingRequest)) {
+            return;
+        }
+        final HttpEntityEnclosingRequest enclosing = (HttpEntityEnclosingRequest)request;
+        final HttpEntity entity = enclosing.getEntity();
+        if(entity == null || entity.getContentEncoding() != null ||
+            request.containsHeader(CONTENT_ENCODING)) {
+            return;
+        }
+        final long length = entity.getContentLength();
+        if(length < 0L || length >= compressRequestMinBytes_) {
+            enclosing.setEntity(new GzipCompressingEntity(entity));
+        }
+    }
+
+    private final Bulkhead getBulkhead(final HttpContext context) {
+        final Object bulkhead = context.getAttribute(BULKHEAD_ATTRIBUTE);
+        return (bulkhead instanceof Bulkhead) ? (Bulkhead)bulkhead : bulkhead_;
+    }
+
+    /**
+     * Returns the maximum number of response body bytes to read for a request
+     * executed with the given context, or -1 if there is no limit.
+     */
+    protected final long getMaxResponseBytes(final HttpContext context) {
+        if(maxResponseBytes_ >= 0L) {
+            return maxResponseBytes_;
+        }
+        final Object max = (context != null) ?
+            context.getAttribute(MAX_RESPONSE_BYTES_ATTRIBUTE) : null;
+        return (max instanceof Long) ? (Long)max : -1L;
+    }
+
+    /**
+     * Returns the entity of the successful response, limited to the
+     * maximum number of response body bytes, if any.  A Content-Length
+     * over the limit fails immediately; otherwise reading past the limit
+     * fails as soon as it happens.  Either way the response is aborted,
+     * not drained, and a {@link ResponseTooLargeException} is thrown.
+     */
+    protected final HttpEntity getLimitedEntity(final HttpSuccess success)
+        throws ResponseTooLargeException {
+        final HttpResponse response = success.getResponse();
+        final HttpEntity entity = response.getEntity();
+        final long maxBytes = getMaxResponseBytes(success.getContext());
+        if(entity == null || maxBytes < 0L) {
+            return entity;
+        }
+        final long contentLength = entity.getContentLength();
+        if(contentLength > maxBytes) {
+            abortResponseQuietly(response);
+            throw new ResponseTooLargeException(maxBytes, contentLength);
+        }
+        return new LimitedEntity(entity, maxBytes,
+            () -> abortResponseQuietly(response));
+    }
 	
 	/**
 	 * Called only if the request is successful.  Success is defined by
@@ -26,17 +26,47 @@
 
 package com.kolich.http;
 
+import com.kolich.http.common.RequestPriority;
+import com.kolich.http.common.conn.ClosureSSLConnectionSocketFactory;
+import com.kolich.http.common.conn.ConnectionPoolStats;
+import com.kolich.http.common.conn.LeaseEventConnectionManager;
+import com.kolich.http.common.conn.MBeanConnectionManager;
+import com.kolich.http.common.conn.LeaseStats;
+import com.kolich.http.common.conn.PriorityConnectionManager;
+import com.kolich.http.common.conn.SSLHandshakeStats;
+import com.kolich.http.common.conn.UnixDomainConnectionSocketFactory;
+import com.kolich.http.common.entity.ContentDecoder;
+import com.kolich.http.common.entity.ContentDecodingInterceptor;
+import com.kolich.http.common.entity.InflaterPool;
+import com.kolich.http.common.jmx.MBeans;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
 import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.impl.conn.SystemDefaultRoutePlanner;
+import org.apache.http.ssl.SSLContexts;
 
+import javax.management.ObjectName;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 import java.net.ProxySelector;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.kolich.http.HttpClient4Closure.MAX_RESPONSE_BYTES_ATTRIBUTE;
 import static java.lang.Runtime.getRuntime;
 
 public final class HttpClient4ClosureBuilder {
@@ -69,6 +99,13 @@ public final class HttpClient4ClosureBuilder {
      */
     private int connectTimeout_ = DEFAULT_INFINITE_TIMEOUT;
 
+    /**
+     * The timeout in milliseconds to wait for a connection from the pool,
+     * or -1 to use the connect timeout.  A timeout value of zero is
+     * interpreted as an infinite timeout.
+     */
+    private int leaseTimeout_ = -1;
+
     /**
      * The maximum number of total outgoing connections from this
      * {@link HttpClient4ClosureBuilder} instance.
@@ -90,6 +127,84 @@ public final class HttpClient4ClosureBuilder {
 
     private boolean useProxySelector_ = true;
 
+    /**
+     * The default maximum number of response body bytes read by closures
+     * executed on clients built here, or -1 for no limit.  Closures can
+     * override this with their own limit.
+     */
+    private long maxResponseBytes_ = -1L;
+
+    /**
+     * If true, responses are decoded by a {@link ContentDecodingInterceptor}
+     * using pooled inflaters, instead of by HttpClient's own content
+     * compression support.
+     */
+    private boolean useContentDecoding_ = false;
+    private final Map<String,ContentDecoder> contentDecoders_ = new LinkedHashMap<>();
+
+    /**
+     * The {@link SSLContext} used for all outgoing TLS connections.  If unset,
+     * a default context is created lazily and then shared by every client
+     * built from this {@link HttpClient4ClosureBuilder} instance, such that
+     * those clients also share a single TLS session cache.
+     */
+    private SSLContext sslContext_ = null;
+
+    /**
+     * The maximum number of entries in the client TLS session cache, or -1 to
+     * leave the {@link SSLContext} default untouched.  Zero means no limit.
+     */
+    private int sslSessionCacheSize_ = -1;
+
+    /**
+     * The timeout in seconds of entries in the client TLS session cache, or -1
+     * to leave the {@link SSLContext} default untouched.  Zero means no limit.
+     */
+    private int sslSessionTimeoutSecs_ = -1;
+
+    private String[] sslProtocols_ = null;
+    private String[] sslCipherSuites_ = null;
+    private HostnameVerifier hostnameVerifier_ = null;
+
+    /**
+     * Full versus resumed TLS handshake counts across every connection
+     * manager created by this {@link HttpClient4ClosureBuilder} instance.
+     */
+    private final SSLHandshakeStats sslHandshakeStats_ = new SSLHandshakeStats();
+
+    /**
+     * If true, pooled connections are handed out to waiters by their
+     * {@link RequestPriority}, instead of first come first served.
+     */
+    private boolean usePriorityLeasing_ = false;
+    private final Map<RequestPriority,Integer> reservedConnectionsPerRoute_ =
+        new EnumMap<>(RequestPriority.class);
+    private long leaseStarvationMs_ = PriorityConnectionManager.DEFAULT_STARVATION_MS;
+
+    /**
+     * The most requests that may wait for a pooled connection per route
+     * before new ones fail fast, or -1 for no limit.
+     */
+    private int maxPendingLeasesPerRoute_ = -1;
+
+    /**
+     * Rejected and timed out lease counts across every connection manager
+     * created by this {@link HttpClient4ClosureBuilder} instance.
+     */
+    private final LeaseStats leaseStats_ = new LeaseStats();
+
+    /**
+     * If set, the connection pool of each client built is registered as a
+     * {@link com.kolich.http.common.jmx.ConnectionPoolMXBean} by this name.
+     */
+    private String mbeanName_ = null;
+
+    /**
+     * Hosts whose plain (http) requests are sent over a Unix domain socket,
+     * keyed by host name.
+     */
+    private final Map<String,Path> unixDomainSockets_ = new LinkedHashMap<>();
+
 	public HttpClient4ClosureBuilder() {}
 
     public HttpClient4ClosureBuilder setSocketTimeout(final int socketTimeout) {
@@ -102,6 +217,16 @@ public final class HttpClient4ClosureBuilder {
         return this;
     }
 
+    /**
+     * Sets how long to wait for a connection from the pool, separately from
+     * the connect timeout, which is used otherwise.
+     */
+    public HttpClient4ClosureBuilder setLeaseTimeout(final int leaseTimeout) {
+        checkArgument(leaseTimeout >= 0, "Lease timeout must be >= 0.");
+        leaseTimeout_ = leaseTimeout;
+        return this;
+    }
+
     public HttpClient4ClosureBuilder setMaxTotalConnections(final int maxTotalConnections) {
         checkArgument(maxTotalConnections > 0, "Max total connections must be greater than zero.");
         maxTotalConnections_ = maxTotalConnections;
@@ -144,6 +269,169 @@ public final class HttpClient4ClosureBuilder {
         return this;
     }
 
+    /**
+     * Asks for gzip or deflate compressed responses, and decodes them with
+     * pooled inflaters and buffers.  Overrides
+     * {@link #disableContentCompression(boolean)}.
+     */
+    public HttpClient4ClosureBuilder useContentDecoding(final boolean useContentDecoding) {
+        useContentDecoding_ = useContentDecoding;
+        return this;
+    }
+
+    /**
+     * Registers a decoder for an additional content encoding, like
+     * <code>br</code>, used when content decoding is on.
+     */
+    public HttpClient4ClosureBuilder addContentDecoder(final String contentEncoding,
+                                                       final ContentDecoder decoder) {
+        checkNotNull(contentEncoding, "Content encoding cannot be null.");
+        checkNotNull(decoder, "Decoder cannot be null.");
+        contentDecoders_.put(contentEncoding, decoder);
+        return this;
+    }
+
+    public HttpClient4ClosureBuilder setMaxResponseBytes(final long maxResponseBytes) {
+        checkArgument(maxResponseBytes >= 0L, "Max response bytes must be >= 0L.");
+        maxResponseBytes_ = maxResponseBytes;
+        return this;
+    }
+
+    /**
+     * Sets the {@link SSLContext} to use for outgoing TLS connections.  Pass
+     * the same context to several builders to share one TLS session cache
+     * (and therefore session resumption) between their clients.
+     */
+    public HttpClient4ClosureBuilder setSslContext(final SSLContext sslContext) {
+        sslContext_ = checkNotNull(sslContext, "SSL context cannot be null.");
+        return this;
+    }
+
+    /**
+     * Note the session cache belongs to the {@link SSLContext}, so this setting
+     * also applies to anything else sharing the same context.
+     */
+    public HttpClient4ClosureBuilder setSslSessionCacheSize(final int sslSessionCacheSize) {
+        checkArgument(sslSessionCacheSize >= 0, "SSL session cache size must be >= 0.");
+        sslSessionCacheSize_ = sslSessionCacheSize;
+        return this;
+    }
+
+    public HttpClient4ClosureBuilder setSslSessionTimeoutSecs(final int sslSessionTimeoutSecs) {
+        checkArgument(sslSessionTimeoutSecs >= 0, "SSL session timeout must be >= 0.");
+        sslSessionTimeoutSecs_ = sslSessionTimeoutSecs;
+        return this;
+    }
+
+    /**
+     * Restricts the enabled TLS protocols, in order of preference.  Any protocols
+     * not supported by the {@link SSLContext} are ignored.
+     * See {@link ClosureSSLConnectionSocketFactory#MODERN_TLS_PROTOCOLS}.
+     */
+    public HttpClient4ClosureBuilder setSslProtocols(final String... sslProtocols) {
+        sslProtocols_ = sslProtocols;
+        return this;
+    }
+
+    /**
+     * Restricts the enabled TLS cipher suites, in order of preference.  Any suites
+     * not supported by the {@link SSLContext} are ignored.
+     * See {@link ClosureSSLConnectionSocketFactory#MODERN_TLS_CIPHER_SUITES}.
+     */
+    public HttpClient4ClosureBuilder setSslCipherSuites(final String... sslCipherSuites) {
+        sslCipherSuites_ = sslCipherSuites;
+        return this;
+    }
+
+    public HttpClient4ClosureBuilder setHostnameVerifier(final HostnameVerifier hostnameVerifier) {
+        hostnameVerifier_ = hostnameVerifier;
+        return this;
+    }
+
+    /**
+     * Sends every plain (http) request for the given host over the Unix domain
+     * socket at the given path, instead of over TCP.  The host name need not
+     * resolve in DNS.  Requires JDK 16 or later at runtime.
+     */
+    public HttpClient4ClosureBuilder setUnixDomainSocket(final String host,
+                                                         final Path socketPath) {
+        checkNotNull(host, "Host cannot be null.");
+        checkNotNull(socketPath, "Socket path cannot be null.");
+        unixDomainSockets_.put(host, socketPath);
+        return this;
+    }
+
+    /**
+     * Hand out pooled connections to the waiters with the highest
+     * {@link RequestPriority} first.
+     */
+    public HttpClient4ClosureBuilder usePriorityLeasing(final boolean usePriorityLeasing) {
+        usePriorityLeasing_ = usePriorityLeasing;
+        return this;
+    }
+
+    /**
+     * With priority leasing, reserves this many connections per route for
+     * requests of the given priority, that others won't take.
+     */
+    public HttpClient4ClosureBuilder setReservedConnectionsPerRoute(final RequestPriority priority,
+                                                                   final int reserved) {
+        checkNotNull(priority, "Priority cannot be null.");
+        checkArgument(reserved >= 0, "Reserved connections must be >= 0.");
+        reservedConnectionsPerRoute_.put(priority, reserved);
+        return this;
+    }
+
+    /**
+     * With priority leasing, serve waiters that have waited longer than
+     * this next, whatever their priority.
+     */
+    public HttpClient4ClosureBuilder setLeaseStarvationMs(final long leaseStarvationMs) {
+        checkArgument(leaseStarvationMs > 0L, "Lease starvation milliseconds must be greater than zero.");
+        leaseStarvationMs_ = leaseStarvationMs;
+        return this;
+    }
+
+    /**
+     * Caps the number of requests waiting for a pooled connection per
+     * route.  Once a route has that many, more requests that can't have a
+     * connection right away fail fast, with a
+     * {@link com.kolich.http.common.exceptions.LeaseQueueFullException}.
+     * Zero means never wait.
+     */
+    public HttpClient4ClosureBuilder setMaxPendingLeasesPerRoute(final int maxPendingLeasesPerRoute) {
+        checkArgument(maxPendingLeasesPerRoute >= 0, "Max pending leases per route must be >= 0.");
+        maxPendingLeasesPerRoute_ = maxPendingLeasesPerRoute;
+        return this;
+    }
+
+    /**
+     * Registers the connection pool of each client built from here on as a
+     * <code>com.kolich.http:type=ConnectionPool</code> MBean with this name,
+     * until its connection manager is shut down.  A client built later under
+     * the same name, from this builder or any other, replaces it.  Also
+     * enables the library wide MBeans; see {@link MBeans}.
+     */
+    public HttpClient4ClosureBuilder setMBeanName(final String mbeanName) {
+        mbeanName_ = checkNotNull(mbeanName, "MBean name cannot be null.");
+        return this;
+    }
+
+    public LeaseStats getLeaseStats() {
+        return leaseStats_;
+    }
+
+    public SSLHandshakeStats getSslHandshakeStats() {
+        return sslHandshakeStats_;
+    }
+
+    public synchronized SSLContext getSslContext() {
+        if(sslContext_ == null) {
+            sslContext_ = SSLContexts.createDefault();
+        }
+        return sslContext_;
+    }
+
     /**
      * Creates a new {@link HttpClient} global {@link RequestConfig} object. The {@link RequestConfig} object
      * is where request specific settings like socket and connection timeouts live.
@@ -152,31 +440,97 @@ public final class HttpClient4ClosureBuilder {
         return RequestConfig.custom()
             .setSocketTimeout(socketTimeout_)
             .setConnectTimeout(connectTimeout_)
-            .setConnectionRequestTimeout(connectTimeout_)
+            .setConnectionRequestTimeout((leaseTimeout_ >= 0) ? leaseTimeout_ : connectTimeout_)
+            .build();
+    }
+
+    public Registry<ConnectionSocketFactory> getSocketFactoryRegistry() {
+        return getSocketFactoryRegistry(getUnixDomainSocketFactory());
+    }
+
+    private UnixDomainConnectionSocketFactory getUnixDomainSocketFactory() {
+        return unixDomainSockets_.isEmpty() ? null :
+            new UnixDomainConnectionSocketFactory(unixDomainSockets_);
+    }
+
+    private Registry<ConnectionSocketFactory> getSocketFactoryRegistry(
+        final UnixDomainConnectionSocketFactory unixDomainSocketFactory) {
+        final SSLContext sslContext = getSslContext();
+        final SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+        if(sessionContext != null) {
+            if(sslSessionCacheSize_ >= 0) {
+                sessionContext.setSessionCacheSize(sslSessionCacheSize_);
+            }
+            if(sslSessionTimeoutSecs_ >= 0) {
+                sessionContext.setSessionTimeout(sslSessionTimeoutSecs_);
+            }
+        }
+        return RegistryBuilder.<ConnectionSocketFactory>create()
+            .register("http", (unixDomainSocketFactory != null) ?
+                unixDomainSocketFactory : PlainConnectionSocketFactory.getSocketFactory())
+            .register("https", new ClosureSSLConnectionSocketFactory(sslContext,
+                sslProtocols_, sslCipherSuites_, hostnameVerifier_, sslHandshakeStats_))
             .build();
     }
 
     public HttpClientConnectionManager getConnectionManager() {
-        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        final UnixDomainConnectionSocketFactory unixDomainSocketFactory = getUnixDomainSocketFactory();
+        final PoolingHttpClientConnectionManager connectionManager =
+            new PoolingHttpClientConnectionManager(getSocketFactoryRegistry(unixDomainSocketFactory),
+                (unixDomainSocketFactory != null) ? unixDomainSocketFactory.getDnsResolver() : null);
         connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute_);
         connectionManager.setMaxTotal(maxTotalConnections_);
         connectionManager.setValidateAfterInactivity(validateAfterInactivityMs_);
-        return connectionManager;
+        // The priority connection manager also bounds the per route wait
+        // queue; waiters are served first come first served unless their
+        // closures set a priority.
+        PriorityConnectionManager priorityConnectionManager = null;
+        if(usePriorityLeasing_ || maxPendingLeasesPerRoute_ >= 0) {
+            priorityConnectionManager =
+                new PriorityConnectionManager(connectionManager, leaseStats_)
+                    .setStarvationMs(leaseStarvationMs_)
+                    .setMaxPendingPerRoute(maxPendingLeasesPerRoute_);
+            if(usePriorityLeasing_) {
+                for(final Map.Entry<RequestPriority,Integer> e : reservedConnectionsPerRoute_.entrySet()) {
+                    priorityConnectionManager.setReservedConnectionsPerRoute(e.getKey(), e.getValue());
+                }
+            }
+        }
+        final HttpClientConnectionManager manager =
+            (priorityConnectionManager != null) ? priorityConnectionManager : connectionManager;
+        if(mbeanName_ != null) {
+            // Asking for an MBean name opts in to JMX as a whole.
+            MBeans.enable();
+            final ObjectName name = MBeans.getObjectName("ConnectionPool", mbeanName_);
+            final ConnectionPoolStats stats = new ConnectionPoolStats(connectionManager,
+                priorityConnectionManager, leaseStats_, sslHandshakeStats_);
+            if(MBeans.register(name, stats)) {
+                return new MBeanConnectionManager(manager, name, stats);
+            }
+        }
+        return manager;
     }
 
     public HttpClientBuilder getHttpClientBuilder() {
         final HttpClientBuilder builder = HttpClients.custom()
             .setDefaultRequestConfig(getRequestConfig())
-            .setConnectionManager(getConnectionManager())
+            // Records connection lease waits for JFR, if asked to.
+            .setConnectionManager(new LeaseEventConnectionManager(getConnectionManager()))
             .setUserAgent(userAgent_);
         // See http://stackoverflow.com/questions/21818242/with-httpclient-4-3-x-executing-a-httphead-for-a-specific-url-gives-nohttprespo
         // Also, see https://issues.apache.org/jira/browse/HTTPCLIENT-1464
         // This disables the addition of the `Accept-Encoding: gzip,deflate`
         // header on outgoing requests which seems to confuse some servers.
         // This is off by default, but can be turned off if desired.
-        if(disableContentCompression_) {
+        if(disableContentCompression_ || useContentDecoding_) {
             builder.disableContentCompression();
         }
+        if(useContentDecoding_) {
+            final ContentDecodingInterceptor contentDecoding =
+                new ContentDecodingInterceptor(InflaterPool.getDefault(), contentDecoders_);
+            builder.addInterceptorLast((HttpRequestInterceptor)contentDecoding);
+            builder.addInterceptorLast((HttpResponseInterceptor)contentDecoding);
+        }
         if(disableAutomaticRetries_) {
             builder.disableAutomaticRetries();
         }
@@ -186,6 +540,16 @@ public final class HttpClient4ClosureBuilder {
         if(useProxySelector_) {
             builder.setRoutePlanner(new SystemDefaultRoutePlanner(ProxySelector.getDefault()));
         }
+        if(maxResponseBytes_ >= 0L) {
+            // Hands the default response size limit to the closure by way
+            // of the request context, unless something already put one there.
+            final Long maxResponseBytes = maxResponseBytes_;
+            builder.addInterceptorLast((HttpRequestInterceptor)(request, context) -> {
+                if(context.getAttribute(MAX_RESPONSE_BYTES_ATTRIBUTE) == null) {
+                    context.setAttribute(MAX_RESPONSE_BYTES_ATTRIBUTE, maxResponseBytes);
+                }
+            });
+        }
         return builder;
     }
 
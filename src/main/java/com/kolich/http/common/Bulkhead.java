@@ -0,0 +1,248 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common;
+
+import com.kolich.http.common.exceptions.BulkheadFullException;
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.protocol.HttpContext;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Isolates a class of requests, like those of one closure type, one tenant
+ * or tagged some other way, from the rest sharing the same client, by
+ * capping how many of them may be in flight at once; overall, and to any
+ * single route (scheme, host and port).
+ *
+ * A request is in flight from just before it's sent until its response
+ * has been consumed by the closure.  With a blocking transport a request
+ * holds at most one pooled connection all that time, so the per route
+ * limit is also the most connections to a route the bulkhead can take
+ * from the pool.  One slow endpoint, or noisy tenant, then can't take
+ * every connection and thread.  Behind a
+ * {@link com.kolich.http.common.transport.LoadBalancingTransport} the
+ * route is that of the endpoint chosen for the request, so the per route
+ * limit caps each replica rather than the service as a whole.
+ *
+ * Requests over a limit are rejected right away with a
+ * {@link BulkheadFullException}, rather than queued.  Limits can be
+ * changed while running; lowering one only turns away new requests until
+ * enough of those in flight are done.  Counting is lock free.
+ */
+public final class Bulkhead {
+
+    /**
+     * Hosts of relative request URIs all count against this route.
+     */
+    private static final HttpHost NO_HOST = new HttpHost("*");
+
+    /**
+     * The {@link HttpContext} attribute holding the slot taken by the
+     * request, until the closure is done with it.
+     */
+    private static final String SLOT_ATTRIBUTE = "com.kolich.http.bulkhead-slot";
+
+    private final String name_;
+
+    private volatile int maxInFlight_;
+    private volatile int maxInFlightPerRoute_;
+
+    private final AtomicInteger inFlight_ = new AtomicInteger();
+    private final ConcurrentMap<HttpHost,Route> routes_ = new ConcurrentHashMap<>();
+
+    private final LongAdder accepted_ = new LongAdder();
+    private final LongAdder rejected_ = new LongAdder();
+    private final LongAdder rejectedPerRoute_ = new LongAdder();
+
+    public Bulkhead(final String name,
+                    final int maxInFlight,
+                    final int maxInFlightPerRoute) {
+        name_ = checkNotNull(name, "Name cannot be null.");
+        setMaxInFlight(maxInFlight);
+        setMaxInFlightPerRoute(maxInFlightPerRoute);
+    }
+
+    public Bulkhead(final String name,
+                    final int maxInFlight) {
+        this(name, maxInFlight, maxInFlight);
+    }
+
+    public Bulkhead setMaxInFlight(final int maxInFlight) {
+        checkArgument(maxInFlight > 0, "Max in flight must be greater than zero.");
+        maxInFlight_ = maxInFlight;
+        return this;
+    }
+
+    public Bulkhead setMaxInFlightPerRoute(final int maxInFlightPerRoute) {
+        checkArgument(maxInFlightPerRoute > 0, "Max in flight per route must be greater than zero.");
+        maxInFlightPerRoute_ = maxInFlightPerRoute;
+        return this;
+    }
+
+    public String getName() {
+        return name_;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight_;
+    }
+
+    public int getMaxInFlightPerRoute() {
+        return maxInFlightPerRoute_;
+    }
+
+    public int getInFlight() {
+        return inFlight_.get();
+    }
+
+    /**
+     * Requests in flight to each route seen so far.
+     */
+    public Map<HttpHost,Integer> getInFlightPerRoute() {
+        final Map<HttpHost,Integer> inFlight = new LinkedHashMap<>();
+        for(final Route route : routes_.values()) {
+            inFlight.put(route.host_, route.inFlight_.get());
+        }
+        return Collections.unmodifiableMap(inFlight);
+    }
+
+    public long getAccepted() {
+        return accepted_.sum();
+    }
+
+    /**
+     * Requests rejected for any reason.
+     */
+    public long getRejected() {
+        return rejected_.sum();
+    }
+
+    /**
+     * Requests rejected because their route was at its limit, a subset of
+     * {@link #getRejected()}.
+     */
+    public long getRejectedPerRoute() {
+        return rejectedPerRoute_.sum();
+    }
+
+    /**
+     * Takes a slot for the request, recording it in the context so that
+     * {@link #release(HttpContext)} can give it back.
+     * @throws BulkheadFullException if the bulkhead, or the request's route,
+     * is at its limit
+     */
+    public void acquire(final HttpRequestBase request,
+                        final HttpContext context) throws BulkheadFullException {
+        if(!tryIncrement(inFlight_, maxInFlight_)) {
+            rejected_.increment();
+            throw new BulkheadFullException(name_, String.format(
+                "%d requests in flight.", maxInFlight_));
+        }
+        final Route route = getRoute(request);
+        if(!tryIncrement(route.inFlight_, maxInFlightPerRoute_)) {
+            inFlight_.decrementAndGet();
+            rejected_.increment();
+            rejectedPerRoute_.increment();
+            throw new BulkheadFullException(name_, String.format(
+                "%d requests in flight to %s.", maxInFlightPerRoute_, route.host_.toHostString()));
+        }
+        accepted_.increment();
+        context.setAttribute(SLOT_ATTRIBUTE, route);
+    }
+
+    /**
+     * Gives back the slot, if any, taken for the request executed with the
+     * given context.
+     */
+    public static void release(final HttpContext context) {
+        final Object route = (context != null) ?
+            context.removeAttribute(SLOT_ATTRIBUTE) : null;
+        if(route instanceof Route) {
+            ((Route)route).release();
+        }
+    }
+
+    private Route getRoute(final HttpRequestBase request) {
+        final HttpHost extracted = URIUtils.extractHost(request.getURI());
+        final HttpHost host = (extracted != null) ? extracted : NO_HOST;
+        Route route = routes_.get(host);
+        if(route == null) {
+            route = routes_.computeIfAbsent(host, Route::new);
+        }
+        return route;
+    }
+
+    private static boolean tryIncrement(final AtomicInteger counter,
+                                        final int max) {
+        int current;
+        do {
+            current = counter.get();
+            if(current >= max) {
+                return false;
+            }
+        } while(!counter.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[inFlight=%d/%d, maxInFlightPerRoute=%d, accepted=%d, " +
+            "rejected=%d, rejectedPerRoute=%d]", name_, getInFlight(), getMaxInFlight(),
+            getMaxInFlightPerRoute(), getAccepted(), getRejected(), getRejectedPerRoute());
+    }
+
+    /**
+     * The requests in flight to one route.
+     */
+    private final class Route {
+
+        private final HttpHost host_;
+        private final AtomicInteger inFlight_ = new AtomicInteger();
+
+        private Route(final HttpHost host) {
+            host_ = host;
+        }
+
+        private void release() {
+            inFlight_.decrementAndGet();
+            Bulkhead.this.inFlight_.decrementAndGet();
+        }
+
+    }
+
+}
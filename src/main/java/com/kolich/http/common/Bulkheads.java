@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Named {@link Bulkhead}s, shared by the closures and calls assigned to
+ * them, such that they can be looked up, watched and resized by name
+ * while running.
+ */
+public final class Bulkheads {
+
+    private final ConcurrentMap<String,Bulkhead> bulkheads_ = new ConcurrentHashMap<>();
+
+    public Bulkheads() {}
+
+    /**
+     * Returns the bulkhead with the given name, first creating it with the
+     * given limits if there isn't one.
+     */
+    public Bulkhead getOrCreate(final String name,
+                                final int maxInFlight,
+                                final int maxInFlightPerRoute) {
+        checkNotNull(name, "Name cannot be null.");
+        return bulkheads_.computeIfAbsent(name,
+            n -> new Bulkhead(n, maxInFlight, maxInFlightPerRoute));
+    }
+
+    /**
+     * Returns the bulkhead with the given name, or null if there isn't one.
+     */
+    public Bulkhead get(final String name) {
+        return bulkheads_.get(checkNotNull(name, "Name cannot be null."));
+    }
+
+    public Collection<Bulkhead> getAll() {
+        return Collections.unmodifiableCollection(bulkheads_.values());
+    }
+
+    /**
+     * Changes the limits of the named bulkhead, if there is one.
+     * @return true if resized
+     */
+    public boolean resize(final String name,
+                          final int maxInFlight,
+                          final int maxInFlightPerRoute) {
+        final Bulkhead bulkhead = get(name);
+        if(bulkhead == null) {
+            return false;
+        }
+        bulkhead.setMaxInFlight(maxInFlight).setMaxInFlightPerRoute(maxInFlightPerRoute);
+        return true;
+    }
+
+}
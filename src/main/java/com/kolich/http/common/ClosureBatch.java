@@ -0,0 +1,177 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.kolich.http.common.exceptions.HttpClient4ClosureException;
+import org.apache.http.client.methods.HttpRequestBase;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ObjIntConsumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Runs a (potentially huge, or unbounded) sequence of requests through a
+ * closure with at most N requests in flight at once.  Requests are pulled
+ * from the source iterator lazily, only when a slot frees up, so the source
+ * is never materialized in memory.
+ */
+/* package private */
+final class ClosureBatch<T> {
+
+    private static final String HTTPCLIENT4_CLOSURE_BATCH_THREAD_NAME =
+        "kolich-httpclient4-closure-batch-%d";
+
+    private final HttpClient4ClosureBase<T> closure_;
+    private final int parallelism_;
+    private final long deadlineMs_;
+
+    private final Semaphore slots_;
+    private final Set<HttpRequestBase> inFlight_;
+
+    /**
+     * The first exception thrown by the consumer, if any.  Once set, no
+     * further requests are started.
+     */
+    private final AtomicReference<RuntimeException> error_;
+
+    public ClosureBatch(final HttpClient4ClosureBase<T> closure,
+                        final int parallelism,
+                        final long deadlineMs) {
+        checkArgument(parallelism > 0, "Parallelism must be greater than zero.");
+        checkArgument(deadlineMs >= 0L, "Deadline in milliseconds must be >= 0L.");
+        closure_ = checkNotNull(closure, "Closure cannot be null.");
+        parallelism_ = parallelism;
+        deadlineMs_ = deadlineMs;
+        slots_ = new Semaphore(parallelism);
+        inFlight_ = ConcurrentHashMap.newKeySet(parallelism);
+        error_ = new AtomicReference<>();
+    }
+
+    /**
+     * Executes every request from the iterator, handing each result to the
+     * consumer, along with the index of its request in the source sequence,
+     * as soon as it's ready.  Calls to the consumer are serialized, so a slow
+     * consumer slows down (applies backpressure to) the whole batch.
+     */
+    public void execute(final Iterator<? extends HttpRequestBase> requests,
+                        final ObjIntConsumer<T> consumer) {
+        checkNotNull(requests, "Requests cannot be null.");
+        checkNotNull(consumer, "Consumer cannot be null.");
+        final long deadlineAt = (deadlineMs_ > 0L) ?
+            nanoTime() + MILLISECONDS.toNanos(deadlineMs_) : 0L;
+        final ExecutorService executor = newFixedThreadPool(parallelism_,
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat(HTTPCLIENT4_CLOSURE_BATCH_THREAD_NAME)
+                .build());
+        try {
+            int index = 0;
+            while(error_.get() == null && requests.hasNext()) {
+                if(!acquire(1, deadlineAt)) {
+                    // Deadline hit, stop starting new requests.
+                    break;
+                }
+                final HttpRequestBase request = checkNotNull(requests.next(),
+                    "Request at index " + index + " cannot be null.");
+                final int requestIndex = index++;
+                inFlight_.add(request);
+                executor.execute(() -> {
+                    try {
+                        final T result = closure_.request(request, null);
+                        synchronized(consumer) {
+                            if(error_.get() == null) {
+                                consumer.accept(result, requestIndex);
+                            }
+                        }
+                    } catch (RuntimeException e) {
+                        error_.compareAndSet(null, e);
+                    } finally {
+                        inFlight_.remove(request);
+                        slots_.release();
+                    }
+                });
+            }
+            // Wait for whatever is still in flight to wrap up.
+            if(!acquire(parallelism_, deadlineAt)) {
+                abortInFlight();
+                slots_.acquireUninterruptibly(parallelism_);
+            }
+        } catch (InterruptedException e) {
+            abortInFlight();
+            Thread.currentThread().interrupt();
+            throw new HttpClient4ClosureException("Interrupted while executing batch.", e);
+        } finally {
+            executor.shutdown();
+        }
+        final RuntimeException error = error_.get();
+        if(error != null) {
+            throw new HttpClient4ClosureException("Batch consumer failed.", error);
+        }
+    }
+
+    /**
+     * Acquires the given number of slots, waiting no later than the deadline
+     * (if any).  On failure, in-flight requests are aborted.
+     */
+    private boolean acquire(final int permits,
+                            final long deadlineAt) throws InterruptedException {
+        if(deadlineAt == 0L) {
+            slots_.acquire(permits);
+            return true;
+        }
+        final long remaining = deadlineAt - nanoTime();
+        if(remaining > 0L && slots_.tryAcquire(permits, remaining, NANOSECONDS)) {
+            return true;
+        }
+        abortInFlight();
+        return false;
+    }
+
+    /**
+     * Aborts every in-flight request.  Aborted requests still finish through
+     * the closure like any other failed request, so their results are still
+     * handed to the consumer.
+     */
+    private void abortInFlight() {
+        for(final HttpRequestBase request : inFlight_) {
+            request.abort();
+        }
+    }
+
+}
@@ -27,16 +27,19 @@
 package com.kolich.http.common;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.kolich.http.common.jfr.RequestTimeoutEvent;
+import com.kolich.http.common.jmx.MBeans;
+import com.kolich.http.common.jmx.TimeoutManagerMXBean;
 import org.apache.http.client.methods.HttpRequestBase;
 
 import java.util.concurrent.DelayQueue;
 import java.util.concurrent.Delayed;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static java.lang.System.currentTimeMillis;
-import static java.util.concurrent.Executors.newSingleThreadExecutor;
 
 /* package private */
 abstract class ClosureRequestTimeoutable {
@@ -50,32 +53,144 @@ abstract class ClosureRequestTimeoutable {
         "kolich-httpclient4-closure-timeout-manager-%d";
 
     protected static final DelayQueue<ClosureDelayable<HttpRequestBase>> timeoutQueue__;
+
+    /**
+     * The size of the queue, kept on the side such that reading it doesn't
+     * take the queue's lock.
+     */
+    private static final LongAdder watched__ = new LongAdder();
+    private static final LongAdder aborted__ = new LongAdder();
+    private static final LongAdder errors__ = new LongAdder();
+    private static volatile Exception lastError__ = null;
+
+    private static final Thread timeoutManager__;
     static {
         timeoutQueue__ = new DelayQueue<>();
-        newSingleThreadExecutor(new ThreadFactoryBuilder()
+        // A thread of its own, not a task on an executor, such that if it
+        // ever dies it's plain to see.
+        timeoutManager__ = new ThreadFactoryBuilder()
             .setDaemon(true)
             .setNameFormat(HTTPCLIENT4_CLOSURE_TIMEOUT_MGR_THREAD_NAME)
-            .build())
-            .submit(() -> {
-                while (true) {
-                    try {
-                        // Retrieves and removes the head of this queue,
-                        // waiting if necessary until an element with an
-                        // expired delay is available on this queue.
-                        final ClosureDelayable delayable = timeoutQueue__.take();
-                        // Abort the request attached to the delayable.
-                        delayable.request_.abort();
-                    } catch (Exception e) { }
-                }
-            });
+            .build()
+            .newThread(ClosureRequestTimeoutable::abortTimedOut);
+        timeoutManager__.start();
+        MBeans.registerWhenEnabled(MBeans.getObjectName("TimeoutManager", null), new TimeoutManager());
+    }
+
+    private static void abortTimedOut() {
+        while(true) {
+            final ClosureDelayable<HttpRequestBase> delayable;
+            try {
+                // Retrieves and removes the head of this queue,
+                // waiting if necessary until an element with an
+                // expired delay is available on this queue.
+                delayable = timeoutQueue__.take();
+                watched__.decrement();
+            } catch (InterruptedException e) {
+                // Nothing should interrupt this thread; every timeout
+                // depends on it, so keep going regardless.
+                recordError(e);
+                continue;
+            }
+            final RequestTimeoutEvent event = RequestTimeoutEvent.start();
+            try {
+                // Abort the request attached to the delayable.
+                delayable.request_.abort();
+                aborted__.increment();
+            } catch (Exception e) {
+                recordError(e);
+            }
+            if(event != null) {
+                event.commit(delayable.request_,
+                    currentTimeMillis() - delayable.expiresAt_);
+            }
+        }
+    }
+
+    private static void recordError(final Exception e) {
+        errors__.increment();
+        lastError__ = e;
+    }
+
+    private static final class TimeoutManager implements TimeoutManagerMXBean {
+        @Override
+        public int getQueueSize() {
+            return (int)Math.max(watched__.sum(), 0L);
+        }
+        @Override
+        public long getAborted() {
+            return aborted__.sum();
+        }
+        @Override
+        public long getErrors() {
+            return errors__.sum();
+        }
+        @Override
+        public String getLastError() {
+            final Exception e = lastError__;
+            return (e != null) ? e.toString() : null;
+        }
+        @Override
+        public boolean isAlive() {
+            return timeoutManager__.isAlive();
+        }
+    }
+
+    /**
+     * A spare delayable per thread, such that the steady state request
+     * path doesn't allocate a new one for every request.
+     */
+    private static final ThreadLocal<ClosureDelayable<HttpRequestBase>> spareDelayable__ =
+        new ThreadLocal<>();
+
+    /**
+     * Starts watching the request, which is aborted unless it is
+     * {@link #unwatch(ClosureDelayable)}'ed before it expires at the
+     * given time.
+     */
+    protected static final ClosureDelayable<HttpRequestBase> watch(final HttpRequestBase request,
+                                                                  final long expiresAt) {
+        ClosureDelayable<HttpRequestBase> delayable = spareDelayable__.get();
+        if(delayable != null) {
+            spareDelayable__.set(null);
+            delayable.reset(request, expiresAt);
+        } else {
+            delayable = new ClosureDelayable<>(request, expiresAt);
+        }
+        timeoutQueue__.add(delayable);
+        watched__.increment();
+        return delayable;
+    }
+
+    /**
+     * Stops watching the request.  Returns false if it was too late, and
+     * the request timed out.
+     */
+    protected static final boolean unwatch(final ClosureDelayable<HttpRequestBase> delayable) {
+        // Only if the delayable was still in the queue can it be reused;
+        // otherwise the timeout manager has it, and may be about to abort
+        // its request.
+        if(timeoutQueue__.remove(delayable)) {
+            watched__.decrement();
+            delayable.request_ = null;
+            spareDelayable__.set(delayable);
+            return true;
+        }
+        return false;
     }
 
     protected static final class ClosureDelayable<T extends HttpRequestBase>
         implements Delayed {
-        private final T request_;
-        private final long expiresAt_;
+        // Not final, such that a delayable can be reused once it's out of
+        // the queue.  Safely published to the timeout manager by the queue.
+        private T request_;
+        private long expiresAt_;
         public ClosureDelayable(final T request,
                                 final long expiresAt) {
+            reset(request, expiresAt);
+        }
+        private void reset(final T request,
+                           final long expiresAt) {
             request_ = checkNotNull(request, "Request cannot be null.");
             checkState(expiresAt > currentTimeMillis(), "Expiry time cannot be in the past.");
             expiresAt_ = expiresAt;
@@ -0,0 +1,165 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common;
+
+import com.kolich.http.common.jmx.ClosureStatsMXBean;
+import com.kolich.http.common.jmx.MBeans;
+import com.kolich.http.common.response.FailureType;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Success, failure and latency counts for every request made through
+ * closures of one class, kept by the closures themselves and registered as
+ * an MBean the first time a closure class makes a request, once JMX is
+ * enabled; see {@link MBeans}.  Counting is
+ * lock free and reading the counts, from JMX or otherwise, never gets in
+ * the way of a request.
+ */
+public final class ClosureStats implements ClosureStatsMXBean {
+
+    private static final FailureType[] FAILURE_TYPES = FailureType.values();
+
+    /**
+     * By class name, such that a class loaded twice, or reloaded, shares
+     * its counts and its MBean.
+     */
+    private static final ConcurrentMap<String,ClosureStats> byName__ =
+        new ConcurrentHashMap<>();
+
+    /**
+     * The fast path, no hashing or locking once a class has its stats.
+     */
+    private static final ClassValue<ClosureStats> byClass__ = new ClassValue<ClosureStats>() {
+        @Override
+        protected ClosureStats computeValue(final Class<?> type) {
+            return byName__.computeIfAbsent(type.getName(), name -> {
+                final ClosureStats stats = new ClosureStats(name);
+                MBeans.registerWhenEnabled(MBeans.getObjectName("Closure", name), stats);
+                return stats;
+            });
+        }
+    };
+
+    private final String name_;
+
+    private final LongAdder succeeded_ = new LongAdder();
+    private final LongAdder[] failed_;
+    private final LongAdder latencyNanos_ = new LongAdder();
+    private final LongAccumulator maxLatencyNanos_ = new LongAccumulator(Long::max, 0L);
+
+    private ClosureStats(final String name) {
+        name_ = name;
+        failed_ = new LongAdder[FAILURE_TYPES.length];
+        for(int i = 0; i < failed_.length; i++) {
+            failed_[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Returns the stats of the given closure class.
+     */
+    public static ClosureStats of(final Class<?> closureClass) {
+        return byClass__.get(checkNotNull(closureClass, "Closure class cannot be null."));
+    }
+
+    /**
+     * Counts a request that took the given time, and failed with the given
+     * type of failure, or succeeded if null.
+     */
+    public void record(final long latencyNanos,
+                       final FailureType failure) {
+        if(failure == null) {
+            succeeded_.increment();
+        } else {
+            failed_[failure.ordinal()].increment();
+        }
+        latencyNanos_.add(latencyNanos);
+        maxLatencyNanos_.accumulate(latencyNanos);
+    }
+
+    public String getName() {
+        return name_;
+    }
+
+    @Override
+    public long getSucceeded() {
+        return succeeded_.sum();
+    }
+
+    @Override
+    public long getFailed() {
+        long failed = 0L;
+        for(final LongAdder adder : failed_) {
+            failed += adder.sum();
+        }
+        return failed;
+    }
+
+    @Override
+    public Map<String,Long> getFailuresByType() {
+        final Map<String,Long> failures = new LinkedHashMap<>();
+        for(final FailureType type : FAILURE_TYPES) {
+            final long count = failed_[type.ordinal()].sum();
+            if(count > 0L) {
+                failures.put(type.name(), count);
+            }
+        }
+        return Collections.unmodifiableMap(failures);
+    }
+
+    @Override
+    public double getMeanLatencyMs() {
+        final long requests = getSucceeded() + getFailed();
+        return (requests > 0L) ? (latencyNanos_.sum() / 1e6d) / requests : 0.0d;
+    }
+
+    @Override
+    public double getMaxLatencyMs() {
+        return maxLatencyNanos_.get() / 1e6d;
+    }
+
+    @Override
+    public void resetMaxLatency() {
+        maxLatencyNanos_.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ClosureStats(%s, succeeded=%d, failed=%d, mean=%.2fms, max=%.2fms)",
+            name_, getSucceeded(), getFailed(), getMeanLatencyMs(), getMaxLatencyMs());
+    }
+
+}
@@ -0,0 +1,425 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common;
+
+import com.kolich.http.common.exceptions.RateLimitedException;
+import org.apache.http.Header;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.client.utils.URIUtils;
+
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.lang.System.currentTimeMillis;
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.apache.http.HttpHeaders.RETRY_AFTER;
+import static org.apache.http.HttpStatus.SC_SERVICE_UNAVAILABLE;
+
+/**
+ * Paces the requests a closure sends, per target host, with a token bucket.
+ * Each host has a rate in permits (requests) per second, and a burst of
+ * permits that may be used at once after a quiet spell.  Hosts without a
+ * rate of their own get the default rate, which is unlimited unless set.
+ *
+ * A request that arrives before a permit is available either waits for it,
+ * or fails fast with a {@link RateLimitedException}, depending on the
+ * {@link Policy}.  When a host answers 429 Too Many Requests or 503 Service
+ * Unavailable, nothing more is sent to it until its Retry-After has passed,
+ * and its rate is lowered for a while after that.
+ *
+ * Behind a {@link com.kolich.http.common.transport.LoadBalancingTransport}
+ * the host is the endpoint chosen for the request, not the logical one the
+ * closure was asked to send it to.
+ *
+ * The buckets are lock free; taking a permit is a single compare-and-set
+ * on the time the bucket next has a permit to spare.
+ */
+public final class HostRateLimiter {
+
+    public static enum Policy {
+        /**
+         * Wait for a permit, up to the maximum wait.
+         */
+        WAIT,
+        /**
+         * Fail right away if there's no permit available.
+         */
+        FAIL_FAST;
+    }
+
+    public static final double DEFAULT_PENALTY_RATE_FACTOR = 0.5d;
+    public static final long DEFAULT_PENALTY_MS = 60000L; // 1 minute
+
+    /**
+     * The response status code for Too Many Requests, not in HttpCore's
+     * {@link org.apache.http.HttpStatus}.
+     */
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Hosts of relative request URIs all share this bucket.
+     */
+    private static final HttpHost NO_HOST = new HttpHost("*");
+
+    private final ConcurrentMap<HttpHost,HostRate> hosts_;
+    private final Map<HttpHost,long[]> rates_;
+
+    private final long defaultIntervalNanos_;
+    private final int defaultBurst_;
+
+    private volatile Policy policy_ = Policy.WAIT;
+    private volatile long maxWaitNanos_ = Long.MAX_VALUE;
+    private volatile double penaltyRateFactor_ = DEFAULT_PENALTY_RATE_FACTOR;
+    private volatile long penaltyNanos_ = MILLISECONDS.toNanos(DEFAULT_PENALTY_MS);
+
+    /**
+     * Limits every host to the given rate, with the given burst.
+     */
+    public HostRateLimiter(final double permitsPerSecond,
+                           final int burst) {
+        checkArgument(permitsPerSecond > 0.0d, "Permits per second must be greater than zero.");
+        checkArgument(burst > 0, "Burst must be greater than zero.");
+        hosts_ = new ConcurrentHashMap<>();
+        rates_ = new ConcurrentHashMap<>();
+        defaultIntervalNanos_ = getIntervalNanos(permitsPerSecond);
+        defaultBurst_ = burst;
+    }
+
+    /**
+     * Doesn't limit hosts without a rate of their own, other than to honor
+     * any Retry-After they send back.
+     */
+    public HostRateLimiter() {
+        hosts_ = new ConcurrentHashMap<>();
+        rates_ = new ConcurrentHashMap<>();
+        defaultIntervalNanos_ = 0L;
+        defaultBurst_ = 1;
+    }
+
+    /**
+     * Sets the rate for requests to a specific host (scheme, hostname and
+     * port), overriding the default.  Must be set before the first request
+     * to the host.
+     */
+    public HostRateLimiter setRate(final HttpHost host,
+                                   final double permitsPerSecond,
+                                   final int burst) {
+        checkNotNull(host, "Host cannot be null.");
+        checkArgument(permitsPerSecond > 0.0d, "Permits per second must be greater than zero.");
+        checkArgument(burst > 0, "Burst must be greater than zero.");
+        rates_.put(host, new long[]{getIntervalNanos(permitsPerSecond), burst});
+        return this;
+    }
+
+    public HostRateLimiter setPolicy(final Policy policy) {
+        policy_ = checkNotNull(policy, "Policy cannot be null.");
+        return this;
+    }
+
+    /**
+     * With the {@link Policy#WAIT} policy, fail fast anyways if the wait for
+     * a permit would be longer than this.
+     */
+    public HostRateLimiter setMaxWaitMs(final long maxWaitMs) {
+        checkArgument(maxWaitMs >= 0L, "Max wait milliseconds must be >= 0L.");
+        maxWaitNanos_ = MILLISECONDS.toNanos(maxWaitMs);
+        return this;
+    }
+
+    /**
+     * After a Retry-After, lower the rate of the host by this factor (0.5
+     * is half the rate) for this long.
+     */
+    public HostRateLimiter setPenalty(final double rateFactor,
+                                      final long penaltyMs) {
+        checkArgument(rateFactor > 0.0d && rateFactor <= 1.0d,
+            "Penalty rate factor must be greater than zero and at most one.");
+        checkArgument(penaltyMs >= 0L, "Penalty milliseconds must be >= 0L.");
+        penaltyRateFactor_ = rateFactor;
+        penaltyNanos_ = MILLISECONDS.toNanos(penaltyMs);
+        return this;
+    }
+
+    /**
+     * The hosts seen so far, and their current rates and counts.
+     */
+    public Collection<HostRate> getHostRates() {
+        return Collections.unmodifiableCollection(hosts_.values());
+    }
+
+    public HostRate getHostRate(final HttpHost host) {
+        return hosts_.get(checkNotNull(host, "Host cannot be null."));
+    }
+
+    /**
+     * Takes a permit for the request's host, waiting for one if needed.
+     * @throws RateLimitedException if there's no permit, and the policy is
+     * to fail fast or the wait would be too long
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    public void acquire(final HttpRequestBase request)
+        throws RateLimitedException, InterruptedIOException {
+        final HostRate rate = getHostRate(request);
+        final long waitNanos = rate.acquire(nanoTime(),
+            (policy_ == Policy.FAIL_FAST) ? 0L : maxWaitNanos_);
+        if(waitNanos > 0L) {
+            final long deadline = nanoTime() + waitNanos;
+            long remaining;
+            while((remaining = deadline - nanoTime()) > 0L) {
+                LockSupport.parkNanos(this, remaining);
+                if(Thread.interrupted()) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for a " +
+                        "permit to " + rate.host_.toHostString());
+                }
+            }
+        }
+    }
+
+    /**
+     * Looks for a 429 or 503 response, and if there is one, holds off on the
+     * host until its Retry-After, if any, then lowers its rate for a while.
+     */
+    public void onResponse(final HttpRequestBase request,
+                           final HttpResponse response) {
+        final int status = response.getStatusLine().getStatusCode();
+        if(status != SC_TOO_MANY_REQUESTS && status != SC_SERVICE_UNAVAILABLE) {
+            return;
+        }
+        final long retryAfterNanos = getRetryAfterNanos(response);
+        // A 503 without a Retry-After is not necessarily about load.
+        if(status == SC_TOO_MANY_REQUESTS || retryAfterNanos >= 0L) {
+            getHostRate(request).penalize(nanoTime(), Math.max(retryAfterNanos, 0L),
+                penaltyRateFactor_, penaltyNanos_);
+        }
+    }
+
+    private HostRate getHostRate(final HttpRequestBase request) {
+        final HttpHost extracted = URIUtils.extractHost(request.getURI());
+        final HttpHost host = (extracted != null) ? extracted : NO_HOST;
+        HostRate rate = hosts_.get(host);
+        if(rate == null) {
+            final long[] configured = rates_.get(host);
+            rate = new HostRate(host,
+                (configured != null) ? configured[0] : defaultIntervalNanos_,
+                (configured != null) ? (int)configured[1] : defaultBurst_);
+            final HostRate existing = hosts_.putIfAbsent(host, rate);
+            if(existing != null) {
+                rate = existing;
+            }
+        }
+        return rate;
+    }
+
+    /**
+     * Parses a Retry-After, in delta seconds or as an HTTP date, into
+     * nanoseconds from now.  Returns -1 if there isn't one.
+     */
+    private static long getRetryAfterNanos(final HttpResponse response) {
+        final Header header = response.getFirstHeader(RETRY_AFTER);
+        if(header == null || header.getValue() == null) {
+            return -1L;
+        }
+        final String value = header.getValue().trim();
+        try {
+            return SECONDS.toNanos(Math.max(Long.parseLong(value), 0L));
+        } catch (NumberFormatException e) {
+            final Date date = DateUtils.parseDate(value);
+            return (date != null) ?
+                MILLISECONDS.toNanos(Math.max(date.getTime() - currentTimeMillis(), 0L)) : -1L;
+        }
+    }
+
+    private static long getIntervalNanos(final double permitsPerSecond) {
+        return Math.max((long)(SECONDS.toNanos(1L) / permitsPerSecond), 1L);
+    }
+
+    /**
+     * The token bucket of a single host, kept as the "theoretical arrival
+     * time" of the next request: the bucket is full when it's in the past,
+     * and a request is allowed right away as long as it's no more than a
+     * burst of permits into the future.
+     */
+    public static final class HostRate {
+
+        private final HttpHost host_;
+        private final long intervalNanos_;
+        private final int burst_;
+
+        private final AtomicLong nextNanos_;
+
+        private volatile long penaltyUntilNanos_;
+        private volatile long penaltyIntervalNanos_;
+
+        private final LongAdder acquired_ = new LongAdder();
+        private final LongAdder delayed_ = new LongAdder();
+        private final LongAdder rejected_ = new LongAdder();
+        private final LongAdder penalties_ = new LongAdder();
+
+        private HostRate(final HttpHost host,
+                         final long intervalNanos,
+                         final int burst) {
+            host_ = host;
+            intervalNanos_ = intervalNanos;
+            burst_ = burst;
+            final long now = nanoTime();
+            nextNanos_ = new AtomicLong(now);
+            penaltyUntilNanos_ = now;
+        }
+
+        /**
+         * Returns how long to wait for the permit taken, or throws if that's
+         * longer than the max wait, in which case no permit is taken.
+         */
+        private long acquire(final long now,
+                             final long maxWaitNanos) throws RateLimitedException {
+            final long interval = getIntervalNanos(now);
+            final long burst = interval * burst_;
+            for(;;) {
+                final long next = nextNanos_.get();
+                final long start = (next - now < 0L) ? now : next;
+                // Unlimited, and not holding off: nothing to update.
+                if(interval == 0L && start == now) {
+                    acquired_.increment();
+                    return 0L;
+                }
+                final long wait = start + interval - burst - now;
+                if(wait > maxWaitNanos) {
+                    rejected_.increment();
+                    throw new RateLimitedException(host_.toHostString(),
+                        NANOSECONDS.toMillis(wait));
+                }
+                if(nextNanos_.compareAndSet(next, start + interval)) {
+                    acquired_.increment();
+                    if(wait > 0L) {
+                        delayed_.increment();
+                    }
+                    return Math.max(wait, 0L);
+                }
+            }
+        }
+
+        private void penalize(final long now,
+                              final long retryAfterNanos,
+                              final double rateFactor,
+                              final long penaltyNanos) {
+            penalties_.increment();
+            final long resume = now + retryAfterNanos;
+            penaltyIntervalNanos_ = (long)(intervalNanos_ / rateFactor);
+            penaltyUntilNanos_ = resume + penaltyNanos;
+            // Push the bucket out such that the next permit, and only one,
+            // is available at the Retry-After.
+            final long interval = getIntervalNanos(resume);
+            final long holdOff = resume + interval * burst_ - interval;
+            long next;
+            while((next = nextNanos_.get()) - holdOff < 0L &&
+                !nextNanos_.compareAndSet(next, holdOff)) {
+                // Retry.
+            }
+        }
+
+        private long getIntervalNanos(final long now) {
+            return (now - penaltyUntilNanos_ < 0L) ? penaltyIntervalNanos_ : intervalNanos_;
+        }
+
+        public HttpHost getHost() {
+            return host_;
+        }
+
+        /**
+         * The current rate in permits per second, lowered while penalized,
+         * or zero if unlimited.
+         */
+        public double getPermitsPerSecond() {
+            final long interval = getIntervalNanos(nanoTime());
+            return (interval == 0L) ? 0.0d : (double)SECONDS.toNanos(1L) / interval;
+        }
+
+        public int getBurst() {
+            return burst_;
+        }
+
+        public boolean isPenalized() {
+            return nanoTime() - penaltyUntilNanos_ < 0L;
+        }
+
+        /**
+         * Permits handed out, with or without a wait.
+         */
+        public long getAcquired() {
+            return acquired_.sum();
+        }
+
+        /**
+         * Permits that had to be waited for.
+         */
+        public long getDelayed() {
+            return delayed_.sum();
+        }
+
+        /**
+         * Requests that failed fast, without a permit.
+         */
+        public long getRejected() {
+            return rejected_.sum();
+        }
+
+        /**
+         * Times the host was penalized, for a 429, or a 503 with a
+         * Retry-After.
+         */
+        public long getPenalties() {
+            return penalties_.sum();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[permitsPerSecond=%.2f, acquired=%d, delayed=%d, " +
+                "rejected=%d, penalties=%d, penalized=%s]", host_.toHostString(),
+                getPermitsPerSecond(), getAcquired(), getDelayed(), getRejected(),
+                getPenalties(), isPenalized());
+        }
+
+    }
+
+}
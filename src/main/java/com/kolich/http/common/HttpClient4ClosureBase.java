@@ -26,8 +26,13 @@
 
 package com.kolich.http.common;
 
+import com.kolich.http.common.entity.EntityWriter;
+import com.kolich.http.common.entity.WriterEntity;
+import com.kolich.http.common.response.HttpFailure;
+import com.kolich.http.common.response.HttpSuccess;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.*;
+import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HttpContext;
@@ -35,12 +40,50 @@ import org.apache.http.protocol.HttpContext;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.Stream;
 
 import static java.net.URI.create;
 import static org.apache.http.HttpStatus.SC_BAD_REQUEST;
 
 public abstract class HttpClient4ClosureBase<T> extends ClosureRequestTimeoutable {
 
+	/**
+	 * A context per thread for requests made without one, cleared and
+	 * reused from request to request, for closures that opt in with
+	 * {@link #reuseContext_}.  It's already an {@link HttpClientContext},
+	 * so the client doesn't wrap it in one of those either.
+	 */
+	private static final ThreadLocal<ReusableHttpContext> spareContext__ =
+		ThreadLocal.withInitial(ReusableHttpContext::new);
+
+	private static final class ReusableHttpContext extends HttpClientContext {
+		private final BasicHttpContext context_;
+		private boolean inUse_ = false;
+		private boolean detached_ = false;
+		private ReusableHttpContext(final BasicHttpContext context) {
+			super(context);
+			context_ = context;
+		}
+		private ReusableHttpContext() {
+			this(new BasicHttpContext());
+		}
+		private void clear() {
+			context_.clear();
+		}
+	}
+
+	/**
+	 * When true, requests made without a context reuse this thread's spare
+	 * one instead of allocating a new {@link BasicHttpContext}.  The context
+	 * of an {@link HttpSuccess} is then only valid until the closure
+	 * returns.  Off by default.
+	 */
+	protected boolean reuseContext_ = false;
+
 	public T head(final String url) {
 		return head(create(url));
 	}
@@ -117,6 +160,29 @@ public abstract class HttpClient4ClosureBase<T> extends ClosureRequestTimeoutabl
 		}
 		return request(post, context);
 	}
+
+	/**
+	 * Sends a body produced by the given writer, as it's written, with
+	 * chunked transfer encoding.  The writer gets a stream buffered to
+	 * <code>bufferSize</code> bytes, or an unbuffered stream if zero.
+	 */
+	public T post(final HttpPost post,
+                  final EntityWriter writer,
+                  final String contentType,
+                  final int bufferSize) {
+		return post(post, writer, contentType, bufferSize, null);
+	}
+
+	public T post(final HttpPost post,
+                  final EntityWriter writer,
+                  final String contentType,
+                  final int bufferSize,
+                  final HttpContext context) {
+		if(writer != null) {
+			post.setEntity(new WriterEntity(writer, contentType, bufferSize));
+		}
+		return request(post, context);
+	}
 	
 	public T put(final String url) {
 		return put(create(url));
@@ -167,6 +233,24 @@ public abstract class HttpClient4ClosureBase<T> extends ClosureRequestTimeoutabl
 		}
 		return request(put, context);
 	}
+
+	public T put(final HttpPut put,
+                 final EntityWriter writer,
+                 final String contentType,
+                 final int bufferSize) {
+		return put(put, writer, contentType, bufferSize, null);
+	}
+
+	public T put(final HttpPut put,
+                 final EntityWriter writer,
+                 final String contentType,
+                 final int bufferSize,
+                 final HttpContext context) {
+		if(writer != null) {
+			put.setEntity(new WriterEntity(writer, contentType, bufferSize));
+		}
+		return request(put, context);
+	}
 	
 	public T delete(final String url) {
 		return delete(create(url));
@@ -208,8 +292,104 @@ public abstract class HttpClient4ClosureBase<T> extends ClosureRequestTimeoutabl
 	
 	public final T request(final HttpRequestBase request,
                            final HttpContext context) {
-		return doit(request, (context == null) ?
-			new BasicHttpContext() : context);
+		if(context != null) {
+			return doit(request, context);
+		} else if(!reuseContext_) {
+			return doit(request, new BasicHttpContext());
+		}
+		// No context given, reuse this thread's spare one unless it's in use
+		// by a request further up the stack (a closure called from within
+		// another closure).
+		final ReusableHttpContext spare = spareContext__.get();
+		if(spare.inUse_) {
+			return doit(request, new BasicHttpContext());
+		}
+		spare.inUse_ = true;
+		try {
+			return doit(request, spare);
+		} finally {
+			if(spare.detached_) {
+				spareContext__.set(new ReusableHttpContext());
+			} else {
+				spare.clear();
+				spare.inUse_ = false;
+			}
+		}
+	}
+
+	/**
+	 * Lets the context outlive the request, if it's this thread's reusable
+	 * one, which is then replaced for the next request instead of cleared.
+	 * For when the context escapes, like with an {@link HttpFailure} that's
+	 * returned as is.
+	 */
+	protected static final void detachContext(final HttpContext context) {
+		if(context instanceof ReusableHttpContext) {
+			((ReusableHttpContext)context).detached_ = true;
+		}
+	}
+	
+	/**
+	 * Executes every request in the batch through this closure, with at most
+	 * <code>parallelism</code> requests in flight at any one time, and returns
+	 * the results in the same order as their requests.
+	 *
+	 * Requests are pulled from the source lazily as slots free up.  If the
+	 * deadline (in milliseconds, zero meaning no deadline) is hit, any in-flight
+	 * requests are aborted, their results are the closure's failures, and
+	 * requests not yet started are left unconsumed; the returned list is then
+	 * shorter than the source.
+	 *
+	 * Note that requests run concurrently against this one closure instance,
+	 * so any state kept on the closure itself must be thread-safe.
+	 */
+	public final List<T> batch(final Iterable<? extends HttpRequestBase> requests,
+                               final int parallelism,
+                               final long deadlineMs) {
+		return batch(requests.iterator(), parallelism, deadlineMs);
+	}
+
+	public final List<T> batch(final Stream<? extends HttpRequestBase> requests,
+                               final int parallelism,
+                               final long deadlineMs) {
+		return batch(requests.iterator(), parallelism, deadlineMs);
+	}
+
+	private final List<T> batch(final Iterator<? extends HttpRequestBase> requests,
+                                final int parallelism,
+                                final long deadlineMs) {
+		final List<T> results = new ArrayList<>();
+		new ClosureBatch<>(this, parallelism, deadlineMs).execute(requests, (result, index) -> {
+			// Calls to the consumer are serialized, so this is safe.
+			while(results.size() <= index) {
+				results.add(null);
+			}
+			results.set(index, result);
+		});
+		return results;
+	}
+
+	/**
+	 * Like {@link #batch(Iterable, int, long)}, but instead of collecting
+	 * results hands each one to the consumer, along with the index of its
+	 * request in the source, as soon as it's finished.  Calls to the consumer
+	 * are serialized; a slow consumer holds back the whole batch, so memory use
+	 * stays bounded no matter how large the source is.
+	 */
+	public final void batch(final Iterable<? extends HttpRequestBase> requests,
+                            final int parallelism,
+                            final long deadlineMs,
+                            final ObjIntConsumer<T> consumer) {
+		new ClosureBatch<>(this, parallelism, deadlineMs)
+			.execute(requests.iterator(), consumer);
+	}
+
+	public final void batch(final Stream<? extends HttpRequestBase> requests,
+                            final int parallelism,
+                            final long deadlineMs,
+                            final ObjIntConsumer<T> consumer) {
+		new ClosureBatch<>(this, parallelism, deadlineMs)
+			.execute(requests.iterator(), consumer);
 	}
 	
 	/**
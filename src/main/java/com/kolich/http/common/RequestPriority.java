@@ -0,0 +1,73 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * How urgently a closure needs a pooled connection, when it has to wait
+ * for one.  Only honored by clients whose connection manager schedules
+ * leases by priority, see
+ * {@link com.kolich.http.common.conn.PriorityConnectionManager}.
+ *
+ * The priority is handed to the connection manager by way of the thread
+ * executing the request, so it only applies to blocking transports, like
+ * the default {@link com.kolich.http.common.transport.HttpClient4Transport}.
+ */
+public enum RequestPriority {
+
+    /**
+     * Interactive, user facing, requests.
+     */
+    HIGH,
+    NORMAL,
+    /**
+     * Bulk, or background, requests that can wait.
+     */
+    LOW;
+
+    private static final ThreadLocal<RequestPriority> current__ =
+        ThreadLocal.withInitial(() -> NORMAL);
+
+    /**
+     * The priority of the request being executed on this thread.
+     */
+    public static RequestPriority current() {
+        return current__.get();
+    }
+
+    /**
+     * Sets the priority of requests executed on this thread.
+     * @return the previous priority, to be restored afterwards
+     */
+    public static RequestPriority setCurrent(final RequestPriority priority) {
+        final RequestPriority previous = current__.get();
+        current__.set(checkNotNull(priority, "Priority cannot be null."));
+        return previous;
+    }
+
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.conn;
+
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.protocol.HttpContext;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * An {@link SSLConnectionSocketFactory} that keeps track of how many
+ * handshakes were full versus resumed, and quietly drops any requested
+ * protocols or cipher suites that the underlying {@link SSLContext} does
+ * not support (instead of failing every connection attempt).
+ */
+public final class ClosureSSLConnectionSocketFactory extends SSLConnectionSocketFactory {
+
+    /**
+     * Reasonable "fast" defaults: TLSv1.3 and TLSv1.2 only, no legacy
+     * protocol fallback.
+     */
+    public static final String[] MODERN_TLS_PROTOCOLS = {
+        "TLSv1.3", "TLSv1.2"
+    };
+
+    /**
+     * AEAD cipher suites with (EC)DHE key exchange, cheapest first on
+     * hardware with AES instructions.
+     */
+    public static final String[] MODERN_TLS_CIPHER_SUITES = {
+        "TLS_AES_128_GCM_SHA256",
+        "TLS_AES_256_GCM_SHA384",
+        "TLS_CHACHA20_POLY1305_SHA256",
+        "TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256",
+        "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256",
+        "TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384",
+        "TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384",
+        "TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256",
+        "TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256"
+    };
+
+    private final SSLHandshakeStats stats_;
+
+    public ClosureSSLConnectionSocketFactory(final SSLContext sslContext,
+                                             final String[] protocols,
+                                             final String[] cipherSuites,
+                                             final HostnameVerifier hostnameVerifier,
+                                             final SSLHandshakeStats stats) {
+        super(checkNotNull(sslContext, "SSL context cannot be null."),
+            supported(protocols, sslContext.getSupportedSSLParameters().getProtocols()),
+            supported(cipherSuites, sslContext.getSupportedSSLParameters().getCipherSuites()),
+            (hostnameVerifier != null) ? hostnameVerifier : getDefaultHostnameVerifier());
+        stats_ = checkNotNull(stats, "SSL handshake stats cannot be null.");
+    }
+
+    public ClosureSSLConnectionSocketFactory(final SSLContext sslContext,
+                                             final SSLHandshakeStats stats) {
+        this(sslContext, null, null, null, stats);
+    }
+
+    @Override
+    public Socket createLayeredSocket(final Socket socket,
+                                      final String target,
+                                      final int port,
+                                      final HttpContext context) throws IOException {
+        // The parent implementation performs the handshake synchronously, so
+        // any session created before this point in time must have been pulled
+        // from the client session cache (e.g., resumed).
+        final long handshakeStartedAt = currentTimeMillis();
+        final Socket layered;
+        try {
+            layered = super.createLayeredSocket(socket, target, port, context);
+        } catch (IOException e) {
+            stats_.recordFailed();
+            throw e;
+        }
+        if(layered instanceof SSLSocket) {
+            final SSLSession session = ((SSLSocket)layered).getSession();
+            if(session.getCreationTime() < handshakeStartedAt) {
+                stats_.recordResumed();
+            } else {
+                stats_.recordFull();
+            }
+        }
+        return layered;
+    }
+
+    public SSLHandshakeStats getHandshakeStats() {
+        return stats_;
+    }
+
+    /**
+     * Returns the subset of the requested values that are actually supported,
+     * preserving the requested (preference) order.  Returns null, meaning
+     * "use the JSSE defaults", if nothing was requested.
+     */
+    private static String[] supported(final String[] requested,
+                                      final String[] supported) {
+        if(requested == null) {
+            return null;
+        }
+        final Set<String> available = new HashSet<>(Arrays.asList(supported));
+        final String[] result = Arrays.stream(requested)
+            .filter(available::contains)
+            .toArray(String[]::new);
+        if(result.length == 0) {
+            throw new IllegalArgumentException("None of the requested values are " +
+                "supported by the SSL context: " + Arrays.toString(requested));
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.conn;
+
+import com.kolich.http.common.jmx.ConnectionPoolMXBean;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A view of one client's connection pool, with the lease and TLS handshake
+ * counts of the builder that made it.  The pool counts are read from the
+ * pool as asked for, which briefly takes the pool's lock (and each route's
+ * lock, for requests waiting on a priority connection manager); the rest
+ * are lock free counters.
+ */
+public final class ConnectionPoolStats implements ConnectionPoolMXBean {
+
+    private final PoolingHttpClientConnectionManager pool_;
+    private final PriorityConnectionManager priority_;
+    private final LeaseStats leaseStats_;
+    private final SSLHandshakeStats sslHandshakeStats_;
+
+    /**
+     * @param priority the priority connection manager in front of the
+     * pool, whose queued requests count as pending, or null if none
+     */
+    public ConnectionPoolStats(final PoolingHttpClientConnectionManager pool,
+                               final PriorityConnectionManager priority,
+                               final LeaseStats leaseStats,
+                               final SSLHandshakeStats sslHandshakeStats) {
+        pool_ = checkNotNull(pool, "Connection pool cannot be null.");
+        priority_ = priority;
+        leaseStats_ = checkNotNull(leaseStats, "Lease stats cannot be null.");
+        sslHandshakeStats_ = checkNotNull(sslHandshakeStats, "SSL handshake stats cannot be null.");
+    }
+
+    public ConnectionPoolStats(final PoolingHttpClientConnectionManager pool,
+                               final LeaseStats leaseStats,
+                               final SSLHandshakeStats sslHandshakeStats) {
+        this(pool, null, leaseStats, sslHandshakeStats);
+    }
+
+    @Override
+    public int getLeased() {
+        return pool_.getTotalStats().getLeased();
+    }
+
+    @Override
+    public int getAvailable() {
+        return pool_.getTotalStats().getAvailable();
+    }
+
+    @Override
+    public int getPending() {
+        // Requests queued by the priority connection manager haven't asked
+        // the pool for a connection yet.
+        final int pending = pool_.getTotalStats().getPending();
+        return (priority_ != null) ? pending + priority_.getPending() : pending;
+    }
+
+    @Override
+    public int getMaxTotal() {
+        return pool_.getMaxTotal();
+    }
+
+    @Override
+    public int getDefaultMaxPerRoute() {
+        return pool_.getDefaultMaxPerRoute();
+    }
+
+    @Override
+    public int getRoutes() {
+        return pool_.getRoutes().size();
+    }
+
+    @Override
+    public long getLeasesRejected() {
+        return leaseStats_.getRejected();
+    }
+
+    @Override
+    public long getLeasesTimedOut() {
+        return leaseStats_.getTimedOut();
+    }
+
+    @Override
+    public long getFullHandshakes() {
+        return sslHandshakeStats_.getFullHandshakes();
+    }
+
+    @Override
+    public long getResumedHandshakes() {
+        return sslHandshakeStats_.getResumedHandshakes();
+    }
+
+    @Override
+    public long getFailedHandshakes() {
+        return sslHandshakeStats_.getFailedHandshakes();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ConnectionPoolStats(leased=%d, available=%d, pending=%d, max=%d)",
+            getLeased(), getAvailable(), getPending(), getMaxTotal());
+    }
+
+}
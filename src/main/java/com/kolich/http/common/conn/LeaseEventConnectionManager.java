@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.conn;
+
+import com.kolich.http.common.jfr.ConnectionLeaseEvent;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Wraps any {@link HttpClientConnectionManager} to record a
+ * {@link ConnectionLeaseEvent} for every wait for a connection, when that
+ * event is enabled in a running flight recording.  When it isn't, leases
+ * go straight to the wrapped manager as is.
+ */
+public final class LeaseEventConnectionManager implements HttpClientConnectionManager {
+
+    private final HttpClientConnectionManager delegate_;
+
+    public LeaseEventConnectionManager(final HttpClientConnectionManager delegate) {
+        delegate_ = checkNotNull(delegate, "Delegate connection manager cannot be null.");
+    }
+
+    public HttpClientConnectionManager getDelegate() {
+        return delegate_;
+    }
+
+    @Override
+    public ConnectionRequest requestConnection(final HttpRoute route,
+                                               final Object state) {
+        final ConnectionRequest request = delegate_.requestConnection(route, state);
+        final ConnectionLeaseEvent event = ConnectionLeaseEvent.start();
+        if(event == null) {
+            return request;
+        }
+        return new ConnectionRequest() {
+            @Override
+            public HttpClientConnection get(final long timeout,
+                                            final TimeUnit timeUnit)
+                throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+                boolean leased = false;
+                try {
+                    final HttpClientConnection conn = request.get(timeout, timeUnit);
+                    leased = true;
+                    return conn;
+                } finally {
+                    event.commit(route, leased);
+                }
+            }
+            @Override
+            public boolean cancel() {
+                return request.cancel();
+            }
+        };
+    }
+
+    @Override
+    public void releaseConnection(final HttpClientConnection conn,
+                                  final Object newState,
+                                  final long validDuration,
+                                  final TimeUnit timeUnit) {
+        delegate_.releaseConnection(conn, newState, validDuration, timeUnit);
+    }
+
+    @Override
+    public void connect(final HttpClientConnection conn,
+                        final HttpRoute route,
+                        final int connectTimeout,
+                        final HttpContext context) throws IOException {
+        delegate_.connect(conn, route, connectTimeout, context);
+    }
+
+    @Override
+    public void upgrade(final HttpClientConnection conn,
+                        final HttpRoute route,
+                        final HttpContext context) throws IOException {
+        delegate_.upgrade(conn, route, context);
+    }
+
+    @Override
+    public void routeComplete(final HttpClientConnection conn,
+                              final HttpRoute route,
+                              final HttpContext context) throws IOException {
+        delegate_.routeComplete(conn, route, context);
+    }
+
+    @Override
+    public void closeIdleConnections(final long idletime,
+                                     final TimeUnit timeUnit) {
+        delegate_.closeIdleConnections(idletime, timeUnit);
+    }
+
+    @Override
+    public void closeExpiredConnections() {
+        delegate_.closeExpiredConnections();
+    }
+
+    @Override
+    public void shutdown() {
+        delegate_.shutdown();
+    }
+
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.conn;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts requests that didn't get a pooled connection from a
+ * {@link PriorityConnectionManager}; those turned away because too many
+ * were already waiting on their route, and those that gave up waiting
+ * when their lease timeout was hit.
+ */
+public final class LeaseStats {
+
+    private final LongAdder rejected_ = new LongAdder();
+    private final LongAdder timedOut_ = new LongAdder();
+
+    public LeaseStats() {}
+
+    /* package private */
+    void recordRejected() {
+        rejected_.increment();
+    }
+
+    /* package private */
+    void recordTimedOut() {
+        timedOut_.increment();
+    }
+
+    /**
+     * Requests failed fast because their route's wait queue was full.
+     */
+    public long getRejected() {
+        return rejected_.sum();
+    }
+
+    /**
+     * Requests that waited for a connection, but not long enough.
+     */
+    public long getTimedOut() {
+        return timedOut_.sum();
+    }
+
+}
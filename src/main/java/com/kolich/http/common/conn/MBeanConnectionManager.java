@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.conn;
+
+import com.kolich.http.common.jmx.MBeans;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.protocol.HttpContext;
+
+import javax.management.ObjectName;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Wraps the {@link HttpClientConnectionManager} of a client registered as
+ * a <code>ConnectionPool</code> MBean such that shutting it down also
+ * unregisters that MBean, unless a later client has taken its name since.
+ */
+public final class MBeanConnectionManager implements HttpClientConnectionManager {
+
+    private final HttpClientConnectionManager delegate_;
+    private final ObjectName name_;
+    private final Object mbean_;
+
+    public MBeanConnectionManager(final HttpClientConnectionManager delegate,
+                                  final ObjectName name,
+                                  final Object mbean) {
+        delegate_ = checkNotNull(delegate, "Delegate connection manager cannot be null.");
+        name_ = checkNotNull(name, "MBean name cannot be null.");
+        mbean_ = checkNotNull(mbean, "MBean cannot be null.");
+    }
+
+    public HttpClientConnectionManager getDelegate() {
+        return delegate_;
+    }
+
+    @Override
+    public ConnectionRequest requestConnection(final HttpRoute route,
+                                               final Object state) {
+        return delegate_.requestConnection(route, state);
+    }
+
+    @Override
+    public void releaseConnection(final HttpClientConnection conn,
+                                  final Object newState,
+                                  final long validDuration,
+                                  final TimeUnit timeUnit) {
+        delegate_.releaseConnection(conn, newState, validDuration, timeUnit);
+    }
+
+    @Override
+    public void connect(final HttpClientConnection conn,
+                        final HttpRoute route,
+                        final int connectTimeout,
+                        final HttpContext context) throws IOException {
+        delegate_.connect(conn, route, connectTimeout, context);
+    }
+
+    @Override
+    public void upgrade(final HttpClientConnection conn,
+                        final HttpRoute route,
+                        final HttpContext context) throws IOException {
+        delegate_.upgrade(conn, route, context);
+    }
+
+    @Override
+    public void routeComplete(final HttpClientConnection conn,
+                              final HttpRoute route,
+                              final HttpContext context) throws IOException {
+        delegate_.routeComplete(conn, route, context);
+    }
+
+    @Override
+    public void closeIdleConnections(final long idletime,
+                                     final TimeUnit timeUnit) {
+        delegate_.closeIdleConnections(idletime, timeUnit);
+    }
+
+    @Override
+    public void closeExpiredConnections() {
+        delegate_.closeExpiredConnections();
+    }
+
+    @Override
+    public void shutdown() {
+        try {
+            delegate_.shutdown();
+        } finally {
+            MBeans.unregister(name_, mbean_);
+        }
+    }
+
+}
@@ -0,0 +1,556 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.conn;
+
+import com.kolich.http.common.RequestPriority;
+import com.kolich.http.common.exceptions.LeaseQueueFullException;
+import com.kolich.http.common.exceptions.LeaseTimeoutException;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Wraps a {@link PoolingHttpClientConnectionManager}, which hands out
+ * connections first come first served, such that when a route is out of
+ * connections the waiters with the highest {@link RequestPriority} are
+ * served first instead.  The priority of a lease is that of the thread
+ * asking for it, see {@link RequestPriority#current()}.
+ *
+ * Each priority can reserve a number of connections per route that other
+ * priorities won't take, even when they're idle, such that a flood of
+ * bulk requests can't take every connection.  And to keep lower priority
+ * waiters from starving, any waiter that has waited longer than the
+ * starvation limit is served next, oldest first, regardless of priority.
+ *
+ * The number of waiters per route can also be capped.  A request that
+ * can't have a connection right away when its route already has that many
+ * waiters fails fast, with a {@link LeaseQueueFullException}, rather than
+ * piling up behind them.
+ *
+ * Only the connections per route are scheduled by priority; the wrapped
+ * pool's total limit is left to the wrapped pool.  When that total is the
+ * limit a request runs into, like with many routes sharing a small pool,
+ * a waiter that got its route's turn then waits for a connection first
+ * come first served like any other, whatever its priority.
+ */
+public final class PriorityConnectionManager implements HttpClientConnectionManager {
+
+    public static final long DEFAULT_STARVATION_MS = 2000L; // 2 seconds
+
+    private static final RequestPriority[] PRIORITIES = RequestPriority.values();
+
+    private final PoolingHttpClientConnectionManager delegate_;
+
+    private final ConcurrentMap<HttpRoute,RouteQueue> routes_;
+
+    /**
+     * Leased connections and the requests they were leased for.
+     */
+    private final ConcurrentMap<HttpClientConnection,PriorityConnectionRequest> leases_;
+
+    private final LeaseStats leaseStats_;
+
+    private final int[] reserved_;
+    private volatile long starvationNanos_ = MILLISECONDS.toNanos(DEFAULT_STARVATION_MS);
+
+    /**
+     * The most requests that may wait for a connection per route, or -1
+     * for no limit.
+     */
+    private volatile int maxPendingPerRoute_ = -1;
+
+    public PriorityConnectionManager(final PoolingHttpClientConnectionManager delegate,
+                                     final LeaseStats leaseStats) {
+        delegate_ = checkNotNull(delegate, "Connection manager cannot be null.");
+        leaseStats_ = checkNotNull(leaseStats, "Lease stats cannot be null.");
+        routes_ = new ConcurrentHashMap<>();
+        leases_ = new ConcurrentHashMap<>();
+        reserved_ = new int[PRIORITIES.length];
+    }
+
+    public PriorityConnectionManager(final PoolingHttpClientConnectionManager delegate) {
+        this(delegate, new LeaseStats());
+    }
+
+    /**
+     * Reserves this many connections per route for requests of the given
+     * priority.
+     */
+    public PriorityConnectionManager setReservedConnectionsPerRoute(final RequestPriority priority,
+                                                                    final int reserved) {
+        checkNotNull(priority, "Priority cannot be null.");
+        checkArgument(reserved >= 0, "Reserved connections must be >= 0.");
+        reserved_[priority.ordinal()] = reserved;
+        return this;
+    }
+
+    /**
+     * Serve any waiter that has waited longer than this next, whatever
+     * its priority.
+     */
+    public PriorityConnectionManager setStarvationMs(final long starvationMs) {
+        checkArgument(starvationMs > 0L, "Starvation milliseconds must be greater than zero.");
+        starvationNanos_ = MILLISECONDS.toNanos(starvationMs);
+        return this;
+    }
+
+    /**
+     * Fail requests fast, instead of letting them wait for a connection,
+     * when their route already has this many waiters.  Zero means never
+     * wait, -1 means no limit.
+     */
+    public PriorityConnectionManager setMaxPendingPerRoute(final int maxPendingPerRoute) {
+        checkArgument(maxPendingPerRoute >= -1, "Max pending per route must be >= -1.");
+        maxPendingPerRoute_ = maxPendingPerRoute;
+        return this;
+    }
+
+    public LeaseStats getLeaseStats() {
+        return leaseStats_;
+    }
+
+    public PoolingHttpClientConnectionManager getDelegate() {
+        return delegate_;
+    }
+
+    /**
+     * The number of connections leased to requests of the given priority
+     * on a route.
+     */
+    public int getLeased(final HttpRoute route,
+                         final RequestPriority priority) {
+        final RouteQueue queue = routes_.get(route);
+        return (queue != null) ? queue.getLeased(priority) : 0;
+    }
+
+    /**
+     * The number of requests of the given priority waiting for a connection
+     * on a route.
+     */
+    public int getPending(final HttpRoute route,
+                          final RequestPriority priority) {
+        final RouteQueue queue = routes_.get(route);
+        return (queue != null) ? queue.getPending(priority) : 0;
+    }
+
+    /**
+     * The number of requests of any priority waiting for a connection on
+     * a route.
+     */
+    public int getPending(final HttpRoute route) {
+        final RouteQueue queue = routes_.get(route);
+        return (queue != null) ? queue.getPending() : 0;
+    }
+
+    /**
+     * The number of requests waiting for a connection on any route.
+     */
+    public int getPending() {
+        int pending = 0;
+        for(final RouteQueue queue : routes_.values()) {
+            pending += queue.getPending();
+        }
+        return pending;
+    }
+
+    @Override
+    public ConnectionRequest requestConnection(final HttpRoute route,
+                                               final Object state) {
+        checkNotNull(route, "Route cannot be null.");
+        return new PriorityConnectionRequest(getRouteQueue(route), route,
+            state, RequestPriority.current());
+    }
+
+    @Override
+    public void releaseConnection(final HttpClientConnection conn,
+                                  final Object newState,
+                                  final long validDuration,
+                                  final TimeUnit timeUnit) {
+        try {
+            delegate_.releaseConnection(conn, newState, validDuration, timeUnit);
+        } finally {
+            // Only now that the connection is back in the pool, let the
+            // next waiter have at it.
+            final PriorityConnectionRequest request = leases_.remove(conn);
+            if(request != null) {
+                request.queue_.release(request.priority_);
+            }
+        }
+    }
+
+    @Override
+    public void connect(final HttpClientConnection conn,
+                        final HttpRoute route,
+                        final int connectTimeout,
+                        final HttpContext context) throws IOException {
+        delegate_.connect(conn, route, connectTimeout, context);
+    }
+
+    @Override
+    public void upgrade(final HttpClientConnection conn,
+                        final HttpRoute route,
+                        final HttpContext context) throws IOException {
+        delegate_.upgrade(conn, route, context);
+    }
+
+    @Override
+    public void routeComplete(final HttpClientConnection conn,
+                              final HttpRoute route,
+                              final HttpContext context) throws IOException {
+        delegate_.routeComplete(conn, route, context);
+    }
+
+    @Override
+    public void closeIdleConnections(final long idletime,
+                                     final TimeUnit timeUnit) {
+        delegate_.closeIdleConnections(idletime, timeUnit);
+    }
+
+    @Override
+    public void closeExpiredConnections() {
+        delegate_.closeExpiredConnections();
+    }
+
+    @Override
+    public void shutdown() {
+        delegate_.shutdown();
+    }
+
+    private RouteQueue getRouteQueue(final HttpRoute route) {
+        RouteQueue queue = routes_.get(route);
+        if(queue == null) {
+            queue = routes_.computeIfAbsent(route, RouteQueue::new);
+        }
+        return queue;
+    }
+
+    private final class PriorityConnectionRequest implements ConnectionRequest {
+
+        private final RouteQueue queue_;
+        private final HttpRoute route_;
+        private final Object state_;
+        private final RequestPriority priority_;
+
+        private volatile boolean cancelled_ = false;
+        private volatile ConnectionRequest delegateRequest_ = null;
+
+        private PriorityConnectionRequest(final RouteQueue queue,
+                                          final HttpRoute route,
+                                          final Object state,
+                                          final RequestPriority priority) {
+            queue_ = queue;
+            route_ = route;
+            state_ = state;
+            priority_ = priority;
+        }
+
+        @Override
+        public HttpClientConnection get(final long timeout,
+                                        final TimeUnit timeUnit)
+            throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+            // A timeout of zero means wait forever.
+            final long deadline = (timeout > 0L) ? nanoTime() + timeUnit.toNanos(timeout) : 0L;
+            queue_.acquire(this, deadline);
+            boolean leased = false;
+            try {
+                final ConnectionRequest request = delegate_.requestConnection(route_, state_);
+                delegateRequest_ = request;
+                if(cancelled_) {
+                    throw new ExecutionException(new CancellationException("Operation aborted"));
+                }
+                final long remainingMs = (deadline == 0L) ? 0L :
+                    Math.max(MILLISECONDS.convert(deadline - nanoTime(), TimeUnit.NANOSECONDS), 1L);
+                final HttpClientConnection conn = request.get(remainingMs, MILLISECONDS);
+                leases_.put(conn, this);
+                leased = true;
+                return conn;
+            } finally {
+                if(!leased) {
+                    queue_.release(priority_);
+                }
+            }
+        }
+
+        @Override
+        public boolean cancel() {
+            cancelled_ = true;
+            final ConnectionRequest request = delegateRequest_;
+            if(request != null) {
+                return request.cancel();
+            }
+            queue_.wakeUp(this);
+            return true;
+        }
+
+    }
+
+    private static final class Waiter {
+
+        private final PriorityConnectionRequest request_;
+        private final Condition condition_;
+        private final long enqueuedNanos_;
+
+        private boolean granted_ = false;
+
+        private Waiter(final PriorityConnectionRequest request,
+                       final Condition condition) {
+            request_ = request;
+            condition_ = condition;
+            enqueuedNanos_ = nanoTime();
+        }
+
+    }
+
+    /**
+     * The connections leased, and the waiters, of a single route.
+     */
+    private final class RouteQueue {
+
+        private final HttpRoute route_;
+
+        private final ReentrantLock lock_ = new ReentrantLock();
+
+        private final int[] leased_ = new int[PRIORITIES.length];
+        private int totalLeased_ = 0;
+
+        private final ArrayDeque<Waiter>[] waiting_;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private RouteQueue(final HttpRoute route) {
+            route_ = route;
+            waiting_ = new ArrayDeque[PRIORITIES.length];
+            for(int i = 0; i < waiting_.length; i++) {
+                waiting_[i] = new ArrayDeque<>();
+            }
+        }
+
+        /**
+         * Waits for a permit to lease a connection on this route.
+         */
+        private void acquire(final PriorityConnectionRequest request,
+                             final long deadline)
+            throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+            lock_.lock();
+            try {
+                final Waiter waiter = new Waiter(request, lock_.newCondition());
+                final int priority = request.priority_.ordinal();
+                waiting_[priority].addLast(waiter);
+                dispatch();
+                final int maxPending = maxPendingPerRoute_;
+                if(!waiter.granted_ && maxPending >= 0 && getPendingLocked() > maxPending) {
+                    waiting_[priority].removeLast();
+                    leaseStats_.recordRejected();
+                    throw new LeaseQueueFullException(route_.toString(), maxPending);
+                }
+                try {
+                    while(!waiter.granted_) {
+                        if(request.cancelled_) {
+                            waiting_[priority].remove(waiter);
+                            throw new ExecutionException(new CancellationException("Operation aborted"));
+                        }
+                        if(deadline == 0L) {
+                            waiter.condition_.await();
+                        } else {
+                            final long remaining = deadline - nanoTime();
+                            if(remaining <= 0L) {
+                                waiting_[priority].remove(waiter);
+                                leaseStats_.recordTimedOut();
+                                throw new LeaseTimeoutException(route_.toString());
+                            }
+                            waiter.condition_.awaitNanos(remaining);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    if(waiter.granted_) {
+                        releaseLocked(priority);
+                    } else {
+                        waiting_[priority].remove(waiter);
+                    }
+                    throw e;
+                }
+            } finally {
+                lock_.unlock();
+            }
+        }
+
+        private void release(final RequestPriority priority) {
+            lock_.lock();
+            try {
+                releaseLocked(priority.ordinal());
+            } finally {
+                lock_.unlock();
+            }
+        }
+
+        private void releaseLocked(final int priority) {
+            leased_[priority]--;
+            totalLeased_--;
+            dispatch();
+        }
+
+        /**
+         * Wakes up the given request, if it's waiting, such that it sees
+         * it was cancelled.
+         */
+        private void wakeUp(final PriorityConnectionRequest request) {
+            lock_.lock();
+            try {
+                for(final ArrayDeque<Waiter> waiting : waiting_) {
+                    for(final Waiter waiter : waiting) {
+                        if(waiter.request_ == request) {
+                            waiter.condition_.signal();
+                            return;
+                        }
+                    }
+                }
+            } finally {
+                lock_.unlock();
+            }
+        }
+
+        /**
+         * Hands out free permits to the best waiters.  Called with the lock
+         * held, whenever a request arrives or a connection is released.
+         */
+        private void dispatch() {
+            final int capacity = delegate_.getMaxPerRoute(route_);
+            while(totalLeased_ < capacity) {
+                final Waiter next = next(capacity);
+                if(next == null) {
+                    break;
+                }
+                final int priority = next.request_.priority_.ordinal();
+                waiting_[priority].removeFirst();
+                leased_[priority]++;
+                totalLeased_++;
+                next.granted_ = true;
+                next.condition_.signal();
+            }
+        }
+
+        private Waiter next(final int capacity) {
+            final int free = capacity - totalLeased_;
+            final long now = nanoTime();
+            final long starvationNanos = starvationNanos_;
+            // The oldest starving waiter, if any, goes first.
+            Waiter next = null;
+            for(int p = 0; p < waiting_.length; p++) {
+                final Waiter head = waiting_[p].peekFirst();
+                if(head != null && now - head.enqueuedNanos_ >= starvationNanos &&
+                    isEligible(p, free, capacity) &&
+                    (next == null || head.enqueuedNanos_ - next.enqueuedNanos_ < 0L)) {
+                    next = head;
+                }
+            }
+            if(next != null) {
+                return next;
+            }
+            // Otherwise, by priority.
+            for(int p = 0; p < waiting_.length; p++) {
+                final Waiter head = waiting_[p].peekFirst();
+                if(head != null && isEligible(p, free, capacity)) {
+                    return head;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Whether a free connection is left for the given priority once
+         * the unused reservations of every other priority are set aside.
+         * Reservations adding up to the whole route are capped, such that
+         * any priority can still use an otherwise idle route.
+         */
+        private boolean isEligible(final int priority,
+                                   final int free,
+                                   final int capacity) {
+            int reservedByOthers = 0;
+            for(int p = 0; p < leased_.length; p++) {
+                if(p != priority) {
+                    reservedByOthers += Math.max(reserved_[p] - leased_[p], 0);
+                }
+            }
+            return free > Math.min(reservedByOthers, capacity - 1);
+        }
+
+        private int getPendingLocked() {
+            int pending = 0;
+            for(final ArrayDeque<Waiter> waiting : waiting_) {
+                pending += waiting.size();
+            }
+            return pending;
+        }
+
+        private int getLeased(final RequestPriority priority) {
+            lock_.lock();
+            try {
+                return leased_[priority.ordinal()];
+            } finally {
+                lock_.unlock();
+            }
+        }
+
+        private int getPending() {
+            lock_.lock();
+            try {
+                return getPendingLocked();
+            } finally {
+                lock_.unlock();
+            }
+        }
+
+        private int getPending(final RequestPriority priority) {
+            lock_.lock();
+            try {
+                return waiting_[priority.ordinal()].size();
+            } finally {
+                lock_.unlock();
+            }
+        }
+
+    }
+
+}
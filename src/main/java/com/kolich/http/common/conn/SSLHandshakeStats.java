@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.conn;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts TLS handshakes completed by a {@link ClosureSSLConnectionSocketFactory},
+ * split into "full" handshakes (a new session was negotiated) and "resumed"
+ * handshakes (an existing session was reused from the client session cache).
+ * A high ratio of full to resumed handshakes on a churning pool usually means
+ * the session cache is too small, or its timeout too short.
+ */
+public final class SSLHandshakeStats {
+
+    private final LongAdder fullHandshakes_ = new LongAdder();
+    private final LongAdder resumedHandshakes_ = new LongAdder();
+    private final LongAdder failedHandshakes_ = new LongAdder();
+
+    public SSLHandshakeStats() {}
+
+    /* package private */
+    void recordFull() {
+        fullHandshakes_.increment();
+    }
+
+    /* package private */
+    void recordResumed() {
+        resumedHandshakes_.increment();
+    }
+
+    /* package private */
+    void recordFailed() {
+        failedHandshakes_.increment();
+    }
+
+    public long getFullHandshakes() {
+        return fullHandshakes_.sum();
+    }
+
+    public long getResumedHandshakes() {
+        return resumedHandshakes_.sum();
+    }
+
+    public long getFailedHandshakes() {
+        return failedHandshakes_.sum();
+    }
+
+    public long getTotalHandshakes() {
+        return getFullHandshakes() + getResumedHandshakes();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SSLHandshakeStats(full=%d, resumed=%d, failed=%d)",
+            getFullHandshakes(), getResumedHandshakes(), getFailedHandshakes());
+    }
+
+}
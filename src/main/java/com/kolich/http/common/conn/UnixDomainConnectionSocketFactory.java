@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.conn;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.apache.commons.io.IOUtils.closeQuietly;
+
+/**
+ * A plain (http) {@link ConnectionSocketFactory} that sends requests for a
+ * chosen set of hosts over a Unix domain socket instead of TCP; typically,
+ * a sidecar or local forward proxy listening on a socket file.  Requests for
+ * any other host go to the delegate factory as usual.
+ *
+ * Pair this with {@link #getDnsResolver()}, so that the "virtual" host names
+ * routed over a Unix domain socket never need to resolve in DNS.
+ */
+public final class UnixDomainConnectionSocketFactory implements ConnectionSocketFactory {
+
+    private final Map<String,Path> socketPaths_;
+    private final ConnectionSocketFactory delegate_;
+
+    public UnixDomainConnectionSocketFactory(final Map<String,Path> socketPaths,
+                                             final ConnectionSocketFactory delegate) {
+        checkNotNull(socketPaths, "Socket paths cannot be null.");
+        if(!UnixDomainSockets.isSupported()) {
+            throw new UnsupportedOperationException("Unix domain sockets require JDK 16 or later.");
+        }
+        final ImmutableMap.Builder<String,Path> paths = ImmutableMap.builder();
+        socketPaths.forEach((host, path) -> paths.put(normalize(host), path));
+        socketPaths_ = paths.build();
+        delegate_ = checkNotNull(delegate, "Delegate socket factory cannot be null.");
+    }
+
+    public UnixDomainConnectionSocketFactory(final Map<String,Path> socketPaths) {
+        this(socketPaths, PlainConnectionSocketFactory.getSocketFactory());
+    }
+
+    @Override
+    public Socket createSocket(final HttpContext context) throws IOException {
+        // The target host isn't known yet, so hand back a regular unconnected
+        // socket; it's replaced in connectSocket() if the host is routed over
+        // a Unix domain socket.
+        return delegate_.createSocket(context);
+    }
+
+    @Override
+    public Socket connectSocket(final int connectTimeout,
+                                final Socket socket,
+                                final HttpHost host,
+                                final InetSocketAddress remoteAddress,
+                                final InetSocketAddress localAddress,
+                                final HttpContext context) throws IOException {
+        final Path path = getSocketPath(host.getHostName());
+        if(path == null) {
+            return delegate_.connectSocket(connectTimeout, socket, host,
+                remoteAddress, localAddress, context);
+        }
+        if(socket != null) {
+            closeQuietly(socket);
+        }
+        // Connecting to a local socket file either succeeds or fails
+        // immediately, there's no meaningful connect timeout.
+        final SocketChannel channel = UnixDomainSockets.openChannel();
+        try {
+            channel.connect(UnixDomainSockets.newAddress(path));
+            return new UnixDomainSocket(channel);
+        } catch (IOException e) {
+            closeQuietly(channel);
+            throw e;
+        }
+    }
+
+    public Path getSocketPath(final String host) {
+        return (host != null) ? socketPaths_.get(normalize(host)) : null;
+    }
+
+    /**
+     * Returns a {@link DnsResolver} that resolves any host routed over a Unix
+     * domain socket to the loopback address (it's never actually used) and
+     * everything else via the system resolver.
+     */
+    public DnsResolver getDnsResolver() {
+        return new DnsResolver() {
+            @Override
+            public InetAddress[] resolve(final String host) throws UnknownHostException {
+                if(getSocketPath(host) != null) {
+                    return new InetAddress[]{InetAddress.getLoopbackAddress()};
+                }
+                return SystemDefaultDnsResolver.INSTANCE.resolve(host);
+            }
+        };
+    }
+
+    private static String normalize(final String host) {
+        return host.toLowerCase(Locale.ROOT);
+    }
+
+}
@@ -0,0 +1,276 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.conn;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.apache.commons.io.IOUtils.closeQuietly;
+
+/**
+ * Adapts a connected Unix domain {@link SocketChannel} to the classic
+ * {@link Socket} API that HttpClient 4 connections are bound to.  Unix domain
+ * channels don't support {@link SocketChannel#socket()}, so this is needed.
+ * The channel is put in non-blocking mode and reads/writes wait on a
+ * {@link Selector} so that the socket timeout (<code>SO_TIMEOUT</code>),
+ * including the short timeout used for stale connection checks, is honored.
+ */
+/* package private */
+final class UnixDomainSocket extends Socket {
+
+    private final SocketChannel channel_;
+    private final Selector readSelector_;
+    private final Selector writeSelector_;
+
+    private final InputStream in_;
+    private final OutputStream out_;
+
+    private volatile int soTimeout_ = 0;
+    private volatile boolean inputShutdown_ = false;
+    private volatile boolean outputShutdown_ = false;
+
+    public UnixDomainSocket(final SocketChannel channel) throws IOException {
+        channel_ = checkNotNull(channel, "Socket channel cannot be null.");
+        channel_.configureBlocking(false);
+        readSelector_ = Selector.open();
+        writeSelector_ = Selector.open();
+        channel_.register(readSelector_, SelectionKey.OP_READ);
+        channel_.register(writeSelector_, SelectionKey.OP_WRITE);
+        in_ = new ChannelInputStream();
+        out_ = new ChannelOutputStream();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        ensureOpen();
+        return in_;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        ensureOpen();
+        return out_;
+    }
+
+    @Override
+    public void setSoTimeout(final int timeout) throws SocketException {
+        if(timeout < 0) {
+            throw new IllegalArgumentException("Timeout cannot be negative.");
+        }
+        soTimeout_ = timeout;
+    }
+
+    @Override
+    public int getSoTimeout() {
+        return soTimeout_;
+    }
+
+    // The TCP-only socket options are meaningless here, ignore them.
+
+    @Override
+    public void setTcpNoDelay(final boolean on) {}
+
+    @Override
+    public void setKeepAlive(final boolean on) {}
+
+    @Override
+    public void setSoLinger(final boolean on, final int linger) {}
+
+    @Override
+    public void shutdownInput() throws IOException {
+        channel_.shutdownInput();
+        inputShutdown_ = true;
+    }
+
+    @Override
+    public void shutdownOutput() throws IOException {
+        channel_.shutdownOutput();
+        outputShutdown_ = true;
+    }
+
+    @Override
+    public boolean isInputShutdown() {
+        return inputShutdown_;
+    }
+
+    @Override
+    public boolean isOutputShutdown() {
+        return outputShutdown_;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return channel_.isConnected();
+    }
+
+    @Override
+    public boolean isBound() {
+        return true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return !channel_.isOpen();
+    }
+
+    @Override
+    public SocketAddress getRemoteSocketAddress() {
+        try {
+            return channel_.getRemoteAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public SocketAddress getLocalSocketAddress() {
+        try {
+            return channel_.getLocalAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            channel_.close();
+        } finally {
+            closeQuietly(readSelector_);
+            closeQuietly(writeSelector_);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "UnixDomainSocket[" + getRemoteSocketAddress() + "]";
+    }
+
+    private void ensureOpen() throws SocketException {
+        if(isClosed()) {
+            throw new SocketException("Socket is closed");
+        }
+    }
+
+    /**
+     * Waits until the channel is ready for the operation the given selector
+     * was registered for, or the socket timeout expires.  A concurrent
+     * {@link #close()} (e.g. an abort from the timeout manager) closes the
+     * selectors under us; that surfaces as a {@link SocketException} here,
+     * not an unchecked {@link ClosedSelectorException}, so callers see the
+     * same I/O failure they'd get from a classic socket.
+     */
+    private void await(final Selector selector,
+                       final String timeoutMessage) throws IOException {
+        ensureOpen(selector);
+        final int timeout = soTimeout_;
+        final int ready;
+        try {
+            ready = (timeout > 0) ? selector.select(timeout) : selector.select();
+            selector.selectedKeys().clear();
+        } catch (ClosedSelectorException e) {
+            throw socketClosed(e);
+        }
+        ensureOpen(selector);
+        if(ready == 0 && timeout > 0) {
+            throw new SocketTimeoutException(timeoutMessage);
+        }
+    }
+
+    private void ensureOpen(final Selector selector) throws SocketException {
+        if(!channel_.isOpen() || !selector.isOpen()) {
+            throw new SocketException("Socket closed");
+        }
+    }
+
+    private static SocketException socketClosed(final Throwable cause) {
+        final SocketException e = new SocketException("Socket closed");
+        e.initCause(cause);
+        return e;
+    }
+
+    private final class ChannelInputStream extends InputStream {
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            final int read = read(b, 0, 1);
+            return (read < 0) ? -1 : (b[0] & 0xFF);
+        }
+        @Override
+        public int read(final byte[] b,
+                        final int off,
+                        final int len) throws IOException {
+            if(len == 0) {
+                return 0;
+            }
+            final ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            int read;
+            while((read = channel_.read(buffer)) == 0) {
+                await(readSelector_, "Read timed out");
+            }
+            return read;
+        }
+        @Override
+        public void close() throws IOException {
+            UnixDomainSocket.this.close();
+        }
+    }
+
+    private final class ChannelOutputStream extends OutputStream {
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[]{(byte)b}, 0, 1);
+        }
+        @Override
+        public void write(final byte[] b,
+                          final int off,
+                          final int len) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while(buffer.hasRemaining()) {
+                if(channel_.write(buffer) == 0) {
+                    await(writeSelector_, "Write timed out");
+                }
+            }
+        }
+        @Override
+        public void close() throws IOException {
+            UnixDomainSocket.this.close();
+        }
+    }
+
+}
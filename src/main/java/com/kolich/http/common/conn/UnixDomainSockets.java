@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.conn;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Access to Unix domain socket channels, which were added in JDK 16.  This
+ * library still targets an older release, so the relevant methods are looked
+ * up reflectively, once.
+ */
+public final class UnixDomainSockets {
+
+    private static final ProtocolFamily UNIX_FAMILY;
+    private static final Method NEW_ADDRESS;
+    private static final Method OPEN_CHANNEL;
+    private static final Method OPEN_SERVER_CHANNEL;
+    static {
+        ProtocolFamily family = null;
+        Method newAddress = null, openChannel = null, openServerChannel = null;
+        try {
+            family = StandardProtocolFamily.valueOf("UNIX");
+            newAddress = Class.forName("java.net.UnixDomainSocketAddress")
+                .getMethod("of", Path.class);
+            openChannel = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+            openServerChannel = ServerSocketChannel.class.getMethod("open", ProtocolFamily.class);
+        } catch (IllegalArgumentException | ReflectiveOperationException e) {
+            // Running on a JDK that doesn't support Unix domain sockets.
+            family = null;
+        }
+        UNIX_FAMILY = family;
+        NEW_ADDRESS = newAddress;
+        OPEN_CHANNEL = openChannel;
+        OPEN_SERVER_CHANNEL = openServerChannel;
+    }
+
+    // Cannot instantiate.
+    private UnixDomainSockets() {}
+
+    public static boolean isSupported() {
+        return UNIX_FAMILY != null;
+    }
+
+    public static SocketAddress newAddress(final Path path) {
+        checkNotNull(path, "Socket path cannot be null.");
+        try {
+            return (SocketAddress)invoke(NEW_ADDRESS, null, path);
+        } catch (IOException e) {
+            // Creating an address never does any I/O.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Opens a new, unconnected, Unix domain socket channel.
+     */
+    public static SocketChannel openChannel() throws IOException {
+        return (SocketChannel)invoke(OPEN_CHANNEL, null, UNIX_FAMILY);
+    }
+
+    /**
+     * Opens a new Unix domain server socket channel, bound to the given path.
+     */
+    public static ServerSocketChannel openServerChannel(final Path path) throws IOException {
+        final ServerSocketChannel channel = (ServerSocketChannel)invoke(OPEN_SERVER_CHANNEL,
+            null, UNIX_FAMILY);
+        try {
+            channel.bind(newAddress(path));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    private static Object invoke(final Method method,
+                                 final Object target,
+                                 final Object arg) throws IOException {
+        if(!isSupported()) {
+            throw new UnsupportedOperationException("Unix domain sockets require JDK 16 or later.");
+        }
+        try {
+            return method.invoke(target, arg);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            final Throwable cause = e.getCause();
+            if(cause instanceof IOException) {
+                throw (IOException)cause;
+            } else if(cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+}
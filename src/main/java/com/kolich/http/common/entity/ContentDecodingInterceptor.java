@@ -0,0 +1,159 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.entity;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.protocol.HttpContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.apache.http.HttpHeaders.ACCEPT_ENCODING;
+import static org.apache.http.HttpHeaders.CONTENT_ENCODING;
+import static org.apache.http.HttpHeaders.CONTENT_LENGTH;
+import static org.apache.http.HttpHeaders.CONTENT_MD5;
+
+/**
+ * Asks for compressed responses and transparently decodes them before they
+ * reach a closure; a drop in replacement for HttpClient's own
+ * {@link org.apache.http.client.protocol.RequestAcceptEncoding} and
+ * {@link org.apache.http.client.protocol.ResponseContentEncoding} pair.
+ *
+ * The gzip and deflate decoders borrow their {@link java.util.zip.Inflater}
+ * and buffer from an {@link InflaterPool} instead of allocating new ones for
+ * every response.  Other encodings can be plugged in with a
+ * {@link ContentDecoder}.  Responses with an encoding that has no decoder
+ * are left untouched.
+ *
+ * Like HttpClient's own, honors {@link RequestConfig#isContentCompressionEnabled()}.
+ */
+public final class ContentDecodingInterceptor
+    implements HttpRequestInterceptor, HttpResponseInterceptor {
+
+    private static final String IDENTITY = "identity";
+
+    /**
+     * Decoders keyed by lower case content encoding, in the order they're
+     * advertised in the Accept-Encoding request header.
+     */
+    private final Map<String,ContentDecoder> decoders_;
+    private final String acceptEncoding_;
+
+    public ContentDecodingInterceptor(final InflaterPool pool,
+                                      final Map<String,ContentDecoder> decoders) {
+        checkNotNull(pool, "Inflater pool cannot be null.");
+        checkNotNull(decoders, "Decoders cannot be null.");
+        final Map<String,ContentDecoder> all = new LinkedHashMap<>();
+        all.put("gzip", pool.getGzipDecoder());
+        all.put("x-gzip", pool.getGzipDecoder());
+        all.put("deflate", pool.getDeflateDecoder());
+        for(final Map.Entry<String,ContentDecoder> entry : decoders.entrySet()) {
+            all.put(entry.getKey().toLowerCase(Locale.ROOT),
+                checkNotNull(entry.getValue(), "Decoder cannot be null."));
+        }
+        decoders_ = Collections.unmodifiableMap(all);
+        final StringBuilder accept = new StringBuilder();
+        for(final String encoding : decoders_.keySet()) {
+            // Nobody needs to be told about the legacy alias.
+            if(!"x-gzip".equals(encoding)) {
+                accept.append((accept.length() > 0) ? ", " : "").append(encoding);
+            }
+        }
+        acceptEncoding_ = accept.toString();
+    }
+
+    public ContentDecodingInterceptor(final InflaterPool pool) {
+        this(pool, Collections.<String,ContentDecoder>emptyMap());
+    }
+
+    public ContentDecodingInterceptor() {
+        this(InflaterPool.getDefault());
+    }
+
+    @Override
+    public void process(final HttpRequest request,
+                        final HttpContext context) {
+        if(!request.containsHeader(ACCEPT_ENCODING) && isEnabled(context)) {
+            request.addHeader(ACCEPT_ENCODING, acceptEncoding_);
+        }
+    }
+
+    @Override
+    public void process(final HttpResponse response,
+                        final HttpContext context) {
+        final HttpEntity entity = response.getEntity();
+        if(entity == null || entity.getContentLength() == 0L || !isEnabled(context)) {
+            return;
+        }
+        final Header contentEncoding = entity.getContentEncoding();
+        if(contentEncoding == null) {
+            return;
+        }
+        // Encodings are listed in the order they were applied, so decoding
+        // happens in reverse.  If any one isn't understood, leave the whole
+        // thing alone.
+        final HeaderElement[] elements = contentEncoding.getElements();
+        final List<ContentDecoder> decoders = new ArrayList<>(elements.length);
+        for(int i = elements.length - 1; i >= 0; i--) {
+            final String encoding = elements[i].getName().toLowerCase(Locale.ROOT);
+            if(IDENTITY.equals(encoding)) {
+                continue;
+            }
+            final ContentDecoder decoder = decoders_.get(encoding);
+            if(decoder == null) {
+                return;
+            }
+            decoders.add(decoder);
+        }
+        if(decoders.isEmpty()) {
+            return;
+        }
+        response.setEntity(new DecodingEntity(entity, decoders));
+        response.removeHeaders(CONTENT_LENGTH);
+        response.removeHeaders(CONTENT_ENCODING);
+        response.removeHeaders(CONTENT_MD5);
+    }
+
+    private static boolean isEnabled(final HttpContext context) {
+        final RequestConfig config = HttpClientContext.adapt(context).getRequestConfig();
+        return config == null || config.isContentCompressionEnabled();
+    }
+
+}
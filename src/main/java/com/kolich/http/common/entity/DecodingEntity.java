@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.entity;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * An entity whose content is decoded by one or more {@link ContentDecoder}'s,
+ * applied in order.  The length of the decoded content is never known up
+ * front, and it has no Content-Encoding of its own.
+ */
+final class DecodingEntity extends HttpEntityWrapper {
+
+    private final List<ContentDecoder> decoders_;
+
+    private InputStream content_ = null;
+
+    DecodingEntity(final HttpEntity entity,
+                   final List<ContentDecoder> decoders) {
+        super(entity);
+        decoders_ = decoders;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        if(wrappedEntity.isStreaming()) {
+            // Like the underlying streamed entity, hand out the same stream
+            // every time.
+            if(content_ == null) {
+                content_ = decode();
+            }
+            return content_;
+        }
+        return decode();
+    }
+
+    @Override
+    public void writeTo(final OutputStream os) throws IOException {
+        try(InputStream is = getContent()) {
+            final byte[] buffer = new byte[InflaterPool.DEFAULT_BUFFER_SIZE];
+            int read;
+            while((read = is.read(buffer)) != -1) {
+                os.write(buffer, 0, read);
+            }
+        }
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1L;
+    }
+
+    @Override
+    public Header getContentEncoding() {
+        return null;
+    }
+
+    private InputStream decode() throws IOException {
+        InputStream is = wrappedEntity.getContent();
+        for(final ContentDecoder decoder : decoders_) {
+            is = decoder.decode(is);
+        }
+        return is;
+    }
+
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.entity;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.apache.http.HttpHeaders.CONTENT_ENCODING;
+
+/**
+ * Wraps an entity such that its content is gzip compressed on the fly, as
+ * it's written to the connection, with a {@link Deflater} and buffer
+ * borrowed from a {@link DeflaterPool}.  The compressed length isn't known
+ * up front, so the body is sent chunked; the compressed body is never
+ * buffered in memory as a whole.
+ */
+public final class GzipCompressingEntity extends HttpEntityWrapper {
+
+    private static final Header GZIP = new BasicHeader(CONTENT_ENCODING, "gzip");
+
+    /**
+     * ID1, ID2, compression method (deflate), no flags, no modification
+     * time, no extra flags, and an "unknown" operating system.
+     */
+    private static final byte[] GZIP_HEADER = {
+        (byte)0x1f, (byte)0x8b, 8, 0, 0, 0, 0, 0, 0, (byte)0xff
+    };
+
+    private final DeflaterPool pool_;
+
+    public GzipCompressingEntity(final HttpEntity entity,
+                                 final DeflaterPool pool) {
+        super(entity);
+        pool_ = checkNotNull(pool, "Deflater pool cannot be null.");
+    }
+
+    public GzipCompressingEntity(final HttpEntity entity) {
+        this(entity, DeflaterPool.getDefault());
+    }
+
+    @Override
+    public Header getContentEncoding() {
+        return GZIP;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1L;
+    }
+
+    @Override
+    public boolean isChunked() {
+        return true;
+    }
+
+    @Override
+    public InputStream getContent() {
+        throw new UnsupportedOperationException("Compressed content is only available via writeTo.");
+    }
+
+    @Override
+    public void writeTo(final OutputStream os) throws IOException {
+        checkNotNull(os, "Output stream cannot be null.");
+        final Deflater deflater = pool_.acquire();
+        final byte[] buffer = pool_.acquireBuffer();
+        try {
+            final CRC32 crc = new CRC32();
+            os.write(GZIP_HEADER);
+            wrappedEntity.writeTo(new OutputStream() {
+                @Override
+                public void write(final int b) throws IOException {
+                    write(new byte[]{(byte)b}, 0, 1);
+                }
+                @Override
+                public void write(final byte[] b,
+                                  final int off,
+                                  final int len) throws IOException {
+                    if(len == 0) {
+                        return;
+                    }
+                    crc.update(b, off, len);
+                    deflater.setInput(b, off, len);
+                    while(!deflater.needsInput()) {
+                        deflate(deflater, buffer, os);
+                    }
+                }
+                @Override
+                public void close() {
+                    // Never close the connection output stream from here.
+                }
+            });
+            deflater.finish();
+            while(!deflater.finished()) {
+                deflate(deflater, buffer, os);
+            }
+            // Trailer: CRC-32 then uncompressed size, both little endian.
+            writeInt(os, (int)crc.getValue());
+            writeInt(os, (int)deflater.getBytesRead());
+            os.flush();
+        } finally {
+            // Order matters, the deflater is reset (and lets go of the input)
+            // before anything is handed back.
+            pool_.release(deflater);
+            pool_.releaseBuffer(buffer);
+        }
+    }
+
+    private static void deflate(final Deflater deflater,
+                                final byte[] buffer,
+                                final OutputStream os) throws IOException {
+        final int deflated = deflater.deflate(buffer, 0, buffer.length);
+        if(deflated > 0) {
+            os.write(buffer, 0, deflated);
+        }
+    }
+
+    private static void writeInt(final OutputStream os,
+                                 final int i) throws IOException {
+        os.write(i & 0xff);
+        os.write((i >> 8) & 0xff);
+        os.write((i >> 16) & 0xff);
+        os.write((i >> 24) & 0xff);
+    }
+
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.entity;
+
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Inflater;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.Runtime.getRuntime;
+
+/**
+ * A bounded pool of {@link Inflater}'s and input buffers for decoding gzip
+ * and deflate response bodies.  Each {@link java.util.zip.GZIPInputStream}
+ * allocates a new {@link Inflater}, with its ~40KB of native memory, and a
+ * new buffer; on a busy client that's real garbage and native allocation
+ * churn for every single response.  Streams from this pool hand their
+ * {@link Inflater} and buffer back once the body has been fully read, or
+ * the stream is closed.
+ */
+public final class InflaterPool {
+
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private static final int DEFAULT_MAX_IDLE = getRuntime().availableProcessors() * 2;
+
+    private static final InflaterPool default__ = new InflaterPool(DEFAULT_MAX_IDLE, DEFAULT_BUFFER_SIZE);
+
+    /**
+     * Idle inflaters for raw deflate data (gzip bodies, and the odd server
+     * that sends raw deflate), and for zlib wrapped deflate data.
+     */
+    private final BlockingQueue<Inflater> nowrap_;
+    private final BlockingQueue<Inflater> zlib_;
+    private final BlockingQueue<byte[]> buffers_;
+
+    private final int bufferSize_;
+
+    public InflaterPool(final int maxIdle,
+                        final int bufferSize) {
+        checkArgument(maxIdle > 0, "Max idle must be greater than zero.");
+        checkArgument(bufferSize > 0, "Buffer size must be greater than zero.");
+        nowrap_ = new ArrayBlockingQueue<>(maxIdle);
+        zlib_ = new ArrayBlockingQueue<>(maxIdle);
+        buffers_ = new ArrayBlockingQueue<>(maxIdle);
+        bufferSize_ = bufferSize;
+    }
+
+    public static InflaterPool getDefault() {
+        return default__;
+    }
+
+    /**
+     * Returns a stream of the decoded gzip body, given a stream of the body
+     * as received.  Concatenated gzip members are decoded one after another.
+     */
+    public InputStream gzip(final InputStream in) {
+        return new InflatingInputStream(in, this, true);
+    }
+
+    /**
+     * Returns a stream of the decoded deflate body, given a stream of the body
+     * as received.  Both zlib wrapped (the standard) and raw deflate data
+     * are understood.
+     */
+    public InputStream deflate(final InputStream in) {
+        return new InflatingInputStream(in, this, false);
+    }
+
+    public ContentDecoder getGzipDecoder() {
+        return this::gzip;
+    }
+
+    public ContentDecoder getDeflateDecoder() {
+        return this::deflate;
+    }
+
+    Inflater acquire(final boolean nowrap) {
+        final Inflater inflater = (nowrap ? nowrap_ : zlib_).poll();
+        return (inflater != null) ? inflater : new Inflater(nowrap);
+    }
+
+    void release(final Inflater inflater,
+                 final boolean nowrap) {
+        inflater.reset();
+        if(!(nowrap ? nowrap_ : zlib_).offer(inflater)) {
+            // Pool is full, free the native memory now rather than
+            // waiting on the garbage collector.
+            inflater.end();
+        }
+    }
+
+    byte[] acquireBuffer() {
+        final byte[] buffer = buffers_.poll();
+        return (buffer != null) ? buffer : new byte[bufferSize_];
+    }
+
+    void releaseBuffer(final byte[] buffer) {
+        buffers_.offer(buffer);
+    }
+
+}
@@ -0,0 +1,315 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.entity;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import static java.util.Objects.checkFromIndexSize;
+
+/**
+ * Decodes a gzip or deflate body with an {@link Inflater} and input buffer
+ * borrowed from an {@link InflaterPool}, and returned to it as soon as the
+ * end of the body is reached or the stream is closed, whichever comes first.
+ *
+ * Unlike {@link java.util.zip.GZIPInputStream}, the gzip header is parsed
+ * out of the same buffer the {@link Inflater} reads from, rather than one
+ * byte at a time from the underlying stream, and nothing is read until the
+ * first call to read.
+ */
+final class InflatingInputStream extends InputStream {
+
+    private static final int GZIP_ID1 = 0x1f;
+    private static final int GZIP_ID2 = 0x8b;
+    private static final int GZIP_DEFLATE = 8;
+
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private final InputStream in_;
+    private final InflaterPool pool_;
+    private final boolean gzip_;
+
+    private final CRC32 crc_;
+
+    private Inflater inflater_ = null;
+    private boolean nowrap_ = true;
+
+    /**
+     * The borrowed input buffer, and the bounds of the bytes read into it
+     * but not yet consumed by the header/trailer parsing below.  Once handed
+     * to the {@link Inflater}, the inflater keeps track of what's left.
+     */
+    private byte[] buffer_ = null;
+    private int position_ = 0;
+    private int limit_ = 0;
+
+    private byte[] single_ = null;
+
+    private boolean started_ = false;
+    private boolean eof_ = false;
+    private boolean closed_ = false;
+
+    InflatingInputStream(final InputStream in,
+                         final InflaterPool pool,
+                         final boolean gzip) {
+        in_ = in;
+        pool_ = pool;
+        gzip_ = gzip;
+        crc_ = gzip ? new CRC32() : null;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if(single_ == null) {
+            single_ = new byte[1];
+        }
+        return (read(single_, 0, 1) == -1) ? -1 : (single_[0] & 0xff);
+    }
+
+    @Override
+    public int read(final byte[] b,
+                    final int off,
+                    final int len) throws IOException {
+        if(closed_) {
+            throw new IOException("Stream closed.");
+        }
+        checkFromIndexSize(off, len, b.length);
+        if(len == 0) {
+            return 0;
+        } else if(eof_) {
+            return -1;
+        }
+        try {
+            if(!started_) {
+                start();
+                if(eof_) {
+                    return -1;
+                }
+            }
+            while(true) {
+                final int inflated = inflater_.inflate(b, off, len);
+                if(inflated > 0) {
+                    if(gzip_) {
+                        crc_.update(b, off, inflated);
+                    }
+                    return inflated;
+                } else if(inflater_.finished()) {
+                    // A gzip body may be several gzip "members" back to back.
+                    if(!gzip_ || !readGzipTrailer()) {
+                        finish();
+                        return -1;
+                    }
+                } else if(inflater_.needsDictionary()) {
+                    throw new ZipException("Preset deflate dictionaries are not supported.");
+                } else if(inflater_.needsInput()) {
+                    if(fill() < 0) {
+                        throw new EOFException("Unexpected end of compressed body.");
+                    }
+                    inflater_.setInput(buffer_, 0, limit_);
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException((e.getMessage() != null) ?
+                e.getMessage() : "Invalid compressed body.");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(closed_) {
+            return;
+        }
+        closed_ = true;
+        eof_ = true;
+        try {
+            in_.close();
+        } finally {
+            releaseResources();
+        }
+    }
+
+    private void start() throws IOException {
+        started_ = true;
+        buffer_ = pool_.acquireBuffer();
+        if(gzip_) {
+            if(!readGzipHeader(true)) {
+                // An empty body, nothing to decode.
+                finish();
+                return;
+            }
+        } else {
+            // Servers are supposed to send zlib wrapped deflate data, but
+            // some send raw deflate data instead.  Tell them apart by the
+            // zlib header, which is two bytes: a compression method of 8
+            // and a check value such that the pair is a multiple of 31.
+            while(limit_ < 2) {
+                final int read = in_.read(buffer_, limit_, buffer_.length - limit_);
+                if(read < 0) {
+                    break;
+                }
+                limit_ += read;
+            }
+            if(limit_ == 0) {
+                finish();
+                return;
+            }
+            nowrap_ = !(limit_ >= 2 && (buffer_[0] & 0x0f) == GZIP_DEFLATE &&
+                ((((buffer_[0] & 0xff) << 8) | (buffer_[1] & 0xff)) % 31) == 0);
+        }
+        inflater_ = pool_.acquire(nowrap_);
+        if(limit_ > position_) {
+            inflater_.setInput(buffer_, position_, limit_ - position_);
+        }
+    }
+
+    /**
+     * Returns false if the end of the body was reached before the start of
+     * the header, or if what follows a previous member is not a gzip header
+     * (trailing garbage is ignored, like {@link java.util.zip.GZIPInputStream}
+     * does).
+     */
+    private boolean readGzipHeader(final boolean first) throws IOException {
+        final int id1 = readByte();
+        if(id1 < 0) {
+            return false;
+        }
+        final int id2 = readByte();
+        if(id1 != GZIP_ID1 || id2 != GZIP_ID2) {
+            if(first) {
+                throw new ZipException("Not in gzip format.");
+            }
+            return false;
+        }
+        if(readUByte() != GZIP_DEFLATE) {
+            throw new ZipException("Unsupported gzip compression method.");
+        }
+        final int flags = readUByte();
+        // Modification time (4), extra flags (1), and operating system (1).
+        skipBytes(6);
+        if((flags & FEXTRA) != 0) {
+            skipBytes(readUShort());
+        }
+        if((flags & FNAME) != 0) {
+            while(readUByte() != 0) {}
+        }
+        if((flags & FCOMMENT) != 0) {
+            while(readUByte() != 0) {}
+        }
+        if((flags & FHCRC) != 0) {
+            skipBytes(2);
+        }
+        return true;
+    }
+
+    /**
+     * Verifies the trailer of the gzip member just inflated, then returns
+     * true if another member follows it.
+     */
+    private boolean readGzipTrailer() throws IOException {
+        // Whatever the inflater didn't consume is the trailer, and maybe more.
+        position_ = limit_ - inflater_.getRemaining();
+        final long crc = readUInt();
+        final long size = readUInt();
+        if(crc != crc_.getValue()) {
+            throw new ZipException("Corrupt gzip trailer, CRC mismatch.");
+        } else if(size != (inflater_.getBytesWritten() & 0xffffffffL)) {
+            throw new ZipException("Corrupt gzip trailer, size mismatch.");
+        }
+        if(!readGzipHeader(false)) {
+            return false;
+        }
+        inflater_.reset();
+        crc_.reset();
+        if(limit_ > position_) {
+            inflater_.setInput(buffer_, position_, limit_ - position_);
+        }
+        return true;
+    }
+
+    private int fill() throws IOException {
+        final int read = in_.read(buffer_, 0, buffer_.length);
+        position_ = 0;
+        limit_ = Math.max(read, 0);
+        return read;
+    }
+
+    private int readByte() throws IOException {
+        if(position_ >= limit_ && fill() < 0) {
+            return -1;
+        }
+        return buffer_[position_++] & 0xff;
+    }
+
+    private int readUByte() throws IOException {
+        final int b = readByte();
+        if(b < 0) {
+            throw new EOFException("Unexpected end of gzip body.");
+        }
+        return b;
+    }
+
+    private int readUShort() throws IOException {
+        return readUByte() | (readUByte() << 8);
+    }
+
+    private long readUInt() throws IOException {
+        return readUShort() | ((long)readUShort() << 16);
+    }
+
+    private void skipBytes(int n) throws IOException {
+        while(n-- > 0) {
+            readUByte();
+        }
+    }
+
+    private void finish() {
+        eof_ = true;
+        releaseResources();
+    }
+
+    private void releaseResources() {
+        // Order matters, the inflater is reset (and lets go of the buffer)
+        // before the buffer is handed back.
+        if(inflater_ != null) {
+            pool_.release(inflater_, nowrap_);
+            inflater_ = null;
+        }
+        if(buffer_ != null) {
+            pool_.releaseBuffer(buffer_);
+            buffer_ = null;
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.entity;
+
+import com.kolich.http.common.exceptions.ResponseTooLargeException;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Wraps an entity such that reading more than a maximum number of bytes from
+ * its content fails with a {@link ResponseTooLargeException}, immediately,
+ * no matter what its Content-Length says.  Right before that exception is
+ * thrown, the given "on limit" callback is run; typically to abort the
+ * response such that the remainder is never read.
+ */
+public final class LimitedEntity extends HttpEntityWrapper {
+
+    private final long maxBytes_;
+    private final Runnable onLimit_;
+
+    public LimitedEntity(final HttpEntity entity,
+                         final long maxBytes,
+                         final Runnable onLimit) {
+        super(entity);
+        checkArgument(maxBytes >= 0L, "Max bytes must be >= 0L.");
+        maxBytes_ = maxBytes;
+        onLimit_ = checkNotNull(onLimit, "On limit callback cannot be null.");
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        final InputStream content = super.getContent();
+        return (content != null) ? new LimitedInputStream(content) : null;
+    }
+
+    @Override
+    public void writeTo(final OutputStream os) throws IOException {
+        final InputStream content = getContent();
+        if(content == null) {
+            return;
+        }
+        try {
+            final byte[] buffer = new byte[4096];
+            int read;
+            while((read = content.read(buffer)) != -1) {
+                os.write(buffer, 0, read);
+            }
+        } finally {
+            content.close();
+        }
+    }
+
+    private final class LimitedInputStream extends FilterInputStream {
+        private long count_ = 0L;
+        private LimitedInputStream(final InputStream in) {
+            super(in);
+        }
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if(b != -1) {
+                count(1);
+            }
+            return b;
+        }
+        @Override
+        public int read(final byte[] b,
+                        final int off,
+                        final int len) throws IOException {
+            final int read = super.read(b, off, (int)Math.min(len, allowed()));
+            if(read > 0) {
+                count(read);
+            }
+            return read;
+        }
+        @Override
+        public long skip(final long n) throws IOException {
+            final long skipped = super.skip(Math.min(n, allowed()));
+            if(skipped > 0L) {
+                count(skipped);
+            }
+            return skipped;
+        }
+        /**
+         * Never ask for more than one byte past the limit.  Saturates
+         * instead of overflowing when the limit is {@link Long#MAX_VALUE}.
+         */
+        private long allowed() {
+            final long remaining = maxBytes_ - count_;
+            return (remaining < Long.MAX_VALUE) ? remaining + 1L : remaining;
+        }
+        private void count(final long read) throws ResponseTooLargeException {
+            count_ += read;
+            if(count_ > maxBytes_) {
+                onLimit_.run();
+                throw new ResponseTooLargeException(maxBytes_);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,310 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.entity;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * A multipart/form-data request entity that streams each part, straight
+ * from its source, as it's written to the connection; nothing is buffered
+ * in memory beyond a single copy buffer.  When the length of every part is
+ * known up front, so is the length of the whole body, and it's sent with a
+ * Content-Length instead of chunked.
+ *
+ * Built with a {@link MultipartEntityBuilder}.
+ */
+public final class MultipartEntity extends AbstractHttpEntity {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] DASHES = {'-', '-'};
+
+    private static final int COPY_BUFFER_SIZE = 8192;
+
+    private final List<Part> parts_;
+    private final byte[] boundary_;
+    private final long contentLength_;
+    private final boolean repeatable_;
+
+    private boolean consumed_ = false;
+
+    MultipartEntity(final List<Part> parts,
+                    final String boundary) {
+        parts_ = parts;
+        boundary_ = boundary.getBytes(US_ASCII);
+        setContentType("multipart/form-data; boundary=" + boundary);
+        long length = 0L;
+        boolean repeatable = true;
+        for(final Part part : parts_) {
+            final long partLength = part.getLength();
+            length = (length < 0L || partLength < 0L) ? -1L :
+                length + DASHES.length + boundary_.length + CRLF.length +
+                    part.headers_.length + partLength + CRLF.length;
+            repeatable &= part.isRepeatable();
+        }
+        contentLength_ = (length < 0L) ? -1L :
+            length + DASHES.length + boundary_.length + DASHES.length + CRLF.length;
+        repeatable_ = repeatable;
+        setChunked(contentLength_ < 0L);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return repeatable_;
+    }
+
+    @Override
+    public long getContentLength() {
+        return contentLength_;
+    }
+
+    @Override
+    public InputStream getContent() {
+        throw new UnsupportedOperationException("Multipart content is only available via writeTo.");
+    }
+
+    @Override
+    public void writeTo(final OutputStream os) throws IOException {
+        if(!repeatable_ && consumed_) {
+            throw new IOException("Multipart entity with streamed parts cannot be written twice.");
+        }
+        consumed_ = true;
+        final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        for(final Part part : parts_) {
+            os.write(DASHES);
+            os.write(boundary_);
+            os.write(CRLF);
+            os.write(part.headers_);
+            part.writeTo(os, buffer);
+            os.write(CRLF);
+        }
+        os.write(DASHES);
+        os.write(boundary_);
+        os.write(DASHES);
+        os.write(CRLF);
+        os.flush();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return !repeatable_ && !consumed_;
+    }
+
+    /**
+     * A single part; its encoded headers, including the blank line that
+     * ends them, and a source for its body.
+     */
+    static abstract class Part {
+
+        private final byte[] headers_;
+
+        Part(final String name,
+             final String filename,
+             final String contentType) {
+            final StringBuilder sb = new StringBuilder("Content-Disposition: form-data; name=\"")
+                .append(escape(name)).append('"');
+            if(filename != null) {
+                sb.append("; filename=\"").append(escape(filename)).append('"');
+            }
+            sb.append("\r\n");
+            if(contentType != null) {
+                sb.append("Content-Type: ").append(contentType).append("\r\n");
+            }
+            headers_ = sb.append("\r\n").toString().getBytes(UTF_8);
+        }
+
+        /**
+         * The length of the part body, or -1 if unknown.
+         */
+        abstract long getLength();
+
+        abstract boolean isRepeatable();
+
+        abstract void writeTo(final OutputStream os,
+                              final byte[] buffer) throws IOException;
+
+        /**
+         * Quotes, carriage returns and line feeds can't appear as is in a
+         * quoted parameter value; they're percent encoded like browsers do.
+         */
+        private static String escape(final String value) {
+            return value.replace("\"", "%22").replace("\r", "%0D").replace("\n", "%0A");
+        }
+
+    }
+
+    static final class ByteArrayPart extends Part {
+        private final byte[] body_;
+        ByteArrayPart(final String name, final String filename,
+                      final String contentType, final byte[] body) {
+            super(name, filename, contentType);
+            body_ = body;
+        }
+        @Override
+        long getLength() {
+            return body_.length;
+        }
+        @Override
+        boolean isRepeatable() {
+            return true;
+        }
+        @Override
+        void writeTo(final OutputStream os, final byte[] buffer) throws IOException {
+            os.write(body_);
+        }
+    }
+
+    static final class ByteBufferPart extends Part {
+        private final ByteBuffer body_;
+        ByteBufferPart(final String name, final String filename,
+                       final String contentType, final ByteBuffer body) {
+            super(name, filename, contentType);
+            // Our own view, so the position of the original doesn't matter.
+            body_ = body.duplicate();
+        }
+        @Override
+        long getLength() {
+            return body_.remaining();
+        }
+        @Override
+        boolean isRepeatable() {
+            return true;
+        }
+        @Override
+        void writeTo(final OutputStream os, final byte[] buffer) throws IOException {
+            final ByteBuffer body = body_.duplicate();
+            if(body.hasArray()) {
+                os.write(body.array(), body.arrayOffset() + body.position(), body.remaining());
+            } else {
+                // Direct or read only, copy out through the buffer.
+                while(body.hasRemaining()) {
+                    final int length = Math.min(buffer.length, body.remaining());
+                    body.get(buffer, 0, length);
+                    os.write(buffer, 0, length);
+                }
+            }
+        }
+    }
+
+    static final class InputStreamPart extends Part {
+        private final InputStream body_;
+        private final long length_;
+        InputStreamPart(final String name, final String filename,
+                        final String contentType, final InputStream body,
+                        final long length) {
+            super(name, filename, contentType);
+            body_ = body;
+            length_ = length;
+        }
+        @Override
+        long getLength() {
+            return length_;
+        }
+        @Override
+        boolean isRepeatable() {
+            return false;
+        }
+        @Override
+        void writeTo(final OutputStream os, final byte[] buffer) throws IOException {
+            try(InputStream is = body_) {
+                copy(is, os, buffer, length_);
+            }
+        }
+    }
+
+    static final class PathPart extends Part {
+        private final Path body_;
+        private final long length_;
+        PathPart(final String name, final String filename,
+                 final String contentType, final Path body,
+                 final long length) {
+            super(name, filename, contentType);
+            body_ = body;
+            length_ = length;
+        }
+        @Override
+        long getLength() {
+            return length_;
+        }
+        @Override
+        boolean isRepeatable() {
+            return true;
+        }
+        @Override
+        void writeTo(final OutputStream os, final byte[] buffer) throws IOException {
+            // Exactly the length declared when the part was added, even if
+            // the file has changed since, such that the Content-Length
+            // stays honest.
+            try(FileChannel channel = FileChannel.open(body_, READ)) {
+                final ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+                long remaining = length_;
+                while(remaining > 0L) {
+                    wrapped.clear().limit((int)Math.min(buffer.length, remaining));
+                    final int read = channel.read(wrapped);
+                    if(read < 0) {
+                        throw new EOFException("File " + body_ + " is shorter than " +
+                            length_ + " bytes.");
+                    }
+                    os.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            }
+        }
+    }
+
+    private static void copy(final InputStream is,
+                             final OutputStream os,
+                             final byte[] buffer,
+                             final long length) throws IOException {
+        long remaining = (length < 0L) ? Long.MAX_VALUE : length;
+        while(remaining > 0L) {
+            final int read = is.read(buffer, 0, (int)Math.min(buffer.length, remaining));
+            if(read < 0) {
+                if(length >= 0L) {
+                    throw new EOFException("Part stream ended " + remaining +
+                        " bytes short of its declared length.");
+                }
+                break;
+            }
+            os.write(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.entity;
+
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Builds a streaming {@link MultipartEntity}.  Parts are written in the
+ * order they're added, and no part body is read until the request is sent.
+ *
+ * <pre>
+ * closure.post(new MultipartEntityBuilder()
+ *     .addTextPart("description", "Vacation photos")
+ *     .addFilePart("photo", Paths.get("beach.jpg"), "image/jpeg")
+ *     .applyTo(new HttpPost("http://example.com/upload")));
+ * </pre>
+ */
+public final class MultipartEntityBuilder {
+
+    private static final String TEXT_PLAIN_UTF_8 = "text/plain; charset=UTF-8";
+
+    private static final char[] BOUNDARY_CHARS =
+        "-_0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+    private static final int BOUNDARY_LENGTH = 32;
+
+    private final List<MultipartEntity.Part> parts_ = new ArrayList<>();
+
+    private String boundary_ = null;
+
+    public MultipartEntityBuilder() {}
+
+    public MultipartEntityBuilder setBoundary(final String boundary) {
+        checkNotNull(boundary, "Boundary cannot be null.");
+        checkArgument(!boundary.isEmpty() && boundary.length() <= 70,
+            "Boundary must be between 1 and 70 characters long.");
+        boundary_ = boundary;
+        return this;
+    }
+
+    public MultipartEntityBuilder addTextPart(final String name,
+                                              final String value) {
+        checkNotNull(value, "Value cannot be null.");
+        return addPart(name, null, value.getBytes(UTF_8), TEXT_PLAIN_UTF_8);
+    }
+
+    public MultipartEntityBuilder addPart(final String name,
+                                          final String filename,
+                                          final byte[] body,
+                                          final String contentType) {
+        checkNotNull(body, "Body cannot be null.");
+        parts_.add(new MultipartEntity.ByteArrayPart(checkName(name), filename, contentType, body));
+        return this;
+    }
+
+    /**
+     * The remaining bytes of the buffer are sent; neither its position nor
+     * its contents are touched.
+     */
+    public MultipartEntityBuilder addPart(final String name,
+                                          final String filename,
+                                          final ByteBuffer body,
+                                          final String contentType) {
+        checkNotNull(body, "Body cannot be null.");
+        parts_.add(new MultipartEntity.ByteBufferPart(checkName(name), filename, contentType, body));
+        return this;
+    }
+
+    /**
+     * The stream is read, and closed, only when the request is sent.  If the
+     * length is unknown (negative), the whole body is sent chunked.  An entity
+     * with a stream part can only be sent once.
+     */
+    public MultipartEntityBuilder addPart(final String name,
+                                          final String filename,
+                                          final InputStream body,
+                                          final long length,
+                                          final String contentType) {
+        checkNotNull(body, "Body cannot be null.");
+        parts_.add(new MultipartEntity.InputStreamPart(checkName(name), filename, contentType,
+            body, (length < 0L) ? -1L : length));
+        return this;
+    }
+
+    public MultipartEntityBuilder addPart(final String name,
+                                          final String filename,
+                                          final Path body,
+                                          final String contentType) {
+        checkNotNull(body, "Body cannot be null.");
+        final long length;
+        try {
+            length = Files.size(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to get size of: " + body, e);
+        }
+        parts_.add(new MultipartEntity.PathPart(checkName(name), filename, contentType,
+            body, length));
+        return this;
+    }
+
+    /**
+     * Adds a file part, named after the file itself.
+     */
+    public MultipartEntityBuilder addFilePart(final String name,
+                                              final Path body,
+                                              final String contentType) {
+        checkNotNull(body, "Body cannot be null.");
+        final Path filename = body.getFileName();
+        return addPart(name, (filename != null) ? filename.toString() : null, body, contentType);
+    }
+
+    public MultipartEntity build() {
+        checkState(!parts_.isEmpty(), "Multipart entity must have at least one part.");
+        return new MultipartEntity(new ArrayList<>(parts_),
+            (boundary_ != null) ? boundary_ : newBoundary());
+    }
+
+    /**
+     * Builds the entity and sets it on the given request, then returns the
+     * request; handy for passing straight to a closure post or put.
+     */
+    public <R extends HttpEntityEnclosingRequestBase> R applyTo(final R request) {
+        checkNotNull(request, "Request cannot be null.");
+        request.setEntity(build());
+        return request;
+    }
+
+    private static String checkName(final String name) {
+        checkNotNull(name, "Part name cannot be null.");
+        return name;
+    }
+
+    private static String newBoundary() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final char[] boundary = new char[BOUNDARY_LENGTH];
+        for(int i = 0; i < boundary.length; i++) {
+            boundary[i] = BOUNDARY_CHARS[random.nextInt(BOUNDARY_CHARS.length)];
+        }
+        return new String(boundary);
+    }
+
+}
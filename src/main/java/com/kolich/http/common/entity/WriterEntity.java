@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.entity;
+
+import com.kolich.http.common.exceptions.EntityWriterException;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.http.entity.AbstractHttpEntity;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A request entity whose body is produced by an {@link EntityWriter}, as it's
+ * sent, with chunked transfer encoding.  No pipe and no extra thread.
+ *
+ * The writer gets a stream buffered to the given size, zero meaning writes
+ * go straight through to the connection (which does some small buffering
+ * of its own).  The body can only be written once, so the request is never
+ * retried or redirected with it.
+ */
+public final class WriterEntity extends AbstractHttpEntity {
+
+    private final EntityWriter writer_;
+    private final int bufferSize_;
+
+    private boolean consumed_ = false;
+
+    public WriterEntity(final EntityWriter writer,
+                        final String contentType,
+                        final int bufferSize) {
+        writer_ = checkNotNull(writer, "Entity writer cannot be null.");
+        checkArgument(bufferSize >= 0, "Buffer size must be >= 0.");
+        bufferSize_ = bufferSize;
+        if(contentType != null) {
+            setContentType(contentType);
+        }
+        setChunked(true);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return false;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1L;
+    }
+
+    @Override
+    public InputStream getContent() {
+        throw new UnsupportedOperationException("Content is only available via writeTo.");
+    }
+
+    @Override
+    public void writeTo(final OutputStream os) throws IOException {
+        checkNotNull(os, "Output stream cannot be null.");
+        if(consumed_) {
+            throw new IOException("Entity writer was already used, body cannot be written twice.");
+        }
+        consumed_ = true;
+        // The writer may close the stream it's given, but that must never
+        // close the connection output stream.
+        final OutputStream shielded = new CloseShieldOutputStream(os);
+        final OutputStream out = (bufferSize_ > 0) ?
+            new BufferedOutputStream(shielded, bufferSize_) : shielded;
+        try {
+            writer_.write(out);
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new EntityWriterException(e);
+        }
+        out.flush();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return !consumed_;
+    }
+
+}
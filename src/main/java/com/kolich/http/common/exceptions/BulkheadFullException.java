@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.exceptions;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a request is turned away by a bulkhead that's already at
+ * its limit of requests in flight, either overall or to the request's
+ * route.  Rejections are routine for a full bulkhead, and a stack trace
+ * wouldn't say anything the bulkhead name doesn't, so there isn't one.
+ */
+public final class BulkheadFullException extends IOException {
+
+	private static final long serialVersionUID = -4467807012236591870L;
+
+	private final String bulkhead_;
+
+	public BulkheadFullException(final String bulkhead,
+                                 final String message) {
+		super(String.format("Bulkhead %s full: %s", bulkhead, message));
+		bulkhead_ = bulkhead;
+	}
+
+	/**
+	 * The name of the bulkhead that rejected the request.
+	 */
+	public String getBulkhead() {
+		return bulkhead_;
+	}
+
+	@Override
+	public Throwable fillInStackTrace() {
+		return this;
+	}
+
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.exceptions;
+
+import java.io.IOException;
+
+/**
+ * Thrown when every endpoint of a group is ejected, and the group is set
+ * to fail fast rather than try them anyways.  Requests keep failing this
+ * way, without touching the network, until the first endpoint is back in
+ * rotation.  Fails often while the circuit is open, so it doesn't fill in
+ * a stack trace.
+ */
+public final class CircuitOpenException extends IOException {
+
+	private static final long serialVersionUID = -1925068170337591584L;
+
+	private final long retryAfterMs_;
+
+	public CircuitOpenException(final long retryAfterMs) {
+		super(String.format("Every endpoint is ejected, next back in %d ms.",
+			retryAfterMs));
+		retryAfterMs_ = retryAfterMs;
+	}
+
+	/**
+	 * How long until the first endpoint is back in rotation.
+	 */
+	public long getRetryAfterMs() {
+		return retryAfterMs_;
+	}
+
+	@Override
+	public Throwable fillInStackTrace() {
+		return this;
+	}
+
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.exceptions;
+
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+
+/**
+ * Thrown when a request can't get a pooled connection right away, and
+ * there are already as many requests waiting for one on its route as
+ * allowed.  The request fails fast instead of joining the queue, without
+ * a stack trace.
+ */
+public final class LeaseQueueFullException extends ConnectionPoolTimeoutException {
+
+	private static final long serialVersionUID = 2895391473829546231L;
+
+	private final int maxPending_;
+
+	public LeaseQueueFullException(final String route,
+                                   final int maxPending) {
+		super(String.format("Already %d requests waiting for a connection to %s.",
+			maxPending, route));
+		maxPending_ = maxPending;
+	}
+
+	public int getMaxPending() {
+		return maxPending_;
+	}
+
+	@Override
+	public Throwable fillInStackTrace() {
+		return this;
+	}
+
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.exceptions;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a request would exceed the rate allowed for its host, and
+ * the rate limiter's policy is to fail fast rather than wait that long.
+ * Failing fast is meant to be cheap; no stack trace is filled in.
+ */
+public final class RateLimitedException extends IOException {
+
+	private static final long serialVersionUID = 6203913577620184207L;
+
+	private final long waitMs_;
+
+	public RateLimitedException(final String host,
+                                final long waitMs) {
+		super(String.format("Request to %s rate limited, next permit in %d ms.",
+			host, waitMs));
+		waitMs_ = waitMs;
+	}
+
+	/**
+	 * How long the request would have had to wait for a permit.
+	 */
+	public long getWaitMs() {
+		return waitMs_;
+	}
+
+	@Override
+	public Throwable fillInStackTrace() {
+		return this;
+	}
+
+}
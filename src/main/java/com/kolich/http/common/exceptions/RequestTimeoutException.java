@@ -0,0 +1,59 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.exceptions;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Thrown when a request is aborted because it didn't get a response within
+ * the closure's request timeout.  The cause is whatever the aborted request
+ * failed with, often no more than a closed socket.  Timeouts pile up when
+ * a backend is in trouble, so this one skips its own stack trace.
+ */
+public final class RequestTimeoutException extends InterruptedIOException {
+
+	private static final long serialVersionUID = 3092645181357442076L;
+
+	private final long timeoutMs_;
+
+	public RequestTimeoutException(final long timeoutMs,
+                                   final Throwable cause) {
+		super(String.format("Request timed out after %d ms.", timeoutMs));
+		timeoutMs_ = timeoutMs;
+		initCause(cause);
+	}
+
+	public long getTimeoutMs() {
+		return timeoutMs_;
+	}
+
+	@Override
+	public Throwable fillInStackTrace() {
+		return this;
+	}
+
+}
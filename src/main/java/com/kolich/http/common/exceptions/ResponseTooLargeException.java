@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.exceptions;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a response entity is larger than the configured maximum
+ * number of bytes a closure is willing to read.
+ */
+public final class ResponseTooLargeException extends IOException {
+
+	private static final long serialVersionUID = -2392641862133471804L;
+
+	private final long maxBytes_;
+
+	public ResponseTooLargeException(final long maxBytes,
+                                     final long contentLength) {
+		super((contentLength >= 0L) ?
+			String.format("Response Content-Length of %d bytes exceeds the maximum of %d bytes.",
+				contentLength, maxBytes) :
+			String.format("Response body exceeds the maximum of %d bytes.", maxBytes));
+		maxBytes_ = maxBytes;
+	}
+
+	public ResponseTooLargeException(final long maxBytes) {
+		this(maxBytes, -1L);
+	}
+
+	public long getMaxBytes() {
+		return maxBytes_;
+	}
+
+}
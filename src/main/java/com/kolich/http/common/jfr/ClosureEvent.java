@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.protocol.HttpContext;
+
+import java.net.URI;
+
+/**
+ * A JDK Flight Recorder event timing one phase of a request made through
+ * an {@link com.kolich.http.HttpClient4Closure}.  Each event type has a
+ * static <code>start()</code> returning null, without allocating anything,
+ * if that event is not enabled in any running recording; the closure then
+ * skips the event altogether.  The route, method, status and bytes are
+ * only worked out when an event is actually committed.
+ */
+@Category({"HTTP", "Closures"})
+public abstract class ClosureEvent extends jdk.jfr.Event {
+
+    // Not private; flight recorder only records superclass fields that
+    // its subclasses can see.
+
+    @Label("Route")
+    @Description("Scheme, host and port the request was sent to")
+    String route;
+
+    @Label("Method")
+    String method;
+
+    @Label("Status")
+    @Description("HTTP status code of the response, or 0 if none yet")
+    int status;
+
+    @Label("Bytes")
+    @Description("Response body length, or -1 if not known")
+    @DataAmount
+    long bytes;
+
+    /**
+     * Ends the event and commits it, if it should be, with what is known
+     * about the request and response so far; the response may be null.
+     */
+    public final void commit(final HttpRequestBase request,
+                             final HttpResponse response,
+                             final HttpContext context) {
+        end();
+        if(shouldCommit()) {
+            set(request, response, context, getContentLength(response));
+            commit();
+        }
+    }
+
+    final void set(final HttpRequestBase request,
+                   final HttpResponse response,
+                   final HttpContext context,
+                   final long bytes) {
+        this.route = getRoute(request, context);
+        this.method = request.getMethod();
+        this.status = (response != null && response.getStatusLine() != null) ?
+            response.getStatusLine().getStatusCode() : 0;
+        this.bytes = bytes;
+    }
+
+    private static String getRoute(final HttpRequestBase request,
+                                   final HttpContext context) {
+        // Once sent, HttpClient leaves the route it took in the context;
+        // more accurate than the request URI, which may be relative.
+        final Object route = (context != null) ?
+            context.getAttribute(HttpClientContext.HTTP_ROUTE) : null;
+        if(route instanceof HttpRoute) {
+            return ((HttpRoute)route).getTargetHost().toURI();
+        }
+        final URI uri = request.getURI();
+        final HttpHost host = (uri != null) ? URIUtils.extractHost(uri) : null;
+        return (host != null) ? host.toURI() : null;
+    }
+
+    private static long getContentLength(final HttpResponse response) {
+        final HttpEntity entity = (response != null) ? response.getEntity() : null;
+        return (entity != null) ? entity.getContentLength() : -1L;
+    }
+
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.jfr;
+
+import com.kolich.http.common.response.HttpFailure;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.protocol.HttpContext;
+
+@Name("com.kolich.http.ClosureFailure")
+@Label("Closure Failure")
+@Description("Converting a failed request in the closure's failure()")
+@Enabled(false)
+public final class ClosureFailureEvent extends ClosureEvent {
+
+    private static final ClosureFailureEvent PROBE = new ClosureFailureEvent();
+
+    @Label("Failure Type")
+    private String failureType;
+
+    /**
+     * Returns a new, started, event; or null if it is not enabled.
+     */
+    public static ClosureFailureEvent start() {
+        if(!PROBE.isEnabled()) {
+            return null;
+        }
+        final ClosureFailureEvent event = new ClosureFailureEvent();
+        event.begin();
+        return event;
+    }
+
+    public void commit(final HttpRequestBase request,
+                       final HttpFailure failure,
+                       final HttpContext context) {
+        failureType = failure.getType().name();
+        commit(request, failure.getResponse(), context);
+    }
+
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+import org.apache.http.conn.routing.HttpRoute;
+
+/**
+ * Waiting for a pooled connection.  The connection manager doesn't see the
+ * request, so there's no method, status or bytes here; the lease happens
+ * within, and on the same thread as, the request's
+ * {@link ClosureExecuteEvent}, which has them.
+ */
+@Name("com.kolich.http.ConnectionLease")
+@Label("Connection Lease")
+@Description("Waiting for a connection from the pool")
+@Category({"HTTP", "Closures"})
+@Threshold("20 ms")
+public final class ConnectionLeaseEvent extends jdk.jfr.Event {
+
+    private static final ConnectionLeaseEvent PROBE = new ConnectionLeaseEvent();
+
+    @Label("Route")
+    @Description("Scheme, host and port the connection is for")
+    private String route;
+
+    @Label("Leased")
+    @Description("Whether a connection was leased, or the wait failed")
+    private boolean leased;
+
+    /**
+     * Returns a new, started, event; or null if it is not enabled.
+     */
+    public static ConnectionLeaseEvent start() {
+        if(!PROBE.isEnabled()) {
+            return null;
+        }
+        final ConnectionLeaseEvent event = new ConnectionLeaseEvent();
+        event.begin();
+        return event;
+    }
+
+    public void commit(final HttpRoute route,
+                       final boolean leased) {
+        end();
+        if(shouldCommit()) {
+            this.route = route.getTargetHost().toURI();
+            this.leased = leased;
+            commit();
+        }
+    }
+
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+import org.apache.http.client.methods.HttpRequestBase;
+
+/**
+ * The timeout manager aborting a request that ran past its request
+ * timeout.  Recorded on the timeout manager's thread; the duration is how
+ * long the abort itself took.
+ */
+@Name("com.kolich.http.RequestTimeout")
+@Label("Request Timeout")
+@Description("A request aborted by the timeout manager for taking too long")
+public final class RequestTimeoutEvent extends ClosureEvent {
+
+    private static final RequestTimeoutEvent PROBE = new RequestTimeoutEvent();
+
+    @Label("Overdue")
+    @Description("How late the timeout manager was in aborting the request")
+    @Timespan(Timespan.MILLISECONDS)
+    private long overdue;
+
+    /**
+     * Returns a new, started, event; or null if it is not enabled.
+     */
+    public static RequestTimeoutEvent start() {
+        if(!PROBE.isEnabled()) {
+            return null;
+        }
+        final RequestTimeoutEvent event = new RequestTimeoutEvent();
+        event.begin();
+        return event;
+    }
+
+    public void commit(final HttpRequestBase request,
+                       final long overdueMs) {
+        overdue = overdueMs;
+        commit(request, null, null);
+    }
+
+}
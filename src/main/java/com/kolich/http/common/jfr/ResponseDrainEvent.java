@@ -0,0 +1,73 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Reading and throwing away whatever the closure left of the response
+ * body, such that the connection can go back to the pool.  Unlike the
+ * other closure events, bytes is what was actually drained.
+ */
+@Name("com.kolich.http.ResponseDrain")
+@Label("Response Drain")
+@Description("Draining what is left of the response body after the closure is done with it")
+@Enabled(false)
+public final class ResponseDrainEvent extends ClosureEvent {
+
+    private static final ResponseDrainEvent PROBE = new ResponseDrainEvent();
+
+    /**
+     * Returns a new, started, event; or null if it is not enabled.
+     */
+    public static ResponseDrainEvent start() {
+        if(!PROBE.isEnabled()) {
+            return null;
+        }
+        final ResponseDrainEvent event = new ResponseDrainEvent();
+        event.begin();
+        return event;
+    }
+
+    public void commit(final HttpRequestBase request,
+                       final HttpResponse response,
+                       final HttpContext context,
+                       final long drained) {
+        end();
+        if(shouldCommit()) {
+            set(request, response, context, drained);
+            commit();
+        }
+    }
+
+}
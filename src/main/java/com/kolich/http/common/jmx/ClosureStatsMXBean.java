@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.jmx;
+
+import java.util.Map;
+
+/**
+ * Outcomes of every request made through closures of one class.
+ * Registered as <code>com.kolich.http:type=Closure,name="..."</code>, named
+ * for the closure class.
+ */
+public interface ClosureStatsMXBean {
+
+    long getSucceeded();
+
+    long getFailed();
+
+    /**
+     * Failures by {@link com.kolich.http.common.response.FailureType} name,
+     * only those that have happened.
+     */
+    Map<String,Long> getFailuresByType();
+
+    /**
+     * Mean time of a request, from start to result, in milliseconds.
+     */
+    double getMeanLatencyMs();
+
+    /**
+     * Longest request since the last {@link #resetMaxLatency()}, in
+     * milliseconds.
+     */
+    double getMaxLatencyMs();
+
+    void resetMaxLatency();
+
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.jmx;
+
+/**
+ * The connection pool of a client built by a
+ * {@link com.kolich.http.HttpClient4ClosureBuilder} with an MBean name.
+ * Registered as <code>com.kolich.http:type=ConnectionPool,name="..."</code>.
+ */
+public interface ConnectionPoolMXBean {
+
+    /**
+     * Connections in use.
+     */
+    int getLeased();
+
+    /**
+     * Idle connections, kept alive for reuse.
+     */
+    int getAvailable();
+
+    /**
+     * Requests waiting for a connection in the pool itself; not including
+     * those waiting their turn in a priority leasing queue first.
+     */
+    int getPending();
+
+    int getMaxTotal();
+
+    int getDefaultMaxPerRoute();
+
+    /**
+     * Routes with at least one connection or waiter.
+     */
+    int getRoutes();
+
+    /**
+     * See {@link com.kolich.http.common.conn.LeaseStats#getRejected()}.
+     */
+    long getLeasesRejected();
+
+    /**
+     * See {@link com.kolich.http.common.conn.LeaseStats#getTimedOut()}.
+     */
+    long getLeasesTimedOut();
+
+    long getFullHandshakes();
+
+    long getResumedHandshakes();
+
+    long getFailedHandshakes();
+
+}
@@ -0,0 +1,182 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.jmx;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Registers this library's MBeans with the platform MBean server, under
+ * the {@link #DOMAIN} domain.  Registration never fails the caller; an
+ * MBean that can't be registered, say for lack of permission, just isn't
+ * there.
+ *
+ * The library wide MBeans are opt-in, such that merely using a closure
+ * never starts the platform MBean server.  They're registered once JMX is
+ * enabled, by the {@link #ENABLED_PROPERTY} system property, by
+ * {@link #enable()}, or by building a client with an MBean name.
+ */
+public final class MBeans {
+
+    public static final String DOMAIN = "com.kolich.http";
+
+    /**
+     * Set this system property to <code>true</code> to register the
+     * library wide MBeans from the start.
+     */
+    public static final String ENABLED_PROPERTY = DOMAIN + ".jmx";
+
+    /**
+     * MBeans waiting for JMX to be enabled, in the order they were
+     * registered.
+     */
+    private static final Map<ObjectName,Object> deferred__ = new LinkedHashMap<>();
+
+    /**
+     * What this class registered under each name, such that a client that
+     * shuts down only unregisters its own MBean.
+     */
+    private static final Map<ObjectName,Object> registered__ = new HashMap<>();
+
+    private static volatile boolean enabled__ = Boolean.getBoolean(ENABLED_PROPERTY);
+
+    // Cannot instantiate
+    private MBeans() {}
+
+    /**
+     * Enables JMX, registering every MBean deferred until now.
+     */
+    public static void enable() {
+        if(enabled__) {
+            return;
+        }
+        final Map<ObjectName,Object> deferred;
+        synchronized(deferred__) {
+            if(enabled__) {
+                return;
+            }
+            deferred = new LinkedHashMap<>(deferred__);
+            deferred__.clear();
+            enabled__ = true;
+        }
+        for(final Map.Entry<ObjectName,Object> e : deferred.entrySet()) {
+            register(e.getKey(), e.getValue());
+        }
+    }
+
+    public static boolean isEnabled() {
+        return enabled__;
+    }
+
+    /**
+     * Registers the MBean now if JMX is enabled, or else once it is.
+     */
+    public static void registerWhenEnabled(final ObjectName name,
+                                           final Object mbean) {
+        if(!enabled__) {
+            synchronized(deferred__) {
+                if(!enabled__) {
+                    deferred__.put(name, mbean);
+                    return;
+                }
+            }
+        }
+        register(name, mbean);
+    }
+
+    /**
+     * Returns the name for an MBean of the given type and name, like
+     * <code>com.kolich.http:type=ConnectionPool,name="api"</code>.
+     */
+    public static ObjectName getObjectName(final String type,
+                                           final String name) {
+        try {
+            return new ObjectName(DOMAIN + ":type=" + type +
+                ((name != null) ? ",name=" + ObjectName.quote(name) : ""));
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Invalid MBean name: " + name, e);
+        }
+    }
+
+    /**
+     * Registers the MBean, replacing any already registered under the
+     * same name.  Returns false if it couldn't be registered.
+     */
+    public static boolean register(final ObjectName name,
+                                   final Object mbean) {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        synchronized(registered__) {
+            try {
+                try {
+                    server.registerMBean(mbean, name);
+                } catch (InstanceAlreadyExistsException e) {
+                    unregister(name);
+                    server.registerMBean(mbean, name);
+                }
+                registered__.put(name, mbean);
+                return true;
+            } catch (JMException | SecurityException e) {
+                return false;
+            }
+        }
+    }
+
+    public static void unregister(final ObjectName name) {
+        synchronized(registered__) {
+            registered__.remove(name);
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (InstanceNotFoundException e) {
+                // Already gone.
+            } catch (JMException | SecurityException e) {
+                // Nothing more to do.
+            }
+        }
+    }
+
+    /**
+     * Unregisters the MBean, unless another one has replaced it under the
+     * same name since.
+     */
+    public static void unregister(final ObjectName name,
+                                  final Object mbean) {
+        synchronized(registered__) {
+            if(registered__.get(name) == mbean) {
+                unregister(name);
+            }
+        }
+    }
+
+}
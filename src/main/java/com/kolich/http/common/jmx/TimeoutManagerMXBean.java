@@ -0,0 +1,64 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.jmx;
+
+/**
+ * The single timeout manager thread, shared by every closure, that aborts
+ * requests which run past their closure's request timeout.  Registered as
+ * <code>com.kolich.http:type=TimeoutManager</code>.
+ */
+public interface TimeoutManagerMXBean {
+
+    /**
+     * Requests being watched for a timeout right now.
+     */
+    int getQueueSize();
+
+    /**
+     * Requests aborted for timing out.
+     */
+    long getAborted();
+
+    /**
+     * Unexpected exceptions caught by the timeout manager.  The manager
+     * keeps going, but the request it was working on may not have been
+     * aborted.
+     */
+    long getErrors();
+
+    /**
+     * The most recent of those, or null if none.
+     */
+    String getLastError();
+
+    /**
+     * False if the timeout manager thread has died, in which case no
+     * request will time out.
+     */
+    boolean isAlive();
+
+}
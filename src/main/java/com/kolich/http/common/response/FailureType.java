@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.response;
+
+import com.kolich.http.common.exceptions.BulkheadFullException;
+import com.kolich.http.common.exceptions.CircuitOpenException;
+import com.kolich.http.common.exceptions.RateLimitedException;
+import com.kolich.http.common.exceptions.RequestTimeoutException;
+import com.kolich.http.common.exceptions.ResponseTooLargeException;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.impl.execchain.RequestAbortedException;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+
+/**
+ * What kind of failure an {@link HttpFailure} is, such that failures can
+ * be counted, retried or shed with a switch rather than by digging through
+ * exceptions and their stack traces.
+ */
+public enum FailureType {
+	
+	/**
+	 * A response came back, but failed the closure's check; usually an
+	 * HTTP status code of 400 or above.
+	 */
+	STATUS,
+	
+	/**
+	 * The request timeout, or a socket connect or read timeout, fired.
+	 */
+	TIMEOUT,
+	
+	/**
+	 * The request was aborted before it finished, other than by a timeout.
+	 */
+	ABORTED,
+	
+	/**
+	 * Every endpoint the request could go to is ejected.
+	 */
+	CIRCUIT_OPEN,
+	
+	/**
+	 * No pooled connection was available in time, or too many requests
+	 * were already waiting for one.
+	 */
+	LEASE_EXHAUSTED,
+	
+	/**
+	 * Turned away by a full bulkhead.
+	 */
+	BULKHEAD_FULL,
+	
+	/**
+	 * Turned away by a fail fast rate limiter.
+	 */
+	RATE_LIMITED,
+	
+	/**
+	 * The response body was larger than the closure is willing to read.
+	 */
+	RESPONSE_TOO_LARGE,
+	
+	/**
+	 * Couldn't resolve or connect to the host.
+	 */
+	CONNECT,
+	
+	/**
+	 * Any other I/O failure, like a connection reset mid response.
+	 */
+	IO,
+	
+	/**
+	 * Anything else, like an exception thrown while processing a response.
+	 */
+	OTHER;
+	
+	/**
+	 * Classifies a failure by its cause, if any.  No cause means the
+	 * response itself was the failure.
+	 */
+	public static FailureType of(final Exception cause) {
+		if(cause == null) {
+			return STATUS;
+		} else if(cause instanceof RequestTimeoutException) {
+			return TIMEOUT;
+		} else if(cause instanceof CircuitOpenException) {
+			return CIRCUIT_OPEN;
+		} else if(cause instanceof BulkheadFullException) {
+			return BULKHEAD_FULL;
+		} else if(cause instanceof RateLimitedException) {
+			return RATE_LIMITED;
+		} else if(cause instanceof ResponseTooLargeException) {
+			return RESPONSE_TOO_LARGE;
+		} else if(cause instanceof ConnectionPoolTimeoutException) {
+			// Before connect timeouts, which pool timeouts extend.
+			return LEASE_EXHAUSTED;
+		} else if(cause instanceof RequestAbortedException) {
+			return ABORTED;
+		} else if(cause instanceof SocketTimeoutException ||
+			cause instanceof ConnectTimeoutException) {
+			return TIMEOUT;
+		} else if(cause instanceof ConnectException ||
+			cause instanceof NoRouteToHostException ||
+			cause instanceof UnknownHostException) {
+			return CONNECT;
+		} else if(cause instanceof IOException) {
+			return IO;
+		}
+		return OTHER;
+	}
+	
+}
@@ -29,15 +29,26 @@ package com.kolich.http.common.response;
 import org.apache.http.HttpResponse;
 import org.apache.http.protocol.HttpContext;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
 public final class HttpFailure extends HttpClientClosureResponse {
 	
 	private final Exception cause_;
+	private final FailureType type_;
 	
 	public HttpFailure(final Exception cause,
                        final HttpResponse response,
-                       final HttpContext context) {
+                       final HttpContext context,
+                       final FailureType type) {
 		super(response, context);
 		cause_ = cause;
+		type_ = checkNotNull(type, "Failure type cannot be null.");
+	}
+	
+	public HttpFailure(final Exception cause,
+                       final HttpResponse response,
+                       final HttpContext context) {
+		this(cause, response, context, FailureType.of(cause));
 	}
 	
 	public HttpFailure(final HttpResponse response,
@@ -53,4 +64,11 @@ public final class HttpFailure extends HttpClientClosureResponse {
 		return cause_;
 	}
 	
+	/**
+	 * What kind of failure this is, without having to look at the cause.
+	 */
+	public FailureType getType() {
+		return type_;
+	}
+	
 }
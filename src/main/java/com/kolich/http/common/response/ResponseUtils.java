@@ -30,8 +30,11 @@ import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 
 import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
 
 import static org.apache.commons.io.IOUtils.closeQuietly;
+import static org.apache.commons.io.IOUtils.skip;
 import static org.apache.http.util.EntityUtils.consumeQuietly;
 
 public final class ResponseUtils {
@@ -59,4 +62,45 @@ public final class ResponseUtils {
         }
 	}
 
+	/**
+	 * Like {@link #consumeResponseQuietly(HttpResponse)}, but returns the
+	 * number of response body bytes that were left, and drained, or zero if
+	 * there were none or they couldn't be read.
+	 */
+	public static final long drainResponseQuietly(final HttpResponse response) {
+		long drained = 0L;
+		if(response != null) {
+			final HttpEntity entity = response.getEntity();
+			if(entity != null && entity.isStreaming()) {
+				try {
+					final InputStream is = entity.getContent();
+					if(is != null) {
+						drained = skip(is, Long.MAX_VALUE);
+					}
+				} catch (IOException e) {
+					// Already closed, or the connection went away.
+				}
+			}
+			consumeResponseQuietly(response);
+		}
+		return drained;
+	}
+
+	/**
+	 * Quietly aborts the provided {@link HttpResponse}, without consuming
+	 * (draining) what's left of its entity.  The underlying connection, if
+	 * any, is closed instead of being returned to the pool for reuse.  This is
+	 * the right thing to do when walking away from a large, or unbounded,
+	 * response partway through.  Any later call to
+	 * {@link #consumeResponseQuietly(HttpResponse)} is then harmless.
+	 */
+	public static final void abortResponseQuietly(final HttpResponse response) {
+		// Closing a response from HttpClient (or from any other transport)
+		// shuts down its connection; it's only consuming the entity that
+		// drains the stream.
+		if(response instanceof Closeable) {
+			closeQuietly(((Closeable)response));
+		}
+	}
+
 }
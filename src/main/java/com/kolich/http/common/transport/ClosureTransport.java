@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.transport;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+
+/**
+ * The thing that actually sends a request "over the wire" on behalf of a
+ * closure.  Implementations must be thread-safe, must honor
+ * {@link HttpRequestBase#abort()} (which is how request timeouts are
+ * enforced) and must hand back a response whose entity, if any, can be
+ * consumed exactly once to release any underlying connection.
+ */
+public interface ClosureTransport {
+
+    public HttpResponse execute(final HttpRequestBase request,
+                                final HttpContext context) throws IOException;
+
+    /**
+     * Settles where the request will be sent, ahead of {@link #execute},
+     * such that the closure's rate limiter and bulkhead see the host it's
+     * actually going to; like a load balancing transport choosing an
+     * endpoint and rewriting the request URI.  Does nothing by default.
+     */
+    public default void resolve(final HttpRequestBase request,
+                                final HttpContext context) throws IOException {
+        // Nothing to resolve.
+    }
+
+}
@@ -0,0 +1,416 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.transport;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.http.HttpHost;
+import org.apache.http.protocol.HttpContext;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.lang.Double.doubleToRawLongBits;
+import static java.lang.Double.longBitsToDouble;
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * A set of interchangeable hosts, replicas of the same service, that a
+ * {@link LoadBalancingTransport} spreads requests over.  Each endpoint
+ * tracks its requests in flight and an exponentially weighted moving
+ * average (EWMA) of its latency, lock free, which drive the choice of
+ * endpoint for every request.
+ *
+ * An endpoint whose requests fail a number of times in a row, either with
+ * an exception or by failing the closure's
+ * {@link com.kolich.http.common.HttpClient4ClosureBase#check} method, is
+ * ejected for a while.  Once that time is up it's put back into rotation;
+ * the next success reinstates it fully, the next failure ejects it again.
+ * If every endpoint is ejected, all of them are used anyways; unless the
+ * group is set to fail fast, in which case requests fail right away with a
+ * {@link com.kolich.http.common.exceptions.CircuitOpenException} until the
+ * first endpoint is back in rotation.
+ */
+public final class EndpointGroup {
+
+    public static enum Selection {
+        /**
+         * Pick the endpoint with the fewest requests in flight, breaking
+         * ties by latency.  Looks at every endpoint, every time.
+         */
+        LEAST_OUTSTANDING,
+        /**
+         * Pick two endpoints at random, then use the one with the lower
+         * (requests in flight + 1) &times; latency.  Nearly as good as
+         * looking at every endpoint, and cheaper with many of them.
+         */
+        POWER_OF_TWO_CHOICES;
+    }
+
+    public static final int DEFAULT_EJECT_AFTER_FAILURES = 3;
+    public static final long DEFAULT_EJECTION_MS = 30000L; // 30 seconds
+
+    /**
+     * The weight given to each new latency sample.
+     */
+    private static final double EWMA_ALPHA = 0.2d;
+
+    private final List<Endpoint> endpoints_;
+    private final Selection selection_;
+
+    private volatile int ejectAfterFailures_ = DEFAULT_EJECT_AFTER_FAILURES;
+    private volatile long ejectionNanos_ = MILLISECONDS.toNanos(DEFAULT_EJECTION_MS);
+    private volatile boolean failFast_ = false;
+
+    public EndpointGroup(final Selection selection,
+                         final List<HttpHost> hosts) {
+        selection_ = checkNotNull(selection, "Selection cannot be null.");
+        checkNotNull(hosts, "Hosts cannot be null.");
+        checkArgument(!hosts.isEmpty(), "Endpoint group needs at least one host.");
+        final ImmutableList.Builder<Endpoint> endpoints = ImmutableList.builder();
+        for(final HttpHost host : hosts) {
+            endpoints.add(new Endpoint(checkNotNull(host, "Host cannot be null.")));
+        }
+        endpoints_ = endpoints.build();
+    }
+
+    public EndpointGroup(final Selection selection,
+                         final HttpHost... hosts) {
+        this(selection, ImmutableList.copyOf(hosts));
+    }
+
+    public EndpointGroup(final HttpHost... hosts) {
+        this(Selection.POWER_OF_TWO_CHOICES, hosts);
+    }
+
+    /**
+     * Eject an endpoint after this many failed requests in a row.
+     */
+    public EndpointGroup setEjectAfterFailures(final int ejectAfterFailures) {
+        checkArgument(ejectAfterFailures > 0, "Eject after failures must be greater than zero.");
+        ejectAfterFailures_ = ejectAfterFailures;
+        return this;
+    }
+
+    /**
+     * How long an ejected endpoint is left out of rotation.
+     */
+    public EndpointGroup setEjectionMs(final long ejectionMs) {
+        checkArgument(ejectionMs >= 0L, "Ejection milliseconds must be >= 0L.");
+        ejectionNanos_ = MILLISECONDS.toNanos(ejectionMs);
+        return this;
+    }
+
+    /**
+     * Fail requests, rather than send them anyways, while every endpoint
+     * is ejected.
+     */
+    public EndpointGroup setFailFast(final boolean failFast) {
+        failFast_ = failFast;
+        return this;
+    }
+
+    public Selection getSelection() {
+        return selection_;
+    }
+
+    public List<Endpoint> getEndpoints() {
+        return endpoints_;
+    }
+
+    /**
+     * Chooses the endpoint for the next request, or null if every endpoint
+     * is ejected and the group fails fast.
+     */
+    Endpoint select() {
+        final int size = endpoints_.size();
+        if(size == 1) {
+            final Endpoint only = endpoints_.get(0);
+            return (failFast_ && only.isEjected(nanoTime())) ? null : only;
+        }
+        final long now = nanoTime();
+        Endpoint chosen = select(now, false);
+        if(chosen == null && !failFast_) {
+            // Everything is ejected, better to try anyways than fail.
+            chosen = select(now, true);
+        }
+        return chosen;
+    }
+
+    /**
+     * Milliseconds until the first ejected endpoint is back in rotation,
+     * or zero if one already is.
+     */
+    long getNextReinstatedMs() {
+        final long now = nanoTime();
+        long next = Long.MAX_VALUE;
+        for(final Endpoint e : endpoints_) {
+            next = Math.min(next, e.ejectedUntilNanos_ - now);
+        }
+        return Math.max(0L, NANOSECONDS.toMillis(next));
+    }
+
+    private Endpoint select(final long now,
+                            final boolean includeEjected) {
+        final int size = endpoints_.size();
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        if(selection_ == Selection.POWER_OF_TWO_CHOICES) {
+            // Two distinct random picks; fall back to a scan when the
+            // picks land on ejected endpoints.
+            final int i = random.nextInt(size);
+            final int j = (i + 1 + random.nextInt(size - 1)) % size;
+            final Endpoint a = endpoints_.get(i), b = endpoints_.get(j);
+            final boolean useA = includeEjected || !a.isEjected(now);
+            final boolean useB = includeEjected || !b.isEjected(now);
+            if(useA && useB) {
+                return (b.getScore() < a.getScore()) ? b : a;
+            } else if(useA || useB) {
+                return useA ? a : b;
+            }
+        }
+        // Least outstanding, starting from a random endpoint such that
+        // ties don't all go to the first one.
+        final int start = random.nextInt(size);
+        Endpoint chosen = null;
+        for(int k = 0; k < size; k++) {
+            final Endpoint e = endpoints_.get((start + k) % size);
+            if(!includeEjected && e.isEjected(now)) {
+                continue;
+            }
+            if(chosen == null || e.inFlight_.get() < chosen.inFlight_.get() ||
+                (e.inFlight_.get() == chosen.inFlight_.get() &&
+                    e.getLatencyNanos() < chosen.getLatencyNanos())) {
+                chosen = e;
+            }
+        }
+        return chosen;
+    }
+
+    /**
+     * Chooses the endpoint for the next request, like {@link #select()},
+     * or null.  The request doesn't count against the endpoint until it's
+     * started.
+     */
+    Call choose() {
+        final Endpoint endpoint = select();
+        return (endpoint != null) ? new Call(endpoint) : null;
+    }
+
+    /**
+     * Finishes the request to an endpoint, if any, recorded in the given
+     * context by a {@link LoadBalancingTransport}.  Called by the closure
+     * once the response has been checked and consumed.  Also forgets an
+     * endpoint chosen for a request that was turned away before it was
+     * sent.
+     */
+    public static void complete(final HttpContext context,
+                                final boolean success) {
+        if(context == null) {
+            return;
+        }
+        context.removeAttribute(LoadBalancingTransport.ENDPOINT_ATTRIBUTE);
+        final Object call = context.removeAttribute(LoadBalancingTransport.ENDPOINT_CALL_ATTRIBUTE);
+        if(call instanceof Call) {
+            ((Call)call).complete(success);
+        }
+    }
+
+    /**
+     * Counts a failure against the endpoint chosen for a request that was
+     * then turned away before it was sent, because of that endpoint; like
+     * when rate limited by it.  Otherwise an endpoint that asked for a
+     * break would keep being chosen, and its requests turned away, while
+     * the others sit idle.
+     */
+    public static void reject(final HttpContext context) {
+        final Object call = (context != null) ?
+            context.removeAttribute(LoadBalancingTransport.ENDPOINT_ATTRIBUTE) : null;
+        if(call instanceof Call) {
+            ((Call)call).reject();
+        }
+    }
+
+    /**
+     * One request against an endpoint, from when the endpoint is chosen.
+     */
+    final class Call {
+
+        private final Endpoint endpoint_;
+        private final AtomicBoolean completed_ = new AtomicBoolean();
+
+        private long startNanos_;
+
+        private Call(final Endpoint endpoint) {
+            endpoint_ = endpoint;
+        }
+
+        Endpoint getEndpoint() {
+            return endpoint_;
+        }
+
+        /**
+         * The request is being sent, it's in flight until completed.
+         */
+        void start() {
+            endpoint_.inFlight_.incrementAndGet();
+            endpoint_.requests_.incrementAndGet();
+            startNanos_ = nanoTime();
+        }
+
+        void complete(final boolean success) {
+            if(!completed_.compareAndSet(false, true)) {
+                return;
+            }
+            final long now = nanoTime();
+            final Endpoint e = endpoint_;
+            e.inFlight_.decrementAndGet();
+            e.updateLatency(now - startNanos_);
+            if(success) {
+                e.consecutiveFailures_.set(0);
+                e.ejectedUntilNanos_ = 0L;
+            } else {
+                fail(now);
+            }
+        }
+
+        /**
+         * The request was turned away before it was started; a failure,
+         * but not one with a latency or a request in flight to undo.
+         */
+        void reject() {
+            if(completed_.compareAndSet(false, true)) {
+                fail(nanoTime());
+            }
+        }
+
+        private void fail(final long now) {
+            final Endpoint e = endpoint_;
+            e.failures_.incrementAndGet();
+            if(e.consecutiveFailures_.incrementAndGet() >= ejectAfterFailures_ &&
+                !e.isEjected(now)) {
+                e.ejectedUntilNanos_ = now + ejectionNanos_;
+                e.ejections_.incrementAndGet();
+            }
+        }
+
+    }
+
+    public static final class Endpoint {
+
+        private final HttpHost host_;
+
+        private final AtomicInteger inFlight_ = new AtomicInteger();
+        private final AtomicLong requests_ = new AtomicLong();
+        private final AtomicLong failures_ = new AtomicLong();
+        private final AtomicLong ejections_ = new AtomicLong();
+        private final AtomicInteger consecutiveFailures_ = new AtomicInteger();
+
+        /**
+         * The latency EWMA in nanoseconds, as the raw bits of a double.
+         */
+        private final AtomicLong latencyBits_ = new AtomicLong(doubleToRawLongBits(0.0d));
+
+        /**
+         * Zero if not ejected.
+         */
+        private volatile long ejectedUntilNanos_ = 0L;
+
+        private Endpoint(final HttpHost host) {
+            host_ = host;
+        }
+
+        public HttpHost getHost() {
+            return host_;
+        }
+
+        public int getInFlight() {
+            return inFlight_.get();
+        }
+
+        public long getRequests() {
+            return requests_.get();
+        }
+
+        public long getFailures() {
+            return failures_.get();
+        }
+
+        public long getEjections() {
+            return ejections_.get();
+        }
+
+        public double getLatencyMs() {
+            return getLatencyNanos() / NANOSECONDS.convert(1L, MILLISECONDS);
+        }
+
+        public boolean isEjected() {
+            return isEjected(nanoTime());
+        }
+
+        private boolean isEjected(final long now) {
+            final long until = ejectedUntilNanos_;
+            return until != 0L && now - until < 0L;
+        }
+
+        private double getLatencyNanos() {
+            return longBitsToDouble(latencyBits_.get());
+        }
+
+        /**
+         * Endpoints that haven't seen a request yet score zero, so they get
+         * tried right away.
+         */
+        private double getScore() {
+            return (inFlight_.get() + 1) * getLatencyNanos();
+        }
+
+        private void updateLatency(final long sampleNanos) {
+            long prev, next;
+            do {
+                prev = latencyBits_.get();
+                final double ewma = longBitsToDouble(prev);
+                next = doubleToRawLongBits((ewma == 0.0d) ? sampleNanos :
+                    ewma + EWMA_ALPHA * (sampleNanos - ewma));
+            } while(!latencyBits_.compareAndSet(prev, next));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[inFlight=%d, latencyMs=%.2f, requests=%d, " +
+                "failures=%d, ejected=%s]", host_.toHostString(), getInFlight(),
+                getLatencyMs(), getRequests(), getFailures(), isEjected());
+        }
+
+    }
+
+}
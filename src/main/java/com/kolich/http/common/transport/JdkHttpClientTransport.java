@@ -0,0 +1,308 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.transport;
+
+import com.google.common.collect.ImmutableSet;
+import com.kolich.http.common.exceptions.EntityWriterException;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+import org.apache.http.impl.execchain.RequestAbortedException;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.UncheckedIOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.apache.commons.io.IOUtils.closeQuietly;
+import static org.apache.http.HttpHeaders.CONTENT_ENCODING;
+import static org.apache.http.HttpHeaders.CONTENT_LENGTH;
+import static org.apache.http.HttpHeaders.CONTENT_TYPE;
+import static org.apache.http.HttpStatus.SC_NOT_MODIFIED;
+import static org.apache.http.HttpStatus.SC_NO_CONTENT;
+
+/**
+ * A {@link ClosureTransport} backed by the JDK {@link HttpClient}, which
+ * negotiates HTTP/2 where the server supports it (ALPN over TLS, or an h2c
+ * upgrade in the clear) and then multiplexes concurrent requests to the same
+ * origin over a single connection.  Requests and responses are adapted to and
+ * from their Apache HttpClient 4 equivalents, so closures work unchanged on
+ * top of this transport.
+ *
+ * Note that the {@link org.apache.http.client.config.RequestConfig} attached
+ * to a request, if any, is ignored here.  Use the closure request timeout,
+ * and configure connect timeouts on the JDK {@link HttpClient} itself.
+ */
+public final class JdkHttpClientTransport implements ClosureTransport {
+
+    private static final ProtocolVersion HTTP_2 = new ProtocolVersion("HTTP", 2, 0);
+
+    private static final int PIPE_BUFFER_SIZE = 8192;
+
+    private static final String PIPE_WRITER_THREAD_NAME =
+        "kolich-httpclient4-closure-jdk-transport-writer";
+
+    /**
+     * Headers the JDK {@link HttpClient} refuses to let callers set, because
+     * it manages them itself.
+     */
+    private static final Set<String> RESTRICTED_HEADERS = ImmutableSet.of(
+        "connection", "content-length", "date", "expect", "from", "host",
+        "keep-alive", "te", "trailer", "transfer-encoding", "upgrade", "via",
+        "warning");
+
+    private final HttpClient client_;
+
+    public JdkHttpClientTransport(final HttpClient client) {
+        client_ = checkNotNull(client, "HttpClient cannot be null.");
+    }
+
+    public JdkHttpClientTransport() {
+        this(HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build());
+    }
+
+    @Override
+    public HttpResponse execute(final HttpRequestBase request,
+                                final HttpContext context) throws IOException {
+        if(request.isAborted()) {
+            throw new RequestAbortedException("Request aborted");
+        }
+        final CompletableFuture<java.net.http.HttpResponse<InputStream>> future =
+            client_.sendAsync(toJdkRequest(request), BodyHandlers.ofInputStream());
+        // Any call to abort(), like from the closure timeout manager, cancels
+        // the in-flight exchange.
+        request.setCancellable(() -> future.cancel(true));
+        if(request.isAborted()) {
+            future.cancel(true);
+        }
+        final java.net.http.HttpResponse<InputStream> response;
+        try {
+            response = future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for response.");
+        } catch (CancellationException e) {
+            throw new RequestAbortedException("Request aborted", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if(cause instanceof IOException) {
+                throw (IOException)cause;
+            } else if(cause instanceof UncheckedIOException) {
+                // Like a failure reading the request body.
+                throw ((UncheckedIOException)cause).getCause();
+            }
+            throw new IOException("Request execution failed.", cause);
+        }
+        final InputStream body = response.body();
+        // Once the response has arrived, aborting means forcibly closing the
+        // body stream which resets the underlying stream/connection.
+        request.setCancellable(() -> {
+            closeQuietly(body);
+            return true;
+        });
+        if(request.isAborted()) {
+            closeQuietly(body);
+        }
+        return toHttpResponse(request, response, body);
+    }
+
+    public HttpClient getClient() {
+        return client_;
+    }
+
+    private static HttpRequest toJdkRequest(final HttpRequestBase request) {
+        final HttpRequest.Builder builder = HttpRequest.newBuilder(request.getURI());
+        for(final Header header : request.getAllHeaders()) {
+            if(!RESTRICTED_HEADERS.contains(header.getName().toLowerCase(Locale.ROOT))) {
+                builder.header(header.getName(), header.getValue());
+            }
+        }
+        BodyPublisher publisher = BodyPublishers.noBody();
+        if(request instanceof HttpEntityEnclosingRequest) {
+            final HttpEntity entity = ((HttpEntityEnclosingRequest)request).getEntity();
+            if(entity != null) {
+                // The Apache client normally copies these from the entity
+                // on its way out the door; do the same here.
+                if(entity.getContentType() != null && !request.containsHeader(CONTENT_TYPE)) {
+                    builder.header(CONTENT_TYPE, entity.getContentType().getValue());
+                }
+                if(entity.getContentEncoding() != null && !request.containsHeader(CONTENT_ENCODING)) {
+                    builder.header(CONTENT_ENCODING, entity.getContentEncoding().getValue());
+                }
+                publisher = toBodyPublisher(entity);
+            }
+        }
+        return builder.method(request.getMethod(), publisher).build();
+    }
+
+    private static BodyPublisher toBodyPublisher(final HttpEntity entity) {
+        final long length = entity.getContentLength();
+        if(length == 0L) {
+            return BodyPublishers.noBody();
+        }
+        final BodyPublisher publisher = BodyPublishers.ofInputStream(() -> getContent(entity));
+        return (length > 0L) ? BodyPublishers.fromPublisher(publisher, length) : publisher;
+    }
+
+    private static InputStream getContent(final HttpEntity entity) {
+        try {
+            return entity.getContent();
+        } catch (UnsupportedOperationException e) {
+            // Entities that can only write themselves out, like an
+            // EntityTemplate, are piped through on a dedicated thread.
+            return pipe(entity);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static InputStream pipe(final HttpEntity entity) {
+        try {
+            final WriterPipeInputStream in = new WriterPipeInputStream(
+                new PipedInputStream(PIPE_BUFFER_SIZE));
+            final PipedOutputStream out = new PipedOutputStream(in.pipe_);
+            final Thread writer = new Thread(() -> {
+                try {
+                    entity.writeTo(out);
+                } catch (IOException e) {
+                    in.failure_ = e;
+                } catch (RuntimeException e) {
+                    in.failure_ = new EntityWriterException(e);
+                } finally {
+                    // The reader sees the end of the pipe, and then the
+                    // writer failure if any, instead of a silently
+                    // truncated body.
+                    closeQuietly(out);
+                }
+            }, PIPE_WRITER_THREAD_NAME);
+            writer.setDaemon(true);
+            writer.start();
+            return in;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The read end of a pipe fed by an entity writeTo on another thread.
+     * If writing failed, reading ends in that failure rather than an EOF.
+     */
+    private static final class WriterPipeInputStream extends FilterInputStream {
+        private final PipedInputStream pipe_;
+        private volatile IOException failure_ = null;
+        private WriterPipeInputStream(final PipedInputStream pipe) {
+            super(pipe);
+            pipe_ = pipe;
+        }
+        @Override
+        public int read() throws IOException {
+            return checkFailure(super.read());
+        }
+        @Override
+        public int read(final byte[] b,
+                        final int off,
+                        final int len) throws IOException {
+            return checkFailure(super.read(b, off, len));
+        }
+        private int checkFailure(final int read) throws IOException {
+            final IOException failure = failure_;
+            if(read == -1 && failure != null) {
+                throw failure;
+            }
+            return read;
+        }
+    }
+
+    private static HttpResponse toHttpResponse(final HttpRequestBase request,
+                                               final java.net.http.HttpResponse<InputStream> response,
+                                               final InputStream body) {
+        final int status = response.statusCode();
+        final ProtocolVersion version = (response.version() == HttpClient.Version.HTTP_2) ?
+            HTTP_2 : HttpVersion.HTTP_1_1;
+        final JdkHttpResponse result = new JdkHttpResponse(new BasicStatusLine(version, status,
+            EnglishReasonPhraseCatalog.INSTANCE.getReason(status, null)), body);
+        response.headers().map().forEach((name, values) -> {
+            // Skip any HTTP/2 pseudo-headers, like ":status".
+            if(!name.startsWith(":")) {
+                values.forEach(value -> result.addHeader(name, value));
+            }
+        });
+        if("HEAD".equals(request.getMethod()) || status == SC_NO_CONTENT || status == SC_NOT_MODIFIED) {
+            // No entity, just like the Apache client.
+            closeQuietly(body);
+        } else {
+            final InputStreamEntity entity = new InputStreamEntity(body,
+                response.headers().firstValueAsLong(CONTENT_LENGTH).orElse(-1L));
+            entity.setContentType(result.getFirstHeader(CONTENT_TYPE));
+            entity.setContentEncoding(result.getFirstHeader(CONTENT_ENCODING));
+            result.setEntity(entity);
+        }
+        return result;
+    }
+
+    private static final class JdkHttpResponse extends BasicHttpResponse implements Closeable {
+        private final InputStream body_;
+        private JdkHttpResponse(final BasicStatusLine statusLine,
+                                final InputStream body) {
+            super(statusLine);
+            body_ = body;
+        }
+        @Override
+        public void close() throws IOException {
+            body_.close();
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.common.transport;
+
+import com.kolich.http.common.exceptions.CircuitOpenException;
+import com.kolich.http.common.transport.EndpointGroup.Call;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A {@link ClosureTransport} that sends each request to one of the hosts
+ * in an {@link EndpointGroup}, on top of another transport.  Requests are
+ * "logical"; the scheme, host and port of the request URI, if any, are
+ * replaced with those of the chosen endpoint, so relative URIs like
+ * <code>/api/foo</code> work just fine.
+ *
+ * The endpoint is chosen when the closure resolves the request, before
+ * its rate limiter and bulkhead, such that those limit each endpoint
+ * rather than the logical service as a whole.  The closure reports when
+ * each request is done, once its response has been checked and consumed,
+ * so requests in flight and latency cover the whole exchange.
+ */
+public final class LoadBalancingTransport implements ClosureTransport {
+
+    /**
+     * The {@link HttpContext} attribute holding the request in flight
+     * against the chosen endpoint, until the closure is done with it.
+     */
+    static final String ENDPOINT_CALL_ATTRIBUTE = "com.kolich.http.endpoint-call";
+
+    /**
+     * The {@link HttpContext} attribute holding the endpoint chosen for
+     * the request by {@link #resolve}, until it's executed.
+     */
+    static final String ENDPOINT_ATTRIBUTE = "com.kolich.http.endpoint";
+
+    private final ClosureTransport transport_;
+    private final EndpointGroup group_;
+
+    public LoadBalancingTransport(final ClosureTransport transport,
+                                  final EndpointGroup group) {
+        transport_ = checkNotNull(transport, "Transport cannot be null.");
+        group_ = checkNotNull(group, "Endpoint group cannot be null.");
+    }
+
+    /**
+     * Chooses the endpoint for the request and points the request URI at
+     * it, unless that's already been done.  The endpoint is only counted as
+     * having a request in flight once the request is executed, such that a
+     * request turned away before then doesn't count against it.
+     */
+    @Override
+    public void resolve(final HttpRequestBase request,
+                        final HttpContext context) throws IOException {
+        if(context.getAttribute(ENDPOINT_ATTRIBUTE) instanceof Call) {
+            return;
+        }
+        final Call call = group_.choose();
+        if(call == null) {
+            throw new CircuitOpenException(group_.getNextReinstatedMs());
+        }
+        try {
+            request.setURI(URIUtils.rewriteURI(request.getURI(),
+                call.getEndpoint().getHost()));
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid request URI: " + request.getURI(), e);
+        }
+        context.setAttribute(ENDPOINT_ATTRIBUTE, call);
+        transport_.resolve(request, context);
+    }
+
+    @Override
+    public HttpResponse execute(final HttpRequestBase request,
+                                final HttpContext context) throws IOException {
+        // Resolved already by the closure, usually.
+        resolve(request, context);
+        final Call call = (Call)context.removeAttribute(ENDPOINT_ATTRIBUTE);
+        call.start();
+        boolean executed = false;
+        try {
+            context.setAttribute(ENDPOINT_CALL_ATTRIBUTE, call);
+            final HttpResponse response = transport_.execute(request, context);
+            executed = true;
+            return response;
+        } finally {
+            if(!executed) {
+                context.removeAttribute(ENDPOINT_CALL_ATTRIBUTE);
+                call.complete(false);
+            }
+        }
+    }
+
+    public EndpointGroup getEndpointGroup() {
+        return group_;
+    }
+
+}
@@ -26,11 +26,12 @@
 
 package com.kolich.http.helpers;
 
+import com.kolich.http.common.entity.EntityDecoding;
 import com.kolich.http.common.response.HttpSuccess;
+import com.kolich.http.common.transport.ClosureTransport;
 import com.kolich.http.helpers.definitions.OrHttpFailureClosure;
 import com.kolich.http.helpers.definitions.OrNullClosure;
 import org.apache.http.client.HttpClient;
-import org.apache.http.util.EntityUtils;
 
 public final class ByteArrayClosures {
 	
@@ -38,6 +39,9 @@ public final class ByteArrayClosures {
 	private ByteArrayClosures() {}
 	
 	public static class ByteArrayOrHttpFailureClosure extends OrHttpFailureClosure<byte[]> {		
+		public ByteArrayOrHttpFailureClosure(final ClosureTransport transport) {
+			super(transport);
+		}
 		public ByteArrayOrHttpFailureClosure(final HttpClient client) {
 			super(client);
 		}
@@ -46,11 +50,14 @@ public final class ByteArrayClosures {
 		}
 		@Override
 		public final byte[] success(final HttpSuccess success) throws Exception {
-			return EntityUtils.toByteArray(success.getResponse().getEntity());
+			return EntityDecoding.toByteArray(getLimitedEntity(success));
 		}
 	}
 	
 	public static class ByteArrayOrNullClosure extends OrNullClosure<byte[]> {		
+		public ByteArrayOrNullClosure(final ClosureTransport transport) {
+			super(transport);
+		}
 		public ByteArrayOrNullClosure(final HttpClient client) {
 			super(client);
 		}
@@ -59,7 +66,7 @@ public final class ByteArrayClosures {
 		}
 		@Override
 		public final byte[] success(final HttpSuccess success) throws Exception {
-			return EntityUtils.toByteArray(success.getResponse().getEntity());
+			return EntityDecoding.toByteArray(getLimitedEntity(success));
 		}
 	}
 	
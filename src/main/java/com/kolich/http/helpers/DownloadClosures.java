@@ -0,0 +1,781 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.helpers;
+
+import com.kolich.common.functional.either.Either;
+import com.kolich.common.functional.either.Left;
+import com.kolich.common.functional.either.Right;
+import com.kolich.http.common.response.HttpFailure;
+import com.kolich.http.common.response.HttpSuccess;
+import com.kolich.http.common.transport.ClosureTransport;
+import com.kolich.http.common.transport.HttpClient4Transport;
+import com.kolich.http.helpers.definitions.OrHttpFailureClosure;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.kolich.http.HttpClient4ClosureBuilder.Factory.getNewInstanceWithProxySelector;
+import static com.kolich.http.common.response.ResponseUtils.abortResponseQuietly;
+import static java.lang.System.nanoTime;
+import static java.net.URI.create;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.apache.commons.io.IOUtils.closeQuietly;
+import static org.apache.http.HttpHeaders.ACCEPT_ENCODING;
+import static org.apache.http.HttpHeaders.ACCEPT_RANGES;
+import static org.apache.http.HttpHeaders.CONTENT_LENGTH;
+import static org.apache.http.HttpHeaders.CONTENT_RANGE;
+import static org.apache.http.HttpHeaders.IF_RANGE;
+import static org.apache.http.HttpHeaders.LAST_MODIFIED;
+import static org.apache.http.HttpHeaders.RANGE;
+import static org.apache.http.HttpStatus.SC_PARTIAL_CONTENT;
+import static org.apache.http.HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE;
+
+/**
+ * Closures that download a response entity straight to a file; in parallel
+ * segments, or resumably.
+ */
+public final class DownloadClosures {
+
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+	private static final String IDENTITY = "identity";
+
+	// Cannot instantiate.
+	private DownloadClosures() {}
+
+	/**
+	 * Downloads an object as several byte ranges, fetched in parallel over
+	 * separate connections, each written to its own offset in the target
+	 * file with positional {@link FileChannel} writes.  A single TCP
+	 * connection is often the bottleneck on fast, long links; several in
+	 * parallel are not.
+	 *
+	 * A HEAD request is sent first to learn the object length, if the server
+	 * supports byte ranges, and a validator for the object (a strong ETag, or
+	 * failing that the Last-Modified date).  If the server doesn't support
+	 * ranges, or there's no validator, or the HEAD fails, or the object is
+	 * small, the object is downloaded as a single stream instead.  Ranged
+	 * requests carry an If-Range of the validator so that an object that
+	 * changes mid download fails the download rather than corrupting the
+	 * file.
+	 *
+	 * Note that the underlying connection pool must allow at least as many
+	 * connections per route as there are segments; otherwise segments wait
+	 * on each other.
+	 */
+	public static class SegmentedDownloadClosure {
+
+		public static final int DEFAULT_SEGMENTS = 4;
+		public static final long DEFAULT_MIN_SEGMENT_BYTES = 1024L * 1024L; // 1MB
+
+		private final ProbeClosure probe_;
+		private final SegmentClosure segment_;
+
+		private int segments_ = DEFAULT_SEGMENTS;
+		private long minSegmentBytes_ = DEFAULT_MIN_SEGMENT_BYTES;
+
+		public SegmentedDownloadClosure(final ClosureTransport transport) {
+			probe_ = new ProbeClosure(transport);
+			segment_ = new SegmentClosure(transport);
+		}
+		public SegmentedDownloadClosure(final HttpClient client) {
+			this(new HttpClient4Transport(client));
+		}
+		public SegmentedDownloadClosure() {
+			this(getNewInstanceWithProxySelector());
+		}
+
+		public SegmentedDownloadClosure setSegments(final int segments) {
+			checkArgument(segments > 0, "Segments must be greater than zero.");
+			segments_ = segments;
+			return this;
+		}
+
+		/**
+		 * Objects are never split into segments smaller than this, so a
+		 * small object is fetched with fewer segments, or just one.
+		 */
+		public SegmentedDownloadClosure setMinSegmentBytes(final long minSegmentBytes) {
+			checkArgument(minSegmentBytes > 0L, "Min segment bytes must be greater than zero.");
+			minSegmentBytes_ = minSegmentBytes;
+			return this;
+		}
+
+		/**
+		 * Sets the request timeout of the HEAD request, and of each segment.
+		 */
+		public SegmentedDownloadClosure timeout(final long requestTimeoutMs) {
+			probe_.timeout(requestTimeoutMs);
+			segment_.timeout(requestTimeoutMs);
+			return this;
+		}
+
+		public Either<HttpFailure,Long> download(final String url,
+			final Path file) {
+			return download(create(url), file);
+		}
+
+		public Either<HttpFailure,Long> download(final URI uri,
+			final Path file) {
+			return download(uri, file, new DownloadProgress());
+		}
+
+		/**
+		 * Downloads to the given file, replacing it if it exists.  The progress
+		 * can be polled from another thread while the download runs.
+		 * @return the number of bytes downloaded, or the first failure
+		 */
+		public Either<HttpFailure,Long> download(final URI uri,
+			final Path file, final DownloadProgress progress) {
+			checkNotNull(uri, "URI cannot be null.");
+			checkNotNull(file, "File cannot be null.");
+			checkNotNull(progress, "Progress cannot be null.");
+			final Either<HttpFailure,Probe> probed = probe_.head(uri);
+			final Probe probe = probed.success() ? probed.right() : null;
+			final List<SegmentProgress> plan = plan(probe);
+			progress.start((probe != null) ? probe.length_ : -1L, plan);
+			try(final FileChannel channel = FileChannel.open(file, CREATE, WRITE,
+				TRUNCATE_EXISTING)) {
+				if(plan.size() == 1) {
+					// Single stream, no Range request.
+					return segment_.get(new SegmentRequest(uri, channel,
+						plan.get(0), false, null));
+				}
+				final List<SegmentRequest> requests = new ArrayList<>(plan.size());
+				for(final SegmentProgress segment : plan) {
+					requests.add(new SegmentRequest(uri, channel, segment, true,
+						probe.validator_));
+				}
+				long total = 0L;
+				for(final Either<HttpFailure,Long> result :
+					segment_.batch(requests, requests.size(), 0L)) {
+					if(!result.success()) {
+						return result;
+					}
+					total += result.right();
+				}
+				return Right.right(total);
+			} catch (IOException e) {
+				return Left.left(new HttpFailure(e));
+			}
+		}
+
+		private List<SegmentProgress> plan(final Probe probe) {
+			// Without a validator, nothing would stop segments of two
+			// versions of a changing object being stitched together.
+			if(probe == null || !probe.acceptsRanges_ || probe.length_ <= 0L ||
+				probe.validator_ == null) {
+				return Collections.singletonList(new SegmentProgress(0, 0L, -1L));
+			}
+			final long length = probe.length_;
+			final int segments = (int)Math.max(1L, Math.min(segments_,
+				length / minSegmentBytes_));
+			if(segments == 1) {
+				return Collections.singletonList(new SegmentProgress(0, 0L, length));
+			}
+			final long size = length / segments;
+			final List<SegmentProgress> plan = new ArrayList<>(segments);
+			for(int i = 0; i < segments; i++) {
+				final long offset = i * size;
+				// The last segment picks up the remainder.
+				plan.add(new SegmentProgress(i, offset,
+					(i == segments - 1) ? length - offset : size));
+			}
+			return plan;
+		}
+
+	}
+
+	/**
+	 * Downloads an object to a file such that an interrupted download can be
+	 * picked up where it left off.  Progress is checkpointed to a small
+	 * sidecar file next to the target, see {@link #getCheckpointFile(Path)},
+	 * holding the number of bytes safely written and the validator (a strong
+	 * ETag, or failing that the Last-Modified date) of the object.
+	 *
+	 * The next attempt sends a Range request for only the missing bytes,
+	 * with an If-Range of the checkpointed validator.  If the object has
+	 * changed since, the server sends it whole instead and the download
+	 * restarts cleanly from zero.  On success, the sidecar file is deleted.
+	 */
+	public static class ResumableDownloadClosure {
+
+		public static final long DEFAULT_CHECKPOINT_BYTES = 4L * 1024L * 1024L; // 4MB
+
+		private static final String CHECKPOINT_SUFFIX = ".download";
+
+		private final ResumeClosure closure_;
+
+		public ResumableDownloadClosure(final ClosureTransport transport) {
+			closure_ = new ResumeClosure(transport);
+		}
+		public ResumableDownloadClosure(final HttpClient client) {
+			this(new HttpClient4Transport(client));
+		}
+		public ResumableDownloadClosure() {
+			this(getNewInstanceWithProxySelector());
+		}
+
+		/**
+		 * How often, in bytes written, progress is checkpointed.  Each
+		 * checkpoint flushes the target file to disk first, such that the
+		 * checkpoint never claims more than was actually written.
+		 */
+		public ResumableDownloadClosure setCheckpointBytes(final long checkpointBytes) {
+			checkArgument(checkpointBytes > 0L, "Checkpoint bytes must be greater than zero.");
+			closure_.checkpointBytes_ = checkpointBytes;
+			return this;
+		}
+
+		public ResumableDownloadClosure timeout(final long requestTimeoutMs) {
+			closure_.timeout(requestTimeoutMs);
+			return this;
+		}
+
+		public static Path getCheckpointFile(final Path file) {
+			return file.resolveSibling(file.getFileName() + CHECKPOINT_SUFFIX);
+		}
+
+		public Either<HttpFailure,Long> download(final String url,
+			final Path file) {
+			return download(create(url), file);
+		}
+
+		/**
+		 * Downloads to the given file, resuming a previous attempt if there's
+		 * a usable checkpoint for it.
+		 * @return the length of the downloaded file, or the failure
+		 */
+		public Either<HttpFailure,Long> download(final URI uri,
+			final Path file) {
+			checkNotNull(uri, "URI cannot be null.");
+			checkNotNull(file, "File cannot be null.");
+			final Path sidecar = getCheckpointFile(file);
+			try {
+				final Checkpoint checkpoint = Checkpoint.load(sidecar);
+				long offset = 0L;
+				if(checkpoint != null && checkpoint.validator_ != null &&
+					checkpoint.uri_.equals(uri.toString()) && Files.exists(file)) {
+					offset = Math.min(checkpoint.bytes_, Files.size(file));
+				}
+				final Either<HttpFailure,Long> result = fetch(uri, file, sidecar, offset,
+					(offset > 0L) ? checkpoint.validator_ : null);
+				if(offset > 0L && !result.success() &&
+					result.left().getStatusCode() == SC_REQUESTED_RANGE_NOT_SATISFIABLE) {
+					// Nothing is missing if the object is exactly as long as what
+					// was already written; the last attempt finished, but died
+					// before cleaning up.  Otherwise, start over.
+					if(getCompleteLength(result.left().getFirstHeader(CONTENT_RANGE)) == offset) {
+						try(final FileChannel channel = FileChannel.open(file, WRITE)) {
+							channel.truncate(offset);
+						}
+						Files.deleteIfExists(sidecar);
+						return Right.right(offset);
+					}
+					return fetch(uri, file, sidecar, 0L, null);
+				}
+				return result;
+			} catch (IOException e) {
+				return Left.left(new HttpFailure(e));
+			}
+		}
+
+		private Either<HttpFailure,Long> fetch(final URI uri, final Path file,
+			final Path sidecar, final long offset, final String validator)
+			throws IOException {
+			try(final FileChannel channel = FileChannel.open(file, CREATE, WRITE)) {
+				return closure_.get(new ResumeRequest(uri, channel, sidecar,
+					offset, validator));
+			}
+		}
+
+		/**
+		 * Parses the complete length out of a "bytes &#42;/length" Content-Range.
+		 */
+		private static long getCompleteLength(final String contentRange) {
+			if(contentRange != null) {
+				final int slash = contentRange.lastIndexOf('/');
+				try {
+					return (slash < 0) ? -1L : Long.parseLong(contentRange.substring(slash + 1).trim());
+				} catch (NumberFormatException e) {
+					// Unknown, "*".
+				}
+			}
+			return -1L;
+		}
+
+	}
+
+	/**
+	 * Live progress of a download, safe to poll from any thread.
+	 */
+	public static final class DownloadProgress {
+
+		private volatile List<SegmentProgress> segments_ = Collections.emptyList();
+		private volatile long length_ = -1L;
+		private volatile long startNanos_ = 0L;
+
+		public DownloadProgress() {}
+
+		void start(final long length, final List<SegmentProgress> segments) {
+			length_ = length;
+			startNanos_ = nanoTime();
+			segments_ = Collections.unmodifiableList(segments);
+		}
+
+		public List<SegmentProgress> getSegments() {
+			return segments_;
+		}
+
+		/**
+		 * The object length, or -1 if unknown.
+		 */
+		public long getLength() {
+			return length_;
+		}
+
+		public long getBytesTransferred() {
+			long transferred = 0L;
+			for(final SegmentProgress segment : segments_) {
+				transferred += segment.getBytesTransferred();
+			}
+			return transferred;
+		}
+
+		/**
+		 * Aggregate throughput across all segments, since the download started.
+		 */
+		public double getBytesPerSecond() {
+			final long start = startNanos_;
+			if(start == 0L) {
+				return 0d;
+			}
+			long end = 0L;
+			boolean done = true;
+			for(final SegmentProgress segment : segments_) {
+				done &= segment.isDone();
+				end = Math.max(end, segment.endNanos_);
+			}
+			return bytesPerSecond(getBytesTransferred(), start,
+				done ? end : nanoTime());
+		}
+
+	}
+
+	/**
+	 * Live progress of a single segment (byte range) of a download.
+	 */
+	public static final class SegmentProgress {
+
+		private final int index_;
+		private final long offset_;
+		private final long length_;
+
+		private final AtomicLong transferred_ = new AtomicLong();
+		private volatile long startNanos_ = 0L;
+		private volatile long endNanos_ = 0L;
+
+		SegmentProgress(final int index, final long offset, final long length) {
+			index_ = index;
+			offset_ = offset;
+			length_ = length;
+		}
+
+		public int getIndex() {
+			return index_;
+		}
+
+		public long getOffset() {
+			return offset_;
+		}
+
+		/**
+		 * The segment length, or -1 if unknown (a single stream download of
+		 * an object of unknown length).
+		 */
+		public long getLength() {
+			return length_;
+		}
+
+		public long getBytesTransferred() {
+			return transferred_.get();
+		}
+
+		public boolean isDone() {
+			return endNanos_ != 0L;
+		}
+
+		/**
+		 * Throughput of this segment alone, since its response started.
+		 */
+		public double getBytesPerSecond() {
+			final long start = startNanos_;
+			if(start == 0L) {
+				return 0d;
+			}
+			final long end = endNanos_;
+			return bytesPerSecond(transferred_.get(), start,
+				(end != 0L) ? end : nanoTime());
+		}
+
+	}
+
+	private static double bytesPerSecond(final long bytes, final long startNanos,
+		final long endNanos) {
+		final long elapsed = endNanos - startNanos;
+		return (elapsed <= 0L) ? 0d : bytes * 1e9d / elapsed;
+	}
+
+	private static String getValidator(final HttpSuccess success) {
+		// If-Range only works with a strong ETag, or a date.
+		final String etag = success.getETag();
+		return (etag != null && !etag.startsWith("W/")) ?
+			etag : success.getFirstHeader(LAST_MODIFIED);
+	}
+
+	/**
+	 * A resumable download checkpoint, stored as a tiny properties file.
+	 */
+	private static final class Checkpoint {
+		private static final String URI_PROPERTY = "uri";
+		private static final String BYTES_PROPERTY = "bytes";
+		private static final String VALIDATOR_PROPERTY = "validator";
+		private final String uri_;
+		private final long bytes_;
+		private final String validator_;
+		private Checkpoint(final String uri, final long bytes,
+			final String validator) {
+			uri_ = uri;
+			bytes_ = bytes;
+			validator_ = validator;
+		}
+		/**
+		 * Returns null if there is no checkpoint, or it's unreadable.
+		 */
+		private static Checkpoint load(final Path sidecar) {
+			if(!Files.isRegularFile(sidecar)) {
+				return null;
+			}
+			final Properties properties = new Properties();
+			try(final Reader reader = Files.newBufferedReader(sidecar, UTF_8)) {
+				properties.load(reader);
+				final String uri = properties.getProperty(URI_PROPERTY);
+				final long bytes = Long.parseLong(properties.getProperty(BYTES_PROPERTY, "-1"));
+				return (uri == null || bytes < 0L) ? null :
+					new Checkpoint(uri, bytes, properties.getProperty(VALIDATOR_PROPERTY));
+			} catch (IOException | IllegalArgumentException e) {
+				return null;
+			}
+		}
+		/**
+		 * Writes to a temporary file first, then moves it into place, such
+		 * that a crash never leaves a half written checkpoint behind.
+		 */
+		private void store(final Path sidecar) throws IOException {
+			final Properties properties = new Properties();
+			properties.setProperty(URI_PROPERTY, uri_);
+			properties.setProperty(BYTES_PROPERTY, Long.toString(bytes_));
+			if(validator_ != null) {
+				properties.setProperty(VALIDATOR_PROPERTY, validator_);
+			}
+			final Path temp = sidecar.resolveSibling(sidecar.getFileName() + ".tmp");
+			try(final Writer writer = Files.newBufferedWriter(temp, UTF_8)) {
+				properties.store(writer, null);
+			}
+			try {
+				Files.move(temp, sidecar, REPLACE_EXISTING, ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, sidecar, REPLACE_EXISTING);
+			}
+		}
+	}
+
+	private static final class ResumeRequest extends HttpGet {
+		private final FileChannel channel_;
+		private final Path sidecar_;
+		private final long offset_;
+		private final String validator_;
+		private ResumeRequest(final URI uri, final FileChannel channel,
+			final Path sidecar, final long offset, final String validator) {
+			super(uri);
+			channel_ = channel;
+			sidecar_ = sidecar;
+			offset_ = offset;
+			validator_ = validator;
+			// The checkpoint counts bytes of the object itself, so the
+			// Range must too; ask for no content encoding.
+			setHeader(ACCEPT_ENCODING, IDENTITY);
+			if(offset > 0L) {
+				setHeader(RANGE, "bytes=" + offset + "-");
+				setHeader(IF_RANGE, validator);
+			}
+		}
+	}
+
+	private static final class ResumeClosure extends OrHttpFailureClosure<Long> {
+		private static final String RESUME_REQUEST_ATTRIBUTE =
+			"com.kolich.http.download.resume-request";
+		private volatile long checkpointBytes_ =
+			ResumableDownloadClosure.DEFAULT_CHECKPOINT_BYTES;
+		private ResumeClosure(final ClosureTransport transport) {
+			super(transport);
+		}
+		@Override
+		public void before(final HttpRequestBase request, final HttpContext context) {
+			context.setAttribute(RESUME_REQUEST_ATTRIBUTE, request);
+		}
+		@Override
+		public Long success(final HttpSuccess success) throws Exception {
+			final ResumeRequest request = (ResumeRequest)success.getContext()
+				.getAttribute(RESUME_REQUEST_ATTRIBUTE);
+			final FileChannel channel = request.channel_;
+			final String uri = request.getURI().toString();
+			final long checkpointBytes = checkpointBytes_;
+			final String validator;
+			long position;
+			if(request.offset_ > 0L && success.getStatusCode() == SC_PARTIAL_CONTENT) {
+				final String contentRange = success.getFirstHeader(CONTENT_RANGE);
+				if(contentRange == null || !contentRange.trim().startsWith(
+					"bytes " + request.offset_ + "-")) {
+					abortResponseQuietly(success.getResponse());
+					throw new IOException("Unexpected Content-Range resuming at " +
+						request.offset_ + ": " + contentRange);
+				}
+				validator = request.validator_;
+				position = request.offset_;
+			} else {
+				// A fresh download, or the object changed since the checkpoint
+				// (a 200 with the whole object, instead of a 206): from zero.
+				validator = getValidator(success);
+				position = 0L;
+				channel.truncate(0L);
+			}
+			long checkpointed = position;
+			new Checkpoint(uri, position, validator).store(request.sidecar_);
+			boolean completed = false;
+			InputStream is = null;
+			try {
+				final HttpEntity entity = success.getEntity();
+				is = (entity != null) ? entity.getContent() : null;
+				if(is != null) {
+					final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+					final ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+					int read;
+					while((read = is.read(buffer)) != -1) {
+						wrapped.clear().limit(read);
+						while(wrapped.hasRemaining()) {
+							position += channel.write(wrapped, position);
+						}
+						if(position - checkpointed >= checkpointBytes) {
+							channel.force(false);
+							new Checkpoint(uri, position, validator).store(request.sidecar_);
+							checkpointed = position;
+						}
+					}
+				}
+				// In case what was on disk before was longer.
+				channel.truncate(position);
+				Files.deleteIfExists(request.sidecar_);
+				completed = true;
+				return position;
+			} finally {
+				if(!completed) {
+					// Save whatever made it to disk for next time.
+					try {
+						channel.force(false);
+						new Checkpoint(uri, position, validator).store(request.sidecar_);
+					} catch (IOException e) {
+						// The last stored checkpoint still stands.
+					}
+					abortResponseQuietly(success.getResponse());
+				}
+				closeQuietly(is);
+			}
+		}
+	}
+
+	private static final class Probe {
+		private final long length_;
+		private final boolean acceptsRanges_;
+		private final String validator_;
+		private Probe(final long length, final boolean acceptsRanges,
+			final String validator) {
+			length_ = length;
+			acceptsRanges_ = acceptsRanges;
+			validator_ = validator;
+		}
+	}
+
+	private static final class ProbeClosure extends OrHttpFailureClosure<Probe> {
+		private ProbeClosure(final ClosureTransport transport) {
+			super(transport);
+		}
+		@Override
+		public void before(final HttpRequestBase request, final HttpContext context) {
+			// The length of the object itself, not of some encoding of it.
+			request.setHeader(ACCEPT_ENCODING, IDENTITY);
+		}
+		@Override
+		public Probe success(final HttpSuccess success) {
+			final String contentLength = success.getFirstHeader(CONTENT_LENGTH);
+			long length = -1L;
+			try {
+				length = (contentLength != null) ? Long.parseLong(contentLength.trim()) : -1L;
+			} catch (NumberFormatException e) {
+				// Unknown length.
+			}
+			final String acceptRanges = success.getFirstHeader(ACCEPT_RANGES);
+			return new Probe(length, acceptRanges != null &&
+				acceptRanges.trim().equalsIgnoreCase("bytes"), getValidator(success));
+		}
+	}
+
+	private static final class SegmentRequest extends HttpGet {
+		private final FileChannel channel_;
+		private final SegmentProgress segment_;
+		private final boolean ranged_;
+		private SegmentRequest(final URI uri, final FileChannel channel,
+			final SegmentProgress segment, final boolean ranged,
+			final String validator) {
+			super(uri);
+			channel_ = channel;
+			segment_ = segment;
+			ranged_ = ranged;
+			// Ranges are of the encoded bytes; ask for none, such that they
+			// line up with the bytes written to the file.
+			setHeader(ACCEPT_ENCODING, IDENTITY);
+			if(ranged) {
+				setHeader(RANGE, "bytes=" + segment.offset_ + "-" +
+					(segment.offset_ + segment.length_ - 1L));
+				setHeader(IF_RANGE, validator);
+			}
+		}
+	}
+
+	private static final class SegmentClosure extends OrHttpFailureClosure<Long> {
+		private static final String SEGMENT_REQUEST_ATTRIBUTE =
+			"com.kolich.http.download.segment-request";
+		private SegmentClosure(final ClosureTransport transport) {
+			super(transport);
+		}
+		@Override
+		public void before(final HttpRequestBase request, final HttpContext context) {
+			// Segments run concurrently through this one closure; keep track
+			// of which one a response belongs to in its own context.
+			context.setAttribute(SEGMENT_REQUEST_ATTRIBUTE, request);
+		}
+		@Override
+		public Long success(final HttpSuccess success) throws Exception {
+			final SegmentRequest request = (SegmentRequest)success.getContext()
+				.getAttribute(SEGMENT_REQUEST_ATTRIBUTE);
+			final SegmentProgress segment = request.segment_;
+			segment.startNanos_ = nanoTime();
+			boolean completed = false;
+			InputStream is = null;
+			try {
+				if(request.ranged_) {
+					checkContentRange(success, segment);
+				}
+				final HttpEntity entity = success.getEntity();
+				is = (entity != null) ? entity.getContent() : null;
+				long position = segment.offset_;
+				if(is != null) {
+					final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+					final ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+					int read;
+					while((read = is.read(buffer)) != -1) {
+						wrapped.clear().limit(read);
+						while(wrapped.hasRemaining()) {
+							position += request.channel_.write(wrapped, position);
+						}
+						segment.transferred_.addAndGet(read);
+					}
+				}
+				final long transferred = position - segment.offset_;
+				if(segment.length_ >= 0L && transferred != segment.length_) {
+					throw new EOFException("Segment " + segment.index_ + " ended after " +
+						transferred + " of " + segment.length_ + " bytes.");
+				}
+				completed = true;
+				return transferred;
+			} finally {
+				segment.endNanos_ = nanoTime();
+				if(!completed) {
+					// Abort, instead of draining the rest of what could be a
+					// very large response.  Before the stream is closed, as
+					// closing it consumes whatever is left.
+					abortResponseQuietly(success.getResponse());
+				}
+				closeQuietly(is);
+			}
+		}
+		private static void checkContentRange(final HttpSuccess success,
+			final SegmentProgress segment) throws IOException {
+			// A 200 here means the server ignored the Range, or the If-Range
+			// validator no longer matches: the object changed.
+			if(success.getStatusCode() != SC_PARTIAL_CONTENT) {
+				throw new IOException("Expected 206 Partial Content for segment " +
+					segment.index_ + ", got " + success.getStatusCode() + "; object " +
+					"changed or range not supported.");
+			}
+			final String contentRange = success.getFirstHeader(CONTENT_RANGE);
+			final String expected = "bytes " + segment.offset_ + "-" +
+				(segment.offset_ + segment.length_ - 1L) + "/";
+			if(contentRange == null || !contentRange.trim().startsWith(expected)) {
+				throw new IOException("Unexpected Content-Range for segment " +
+					segment.index_ + ": " + contentRange);
+			}
+		}
+	}
+
+}
@@ -29,6 +29,7 @@ package com.kolich.http.helpers;
 import com.kolich.http.HttpClient4Closure;
 import com.kolich.http.common.response.HttpFailure;
 import com.kolich.http.common.response.HttpSuccess;
+import com.kolich.http.common.transport.ClosureTransport;
 import com.kolich.http.helpers.definitions.CustomEntityConverter;
 import com.kolich.http.helpers.definitions.CustomFailureEntityConverter;
 import com.kolich.http.helpers.definitions.CustomSuccessEntityConverter;
@@ -44,6 +45,11 @@ public final class EntityConverterClosures {
 	public static class CustomEntityConverterClosure<F,S>
 		extends HttpClient4Closure<F,S> {
 		private final CustomEntityConverter<F,S> converter_;
+		public CustomEntityConverterClosure(final ClosureTransport transport,
+                                            final CustomEntityConverter<F,S> converter) {
+			super(transport);
+			converter_ = converter;
+		}
 		public CustomEntityConverterClosure(final HttpClient client,
                                             final CustomEntityConverter<F,S> converter) {
 			super(client);
@@ -28,31 +28,121 @@ package com.kolich.http.helpers;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonIOException;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonWriter;
+import com.kolich.common.functional.either.Either;
+import com.kolich.http.common.response.HttpFailure;
 import com.kolich.http.common.response.HttpSuccess;
+import com.kolich.http.common.transport.ClosureTransport;
 import com.kolich.http.helpers.definitions.OrHttpFailureClosure;
 import com.kolich.http.helpers.definitions.OrNullClosure;
 import org.apache.http.HttpEntity;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.protocol.HttpContext;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
+import java.io.Writer;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 
+import static com.google.common.base.Preconditions.checkNotNull;
 import static com.kolich.common.DefaultCharacterEncoding.UTF_8;
 import static com.kolich.common.entities.KolichCommonEntity.getDefaultGsonBuilder;
 import static com.kolich.http.HttpClient4ClosureBuilder.Factory.getNewInstanceWithProxySelector;
 import static org.apache.commons.io.IOUtils.closeQuietly;
+import static org.apache.http.entity.ContentType.APPLICATION_JSON;
 
 public final class GsonClosures {
 	
 	// Cannot instantiate.
 	private GsonClosures() {}
+
+	/**
+	 * A request entity that serializes an object to JSON with GSON straight
+	 * into the connection output stream, as the request is sent.  There's no
+	 * intermediate JSON {@link String} or byte array, so memory use doesn't
+	 * grow with the size of the payload.  The JSON length isn't known up
+	 * front, so the body is sent chunked.
+	 */
+	public static final class GsonEntity extends AbstractHttpEntity {
+		private static final int WRITE_BUFFER_SIZE = 8192;
+		private final Gson gson_;
+		private final Object src_;
+		private final Type type_;
+		public GsonEntity(final Gson gson, final Object src, final Type type) {
+			gson_ = checkNotNull(gson, "Gson cannot be null.");
+			src_ = src;
+			type_ = checkNotNull(type, "Type cannot be null.");
+			setContentType(APPLICATION_JSON.toString());
+			setChunked(true);
+		}
+		public GsonEntity(final Gson gson, final Object src) {
+			this(gson, src, (src != null) ? src.getClass() : Object.class);
+		}
+		@Override
+		public boolean isRepeatable() {
+			return true;
+		}
+		@Override
+		public long getContentLength() {
+			return -1L;
+		}
+		@Override
+		public InputStream getContent() {
+			throw new UnsupportedOperationException("JSON content is only available via writeTo.");
+		}
+		@Override
+		public void writeTo(final OutputStream os) throws IOException {
+			checkNotNull(os, "Output stream cannot be null.");
+			// The JSON writer emits lots of tiny strings, buffer them up
+			// ahead of the encoder.  Never close the connection output
+			// stream from here, just flush.
+			final Writer w = new BufferedWriter(new OutputStreamWriter(os,
+				StandardCharsets.UTF_8), WRITE_BUFFER_SIZE);
+			final JsonWriter writer = gson_.newJsonWriter(w);
+			try {
+				gson_.toJson(src_, type_, writer);
+			} catch (JsonIOException e) {
+				throw (e.getCause() instanceof IOException) ?
+					(IOException)e.getCause() : new IOException(e);
+			}
+			writer.flush();
+		}
+		@Override
+		public boolean isStreaming() {
+			return false;
+		}
+	}
 	
 	public static class GsonOrHttpFailureClosure<S> extends OrHttpFailureClosure<S> {		
 		private final Gson gson_;
 		private final Type type_;
 		private final String charsetName_;		
+		public GsonOrHttpFailureClosure(final ClosureTransport transport, final Gson gson,
+			final Type type, final String charsetName) {
+			super(transport);
+			gson_ = gson;
+			type_ = type;
+			charsetName_ = charsetName;
+		}
+		public GsonOrHttpFailureClosure(final ClosureTransport transport,
+			final Gson gson, final Type type) {
+			this(transport, gson, type, UTF_8);
+		}
+		public GsonOrHttpFailureClosure(final ClosureTransport transport,
+			final Gson gson, final Class<S> clazz) {
+			this(transport, gson, TypeToken.get(clazz).getType(), UTF_8);
+		}
 		public GsonOrHttpFailureClosure(final HttpClient client, final Gson gson,
 			final Type type, final String charsetName) {
 			super(client);
@@ -117,11 +207,27 @@ public final class GsonClosures {
 		public GsonOrHttpFailureClosure(final Class<S> clazz) {
 			this(getNewInstanceWithProxySelector(), clazz);
 		}
+		public final Either<HttpFailure,S> postJson(final HttpPost post, final Object body) {
+			return postJson(post, body, null);
+		}
+		public final Either<HttpFailure,S> postJson(final HttpPost post, final Object body,
+			final HttpContext context) {
+			post.setEntity(new GsonEntity(gson_, body));
+			return request(post, context);
+		}
+		public final Either<HttpFailure,S> putJson(final HttpPut put, final Object body) {
+			return putJson(put, body, null);
+		}
+		public final Either<HttpFailure,S> putJson(final HttpPut put, final Object body,
+			final HttpContext context) {
+			put.setEntity(new GsonEntity(gson_, body));
+			return request(put, context);
+		}
 		@Override
 		public final S success(final HttpSuccess success) throws Exception {
 			Reader r = null;
 			try {
-				final HttpEntity entity = success.getResponse().getEntity();
+				final HttpEntity entity = getLimitedEntity(success);
 				r = new InputStreamReader(entity.getContent(), charsetName_);
 				return gson_.fromJson(r, type_);
 			} finally {
@@ -134,6 +240,21 @@ public final class GsonClosures {
 		private final Gson gson_;
 		private final Type type_;
 		private final String charsetName_;		
+		public GsonOrNullClosure(final ClosureTransport transport, final Gson gson,
+			final Type type, final String charsetName) {
+			super(transport);
+			gson_ = gson;
+			type_ = type;
+			charsetName_ = charsetName;
+		}
+		public GsonOrNullClosure(final ClosureTransport transport,
+			final Gson gson, final Type type) {
+			this(transport, gson, type, UTF_8);
+		}
+		public GsonOrNullClosure(final ClosureTransport transport,
+			final Gson gson, final Class<S> clazz) {
+			this(transport, gson, TypeToken.get(clazz).getType(), UTF_8);
+		}
 		public GsonOrNullClosure(final HttpClient client, final Gson gson,
 			final Type type, final String charsetName) {
 			super(client);
@@ -198,11 +319,27 @@ public final class GsonClosures {
 		public GsonOrNullClosure(final Class<S> clazz) {
 			this(getNewInstanceWithProxySelector(), clazz);
 		}
+		public final Either<Void,S> postJson(final HttpPost post, final Object body) {
+			return postJson(post, body, null);
+		}
+		public final Either<Void,S> postJson(final HttpPost post, final Object body,
+			final HttpContext context) {
+			post.setEntity(new GsonEntity(gson_, body));
+			return request(post, context);
+		}
+		public final Either<Void,S> putJson(final HttpPut put, final Object body) {
+			return putJson(put, body, null);
+		}
+		public final Either<Void,S> putJson(final HttpPut put, final Object body,
+			final HttpContext context) {
+			put.setEntity(new GsonEntity(gson_, body));
+			return request(put, context);
+		}
 		@Override
 		public final S success(final HttpSuccess success) throws Exception {
 			Reader r = null;
 			try {
-				final HttpEntity entity = success.getResponse().getEntity();
+				final HttpEntity entity = getLimitedEntity(success);
 				r = new InputStreamReader(entity.getContent(), charsetName_);
 				return gson_.fromJson(r, type_);
 			} finally {
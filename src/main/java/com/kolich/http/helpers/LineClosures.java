@@ -0,0 +1,306 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.helpers;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.kolich.http.common.response.HttpSuccess;
+import com.kolich.http.common.transport.ClosureTransport;
+import com.kolich.http.helpers.definitions.OrHttpFailureClosure;
+import com.kolich.http.helpers.definitions.OrNullClosure;
+import com.kolich.http.helpers.definitions.StreamConsumer;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.HttpClient;
+import org.apache.http.entity.ContentType;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+
+import static com.kolich.common.DefaultCharacterEncoding.UTF_8;
+import static com.kolich.common.entities.KolichCommonEntity.getDefaultGsonBuilder;
+import static com.kolich.http.HttpClient4ClosureBuilder.Factory.getNewInstanceWithProxySelector;
+import static com.kolich.http.common.response.ResponseUtils.abortResponseQuietly;
+import static org.apache.commons.io.IOUtils.closeQuietly;
+
+/**
+ * Closures that stream a line-delimited response entity (a log, an event
+ * feed, NDJSON, etc.) to a {@link StreamConsumer} one line at a time, instead
+ * of reading the whole thing into memory.  Only one line is ever held in
+ * memory at once, and lines longer than a fixed maximum are rejected.
+ *
+ * If the consumer stops early (or throws), the rest of the response is
+ * aborted rather than drained, and the connection is closed instead of
+ * being returned to the pool.  On success, each returns the number of
+ * lines handed to the consumer.
+ */
+public final class LineClosures {
+
+	/**
+	 * The default maximum length of a single line, in characters.
+	 */
+	public static final int DEFAULT_MAX_LINE_LENGTH = 1024 * 1024;
+	
+	private static final int READ_BUFFER_SIZE = 8192;
+	
+	// Cannot instantiate.
+	private LineClosures() {}
+	
+	public static class LineOrHttpFailureClosure extends OrHttpFailureClosure<Long> {
+		private final String defaultCharset_;
+		private final int maxLineLength_;
+		private final StreamConsumer<String> consumer_;
+		public LineOrHttpFailureClosure(final ClosureTransport transport,
+			final String defaultCharset, final int maxLineLength,
+			final StreamConsumer<String> consumer) {
+			super(transport);
+			defaultCharset_ = defaultCharset;
+			maxLineLength_ = maxLineLength;
+			consumer_ = consumer;
+		}
+		public LineOrHttpFailureClosure(final HttpClient client,
+			final String defaultCharset, final int maxLineLength,
+			final StreamConsumer<String> consumer) {
+			super(client);
+			defaultCharset_ = defaultCharset;
+			maxLineLength_ = maxLineLength;
+			consumer_ = consumer;
+		}
+		public LineOrHttpFailureClosure(final HttpClient client,
+			final StreamConsumer<String> consumer) {
+			this(client, UTF_8, DEFAULT_MAX_LINE_LENGTH, consumer);
+		}
+		public LineOrHttpFailureClosure(final StreamConsumer<String> consumer) {
+			this(getNewInstanceWithProxySelector(), consumer);
+		}
+		@Override
+		public final Long success(final HttpSuccess success) throws Exception {
+			return streamLines(success, defaultCharset_, maxLineLength_, consumer_);
+		}
+	}
+	
+	public static class LineOrNullClosure extends OrNullClosure<Long> {
+		private final String defaultCharset_;
+		private final int maxLineLength_;
+		private final StreamConsumer<String> consumer_;
+		public LineOrNullClosure(final ClosureTransport transport,
+			final String defaultCharset, final int maxLineLength,
+			final StreamConsumer<String> consumer) {
+			super(transport);
+			defaultCharset_ = defaultCharset;
+			maxLineLength_ = maxLineLength;
+			consumer_ = consumer;
+		}
+		public LineOrNullClosure(final HttpClient client,
+			final String defaultCharset, final int maxLineLength,
+			final StreamConsumer<String> consumer) {
+			super(client);
+			defaultCharset_ = defaultCharset;
+			maxLineLength_ = maxLineLength;
+			consumer_ = consumer;
+		}
+		public LineOrNullClosure(final HttpClient client,
+			final StreamConsumer<String> consumer) {
+			this(client, UTF_8, DEFAULT_MAX_LINE_LENGTH, consumer);
+		}
+		public LineOrNullClosure(final StreamConsumer<String> consumer) {
+			this(getNewInstanceWithProxySelector(), consumer);
+		}
+		@Override
+		public final Long success(final HttpSuccess success) throws Exception {
+			return streamLines(success, defaultCharset_, maxLineLength_, consumer_);
+		}
+	}
+	
+	/**
+	 * Decodes each non-blank line of the response as a standalone JSON
+	 * document (NDJSON, JSON Lines, etc.) of the given type.
+	 */
+	public static class GsonLineOrHttpFailureClosure<T> extends OrHttpFailureClosure<Long> {
+		private final String defaultCharset_;
+		private final int maxLineLength_;
+		private final StreamConsumer<String> consumer_;
+		public GsonLineOrHttpFailureClosure(final ClosureTransport transport,
+			final Gson gson, final Type type, final String defaultCharset,
+			final int maxLineLength, final StreamConsumer<T> consumer) {
+			super(transport);
+			defaultCharset_ = defaultCharset;
+			maxLineLength_ = maxLineLength;
+			consumer_ = gsonLines(gson, type, consumer);
+		}
+		public GsonLineOrHttpFailureClosure(final HttpClient client,
+			final Gson gson, final Type type, final String defaultCharset,
+			final int maxLineLength, final StreamConsumer<T> consumer) {
+			super(client);
+			defaultCharset_ = defaultCharset;
+			maxLineLength_ = maxLineLength;
+			consumer_ = gsonLines(gson, type, consumer);
+		}
+		public GsonLineOrHttpFailureClosure(final HttpClient client,
+			final Gson gson, final Class<T> clazz,
+			final StreamConsumer<T> consumer) {
+			this(client, gson, TypeToken.get(clazz).getType(), UTF_8,
+				DEFAULT_MAX_LINE_LENGTH, consumer);
+		}
+		public GsonLineOrHttpFailureClosure(final HttpClient client,
+			final Class<T> clazz, final StreamConsumer<T> consumer) {
+			this(client, getDefaultGsonBuilder().create(), clazz, consumer);
+		}
+		public GsonLineOrHttpFailureClosure(final Class<T> clazz,
+			final StreamConsumer<T> consumer) {
+			this(getNewInstanceWithProxySelector(), clazz, consumer);
+		}
+		@Override
+		public final Long success(final HttpSuccess success) throws Exception {
+			return streamLines(success, defaultCharset_, maxLineLength_, consumer_);
+		}
+	}
+	
+	public static class GsonLineOrNullClosure<T> extends OrNullClosure<Long> {
+		private final String defaultCharset_;
+		private final int maxLineLength_;
+		private final StreamConsumer<String> consumer_;
+		public GsonLineOrNullClosure(final ClosureTransport transport,
+			final Gson gson, final Type type, final String defaultCharset,
+			final int maxLineLength, final StreamConsumer<T> consumer) {
+			super(transport);
+			defaultCharset_ = defaultCharset;
+			maxLineLength_ = maxLineLength;
+			consumer_ = gsonLines(gson, type, consumer);
+		}
+		public GsonLineOrNullClosure(final HttpClient client,
+			final Gson gson, final Type type, final String defaultCharset,
+			final int maxLineLength, final StreamConsumer<T> consumer) {
+			super(client);
+			defaultCharset_ = defaultCharset;
+			maxLineLength_ = maxLineLength;
+			consumer_ = gsonLines(gson, type, consumer);
+		}
+		public GsonLineOrNullClosure(final HttpClient client,
+			final Gson gson, final Class<T> clazz,
+			final StreamConsumer<T> consumer) {
+			this(client, gson, TypeToken.get(clazz).getType(), UTF_8,
+				DEFAULT_MAX_LINE_LENGTH, consumer);
+		}
+		public GsonLineOrNullClosure(final HttpClient client,
+			final Class<T> clazz, final StreamConsumer<T> consumer) {
+			this(client, getDefaultGsonBuilder().create(), clazz, consumer);
+		}
+		public GsonLineOrNullClosure(final Class<T> clazz,
+			final StreamConsumer<T> consumer) {
+			this(getNewInstanceWithProxySelector(), clazz, consumer);
+		}
+		@Override
+		public final Long success(final HttpSuccess success) throws Exception {
+			return streamLines(success, defaultCharset_, maxLineLength_, consumer_);
+		}
+	}
+	
+	private static <T> StreamConsumer<String> gsonLines(final Gson gson,
+		final Type type, final StreamConsumer<T> consumer) {
+		return line -> {
+			// Blank lines, like a trailing newline, are not documents.
+			if(line.trim().isEmpty()) {
+				return true;
+			}
+			return consumer.next(gson.<T>fromJson(line, type));
+		};
+	}
+	
+	private static long streamLines(final HttpSuccess success,
+		final String defaultCharset, final int maxLineLength,
+		final StreamConsumer<String> consumer) throws Exception {
+		final HttpEntity entity = success.getEntity();
+		if(entity == null) {
+			return 0L;
+		}
+		long lines = 0L;
+		boolean completed = false;
+		Reader reader = null;
+		try {
+			reader = new InputStreamReader(entity.getContent(),
+				getCharset(entity, defaultCharset));
+			final char[] buffer = new char[READ_BUFFER_SIZE];
+			final StringBuilder line = new StringBuilder();
+			boolean sawCarriageReturn = false;
+			int read;
+			while((read = reader.read(buffer)) != -1) {
+				for(int i = 0; i < read; i++) {
+					final char c = buffer[i];
+					if(c == '\n' || c == '\r') {
+						// A "\r\n" pair is a single line terminator.
+						if(c == '\n' && sawCarriageReturn) {
+							sawCarriageReturn = false;
+							continue;
+						}
+						sawCarriageReturn = (c == '\r');
+						lines++;
+						if(!consumer.next(line.toString())) {
+							return lines;
+						}
+						line.setLength(0);
+					} else {
+						sawCarriageReturn = false;
+						if(line.length() >= maxLineLength) {
+							throw new IOException("Line " + (lines + 1) + " exceeds " +
+								"the maximum length of " + maxLineLength + " characters.");
+						}
+						line.append(c);
+					}
+				}
+			}
+			// A final line with no trailing terminator.
+			if(line.length() > 0) {
+				lines++;
+				consumer.next(line.toString());
+			}
+			completed = true;
+			return lines;
+		} finally {
+			if(!completed) {
+				// Stopped early, or failed: abort the rest of the response
+				// instead of draining what could be gigabytes of data.  This
+				// must happen before the stream is closed, as closing it
+				// normally consumes whatever is left.
+				abortResponseQuietly(success.getResponse());
+			}
+			closeQuietly(reader);
+		}
+	}
+	
+	private static Charset getCharset(final HttpEntity entity,
+		final String defaultCharset) {
+		final ContentType contentType = ContentType.get(entity);
+		if(contentType != null && contentType.getCharset() != null) {
+			return contentType.getCharset();
+		}
+		return Charset.forName(defaultCharset);
+	}
+
+}
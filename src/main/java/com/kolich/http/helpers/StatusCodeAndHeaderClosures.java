@@ -27,6 +27,7 @@
 package com.kolich.http.helpers;
 
 import com.kolich.http.common.response.HttpSuccess;
+import com.kolich.http.common.transport.ClosureTransport;
 import com.kolich.http.helpers.definitions.IgnoreResultClosure;
 import com.kolich.http.helpers.definitions.OrHttpFailureClosure;
 import org.apache.http.Header;
@@ -48,6 +49,9 @@ public final class StatusCodeAndHeaderClosures {
 	 */
 	public static class HeadersOnlyClosure extends IgnoreResultClosure {		
 		private Header[] headers_ = null;		
+		public HeadersOnlyClosure(final ClosureTransport transport) {
+			super(transport);
+		}
 		public HeadersOnlyClosure(final HttpClient client) {
 			super(client);
 		}
@@ -73,6 +77,9 @@ public final class StatusCodeAndHeaderClosures {
 	 */
 	public static class StatusCodeAndHeadersClosure extends HeadersOnlyClosure {
 		private int statusCode_ = -1;
+		public StatusCodeAndHeadersClosure(final ClosureTransport transport) {
+			super(transport);
+		}
 		public StatusCodeAndHeadersClosure(final HttpClient client) {
 			super(client);
 		}
@@ -92,6 +99,9 @@ public final class StatusCodeAndHeaderClosures {
 	
 	public static class StatusCodeOrHttpFailureClosure
 		extends OrHttpFailureClosure<Integer> {
+		public StatusCodeOrHttpFailureClosure(final ClosureTransport transport) {
+			super(transport);
+		}
 		public StatusCodeOrHttpFailureClosure(final HttpClient client) {
 			super(client);
 		}
@@ -26,11 +26,12 @@
 
 package com.kolich.http.helpers;
 
+import com.kolich.http.common.entity.EntityDecoding;
 import com.kolich.http.common.response.HttpSuccess;
+import com.kolich.http.common.transport.ClosureTransport;
 import com.kolich.http.helpers.definitions.OrHttpFailureClosure;
 import com.kolich.http.helpers.definitions.OrNullClosure;
 import org.apache.http.client.HttpClient;
-import org.apache.http.util.EntityUtils;
 
 import static com.kolich.common.DefaultCharacterEncoding.UTF_8;
 import static com.kolich.http.HttpClient4ClosureBuilder.Factory.getNewInstanceWithProxySelector;
@@ -42,6 +43,14 @@ public final class StringClosures {
 	
 	public static class StringOrHttpFailureClosure extends OrHttpFailureClosure<String> {	
 		private final String defaultCharset_;		
+		public StringOrHttpFailureClosure(final ClosureTransport transport,
+			final String defaultCharset) {
+			super(transport);
+			defaultCharset_ = defaultCharset;
+		}
+		public StringOrHttpFailureClosure(final ClosureTransport transport) {
+			this(transport, UTF_8);
+		}
 		public StringOrHttpFailureClosure(final HttpClient client,
 			final String defaultCharset) {
 			super(client);
@@ -56,14 +65,22 @@ public final class StringClosures {
 		@Override
 		public final String success(final HttpSuccess success)
 			throws Exception {
-			return EntityUtils.toString(
-				success.getResponse().getEntity(),
+			return EntityDecoding.toString(
+				getLimitedEntity(success),
 				defaultCharset_);
 		}
 	}
 	
 	public static class StringOrNullClosure extends OrNullClosure<String> {		
 		private final String defaultCharset_;		
+		public StringOrNullClosure(final ClosureTransport transport,
+			final String defaultCharset) {
+			super(transport);
+			defaultCharset_ = defaultCharset;
+		}
+		public StringOrNullClosure(final ClosureTransport transport) {
+			this(transport, UTF_8);
+		}
 		public StringOrNullClosure(final HttpClient client,
 			final String defaultCharset) {
 			super(client);
@@ -78,8 +95,8 @@ public final class StringClosures {
 		@Override
 		public final String success(final HttpSuccess success)
 			throws Exception {
-			return EntityUtils.toString(
-				success.getResponse().getEntity(),
+			return EntityDecoding.toString(
+				getLimitedEntity(success),
 				defaultCharset_);
 		}
 	}
@@ -29,6 +29,7 @@ package com.kolich.http.helpers.definitions;
 import com.kolich.http.HttpClient4Closure;
 import com.kolich.http.common.response.HttpFailure;
 import com.kolich.http.common.response.HttpSuccess;
+import com.kolich.http.common.transport.ClosureTransport;
 import org.apache.http.client.HttpClient;
 
 import static com.kolich.http.HttpClient4ClosureBuilder.Factory.getNewInstanceNoProxySelector;
@@ -39,6 +40,10 @@ import static com.kolich.http.HttpClient4ClosureBuilder.Factory.getNewInstanceNo
  */
 public abstract class IgnoreResultClosure extends HttpClient4Closure<Void,Void> {
 
+	public IgnoreResultClosure(final ClosureTransport transport) {
+		super(transport);
+	}
+	
 	public IgnoreResultClosure(final HttpClient client) {
 		super(client);
 	}
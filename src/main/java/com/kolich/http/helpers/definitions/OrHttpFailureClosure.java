@@ -28,6 +28,7 @@ package com.kolich.http.helpers.definitions;
 
 import com.kolich.http.HttpClient4Closure;
 import com.kolich.http.common.response.HttpFailure;
+import com.kolich.http.common.transport.ClosureTransport;
 import org.apache.http.client.HttpClient;
 
 import static com.kolich.http.HttpClient4ClosureBuilder.Factory.getNewInstanceWithProxySelector;
@@ -37,6 +38,10 @@ import static com.kolich.http.HttpClient4ClosureBuilder.Factory.getNewInstanceWi
  */
 public abstract class OrHttpFailureClosure<S> extends HttpClient4Closure<HttpFailure,S> {
 
+	public OrHttpFailureClosure(final ClosureTransport transport) {
+		super(transport);
+	}
+	
 	public OrHttpFailureClosure(final HttpClient client) {
 		super(client);
 	}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http;
+
+import com.kolich.http.common.transport.EndpointGroup;
+import com.kolich.http.common.transport.EndpointGroup.Endpoint;
+import com.kolich.http.common.transport.EndpointGroup.Selection;
+import com.kolich.http.common.transport.HttpClient4Transport;
+import com.kolich.http.common.transport.LoadBalancingTransport;
+import com.kolich.http.helpers.StringClosures.StringOrHttpFailureClosure;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpHost;
+import org.apache.http.client.HttpClient;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spreads load over a few local stub servers with skewed latencies, one of
+ * which fails every request for a while, with each {@link Selection}, and
+ * prints how the requests were distributed and the latencies seen.  The
+ * slow servers should get far fewer requests than the fast ones, and the
+ * failing server should be ejected and later reinstated.
+ */
+public final class LoadBalancingTester {
+
+    private static final long[] LATENCIES_MS = {2L, 2L, 10L, 50L};
+
+    private static final int THREADS = 32;
+    private static final int REQUESTS_PER_THREAD = 250;
+
+    private static volatile boolean failing__ = true;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        final List<HttpServer> servers = new ArrayList<>();
+        final List<HttpHost> hosts = new ArrayList<>();
+        for(int i = 0; i <= LATENCIES_MS.length; i++) {
+            // The last server is fast, but failing until told otherwise.
+            final boolean flaky = (i == LATENCIES_MS.length);
+            final long latencyMs = flaky ? 2L : LATENCIES_MS[i];
+            final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            server.createContext("/", exchange -> {
+                try {
+                    Thread.sleep(latencyMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                final byte[] body = ("slept " + latencyMs).getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders((flaky && failing__) ? 503 : 200, body.length);
+                try(OutputStream os = exchange.getResponseBody()) {
+                    os.write(body);
+                }
+            });
+            server.setExecutor(Executors.newFixedThreadPool(THREADS));
+            server.start();
+            servers.add(server);
+            hosts.add(new HttpHost("localhost", server.getAddress().getPort()));
+        }
+        final HttpClient client = new HttpClient4ClosureBuilder()
+            .setMaxTotalConnections(THREADS * hosts.size())
+            .setMaxConnectionsPerRoute(THREADS)
+            .getNewHttpClientInstance();
+        try {
+            for(final Selection selection : Selection.values()) {
+                failing__ = true;
+                final EndpointGroup group = new EndpointGroup(selection, hosts)
+                    .setEjectionMs(250L);
+                final LoadBalancingTransport transport =
+                    new LoadBalancingTransport(new HttpClient4Transport(client), group);
+                // Half way through, the failing server recovers.
+                run(transport, REQUESTS_PER_THREAD / 2);
+                failing__ = false;
+                Thread.sleep(300L);
+                final long[] latencies = run(transport, REQUESTS_PER_THREAD / 2);
+                Arrays.sort(latencies);
+                System.out.println(selection + ": p50=" + latencies[latencies.length / 2] / 1000L +
+                    "us, p99=" + latencies[(int)(latencies.length * 0.99d)] / 1000L + "us");
+                for(int i = 0; i < hosts.size(); i++) {
+                    final Endpoint endpoint = group.getEndpoints().get(i);
+                    System.out.println("  " + ((i < LATENCIES_MS.length) ?
+                        LATENCIES_MS[i] + "ms" : "flaky") + " " + endpoint +
+                        " ejections=" + endpoint.getEjections());
+                }
+            }
+        } finally {
+            for(final HttpServer server : servers) {
+                server.stop(0);
+                ((ExecutorService)server.getExecutor()).shutdownNow();
+            }
+        }
+    }
+
+    private static long[] run(final LoadBalancingTransport transport,
+                              final int requestsPerThread) throws Exception {
+        final ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        final List<Future<long[]>> futures = new ArrayList<>();
+        for(int t = 0; t < THREADS; t++) {
+            futures.add(pool.submit(() -> {
+                final StringOrHttpFailureClosure closure = new StringOrHttpFailureClosure(transport);
+                final long[] latencies = new long[requestsPerThread];
+                for(int i = 0; i < requestsPerThread; i++) {
+                    final long start = System.nanoTime();
+                    closure.get("/");
+                    latencies[i] = System.nanoTime() - start;
+                }
+                return latencies;
+            }));
+        }
+        final long[] all = new long[THREADS * requestsPerThread];
+        for(int t = 0; t < THREADS; t++) {
+            System.arraycopy(futures.get(t).get(), 0, all, t * requestsPerThread, requestsPerThread);
+        }
+        pool.shutdown();
+        pool.awaitTermination(1L, TimeUnit.MINUTES);
+        return all;
+    }
+
+}
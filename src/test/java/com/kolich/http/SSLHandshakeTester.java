@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http;
+
+import com.kolich.common.functional.either.Either;
+import com.kolich.http.helpers.StringClosures.StringOrNullClosure;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.ssl.SSLContexts;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import java.io.File;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+
+import static com.kolich.http.common.conn.ClosureSSLConnectionSocketFactory.MODERN_TLS_CIPHER_SUITES;
+import static com.kolich.http.common.conn.ClosureSSLConnectionSocketFactory.MODERN_TLS_PROTOCOLS;
+
+/**
+ * Compares client handshake CPU against a local TLS server, with and without
+ * TLS session resumption.  Every request sends "Connection: close" so that
+ * each one needs a brand new connection (and handshake).
+ */
+public final class SSLHandshakeTester {
+
+    private static final int REQUESTS = 500;
+    private static final char[] PASSWORD = "changeit".toCharArray();
+
+    public static void main(String[] args) throws Exception {
+        final File keystore = File.createTempFile("closure-tls", ".p12");
+        keystore.delete();
+        keystore.deleteOnExit();
+        // Generate a throw away self-signed certificate for the local server.
+        new ProcessBuilder(new File(System.getProperty("java.home"), "bin/keytool").getPath(),
+            "-genkeypair", "-alias", "localhost", "-keyalg", "EC", "-dname", "CN=localhost",
+            "-validity", "1", "-storetype", "PKCS12", "-keystore", keystore.getPath(),
+            "-storepass", new String(PASSWORD), "-keypass", new String(PASSWORD))
+            .inheritIO().start().waitFor();
+
+        final SSLContext serverContext = SSLContexts.custom()
+            .loadKeyMaterial(keystore, PASSWORD, PASSWORD)
+            .build();
+        final HttpsServer server = HttpsServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setHttpsConfigurator(new HttpsConfigurator(serverContext));
+        server.createContext("/", exchange -> {
+            final byte[] body = "ok".getBytes();
+            exchange.sendResponseHeaders(200, body.length);
+            try(OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+
+        final String url = "https://localhost:" + server.getAddress().getPort() + "/";
+        try {
+            run(url, true);
+            run(url, false);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static void run(final String url,
+                            final boolean resume) throws Exception {
+        final SSLContext clientContext = SSLContexts.custom()
+            .loadTrustMaterial((chain, authType) -> true)
+            .build();
+        final HttpClient4ClosureBuilder builder = new HttpClient4ClosureBuilder()
+            .setSslContext(clientContext)
+            .setSslProtocols(MODERN_TLS_PROTOCOLS)
+            .setSslCipherSuites(MODERN_TLS_CIPHER_SUITES)
+            .setHostnameVerifier(NoopHostnameVerifier.INSTANCE)
+            .useProxySelector(false);
+        final HttpClient client = builder.getNewHttpClientInstance();
+        final SSLSessionContext sessions = clientContext.getClientSessionContext();
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        final long cpuStart = threads.getCurrentThreadCpuTime();
+        for(int i = 0; i < REQUESTS; i++) {
+            if(!resume) {
+                // Forget every cached session, forcing a full handshake.
+                for(final byte[] id : Collections.list(sessions.getIds())) {
+                    final SSLSession session = sessions.getSession(id);
+                    if(session != null) {
+                        session.invalidate();
+                    }
+                }
+            }
+            final Either<Void,String> result = new StringOrNullClosure(client) {
+                @Override
+                public void before(final HttpRequestBase request) {
+                    request.addHeader("Connection", "close");
+                }
+            }.get(url);
+            if(!result.success()) {
+                throw new IllegalStateException("Request failed: " + url);
+            }
+        }
+        final long cpuMs = (threads.getCurrentThreadCpuTime() - cpuStart) / 1_000_000L;
+        System.out.println((resume ? "With" : "Without") + " resumption: " +
+            builder.getSslHandshakeStats() + ", client CPU " + cpuMs + "ms, " +
+            String.format("%.3f", (double)cpuMs / REQUESTS) + "ms/request");
+    }
+
+}
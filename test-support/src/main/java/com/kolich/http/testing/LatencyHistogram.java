@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.testing;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A lock free histogram of latencies in nanoseconds, with log-linear
+ * buckets: each power of two is split into 128 buckets, such that any
+ * recorded value is within 1% of the value reported for it.  Fixed size,
+ * about 60KB, no matter how many values or how large they are.
+ */
+public final class LatencyHistogram {
+
+    /**
+     * Each power of two is split into 2^SUB_BUCKET_BITS buckets.
+     */
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Values under this are counted exactly, one bucket per value.
+     */
+    private static final long LINEAR_LIMIT = 2L * SUB_BUCKETS;
+
+    private final AtomicLongArray counts_;
+    private final LongAdder count_;
+    private final LongAdder sum_;
+    private final AtomicLong max_;
+
+    public LatencyHistogram() {
+        counts_ = new AtomicLongArray(getIndex(Long.MAX_VALUE) + 1);
+        count_ = new LongAdder();
+        sum_ = new LongAdder();
+        max_ = new AtomicLong();
+    }
+
+    public void record(final long nanos) {
+        final long value = Math.max(0L, nanos);
+        counts_.incrementAndGet(getIndex(value));
+        count_.increment();
+        sum_.add(value);
+        long max;
+        while(value > (max = max_.get()) && !max_.compareAndSet(max, value)) {
+            // Lost the race, try again.
+        }
+    }
+
+    public long getCount() {
+        return count_.sum();
+    }
+
+    public long getMaxNanos() {
+        return max_.get();
+    }
+
+    public double getMeanNanos() {
+        final long count = count_.sum();
+        return (count == 0L) ? 0.0d : (double)sum_.sum() / count;
+    }
+
+    /**
+     * The value at the given percentile, like 99.9, or zero if nothing was
+     * recorded.  Reported as the highest value of its bucket, so it's never
+     * under the true value.
+     */
+    public long getPercentileNanos(final double percentile) {
+        checkArgument(percentile >= 0.0d && percentile <= 100.0d,
+            "Percentile must be between 0 and 100.");
+        final long count = count_.sum();
+        if(count == 0L) {
+            return 0L;
+        }
+        final long rank = Math.max(1L, (long)Math.ceil(percentile / 100.0d * count));
+        long seen = 0L;
+        for(int i = 0; i < counts_.length(); i++) {
+            seen += counts_.get(i);
+            if(seen >= rank) {
+                return Math.min(getHighestValue(i), max_.get());
+            }
+        }
+        return max_.get();
+    }
+
+    /**
+     * Adds everything recorded in the other histogram to this one.
+     */
+    public void add(final LatencyHistogram other) {
+        for(int i = 0; i < counts_.length(); i++) {
+            final long c = other.counts_.get(i);
+            if(c != 0L) {
+                counts_.addAndGet(i, c);
+            }
+        }
+        count_.add(other.count_.sum());
+        sum_.add(other.sum_.sum());
+        max_.accumulateAndGet(other.max_.get(), Math::max);
+    }
+
+    private static int getIndex(final long value) {
+        if(value < LINEAR_LIMIT) {
+            return (int)value;
+        }
+        // How far to shift the value down to leave its top 8 bits, the
+        // leading one and SUB_BUCKET_BITS below it.
+        final int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int)(value >>> shift);
+    }
+
+    private static long getHighestValue(final int index) {
+        if(index < LINEAR_LIMIT) {
+            return index;
+        }
+        final int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        final long lowest = (long)(index - (shift << SUB_BUCKET_BITS)) << shift;
+        return lowest + (1L << shift) - 1L;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d, mean=%.2fms, p50=%.2fms, p90=%.2fms, " +
+            "p99=%.2fms, p99.9=%.2fms, max=%.2fms", getCount(), getMeanNanos() / 1e6d,
+            getPercentileNanos(50.0d) / 1e6d, getPercentileNanos(90.0d) / 1e6d,
+            getPercentileNanos(99.0d) / 1e6d, getPercentileNanos(99.9d) / 1e6d,
+            getMaxNanos() / 1e6d);
+    }
+
+}
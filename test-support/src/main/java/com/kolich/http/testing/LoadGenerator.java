@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.testing;
+
+import com.kolich.common.functional.either.Either;
+import com.kolich.http.HttpClient4Closure;
+import com.kolich.http.common.response.HttpFailure;
+import org.apache.http.client.methods.HttpRequestBase;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.locks.LockSupport.parkNanos;
+
+/**
+ * Drives a closure at a fixed request rate, open loop, and records how long
+ * each request took.  Requests are scheduled at fixed intervals up front,
+ * and each request's response time is measured from when it was scheduled
+ * to be sent, not from when it was actually sent.  When the closure falls
+ * behind, like when every worker is stuck on a slow response, the requests
+ * that should have gone out in the meantime count the time they spent
+ * waiting.  That avoids "coordinated omission," where a load generator
+ * that waits on the system under test stops sending, and so stops
+ * measuring, exactly when things are slow.  The time from actually sending
+ * a request until its response is done is recorded separately, as the
+ * service time.
+ *
+ * The closure is shared by every worker thread, so it must be thread safe;
+ * most closures are, unless they keep state on the closure itself.
+ */
+public final class LoadGenerator {
+
+    public static final int DEFAULT_CONCURRENCY = 64;
+    public static final long DEFAULT_WARMUP_MS = 2000L;
+    public static final long DEFAULT_DURATION_MS = 10000L;
+
+    private final HttpClient4Closure<?,?> closure_;
+    private final Supplier<? extends HttpRequestBase> requests_;
+
+    private double requestsPerSecond_ = 100.0d;
+    private int concurrency_ = DEFAULT_CONCURRENCY;
+    private long warmupMs_ = DEFAULT_WARMUP_MS;
+    private long durationMs_ = DEFAULT_DURATION_MS;
+
+    /**
+     * Sends a new request from the supplier, for every request, through the
+     * given closure.
+     */
+    public LoadGenerator(final HttpClient4Closure<?,?> closure,
+                         final Supplier<? extends HttpRequestBase> requests) {
+        closure_ = checkNotNull(closure, "Closure cannot be null.");
+        requests_ = checkNotNull(requests, "Request supplier cannot be null.");
+    }
+
+    public LoadGenerator setRate(final double requestsPerSecond) {
+        checkArgument(requestsPerSecond > 0.0d, "Requests per second must be greater than zero.");
+        requestsPerSecond_ = requestsPerSecond;
+        return this;
+    }
+
+    /**
+     * The most requests in flight at once, one worker thread each.  Once
+     * they're all busy, requests fall behind schedule.
+     */
+    public LoadGenerator setConcurrency(final int concurrency) {
+        checkArgument(concurrency > 0, "Concurrency must be greater than zero.");
+        concurrency_ = concurrency;
+        return this;
+    }
+
+    /**
+     * How long to send requests before recording anything, to let the JIT
+     * and the connection pool warm up.
+     */
+    public LoadGenerator setWarmupMs(final long warmupMs) {
+        checkArgument(warmupMs >= 0L, "Warmup must be >= 0.");
+        warmupMs_ = warmupMs;
+        return this;
+    }
+
+    public LoadGenerator setDurationMs(final long durationMs) {
+        checkArgument(durationMs > 0L, "Duration must be greater than zero.");
+        durationMs_ = durationMs;
+        return this;
+    }
+
+    /**
+     * Runs the warmup, then the measured run, and blocks until every request
+     * sent is done.
+     */
+    public LoadResult run() throws InterruptedException {
+        final long intervalNanos = (long)(1e9d / requestsPerSecond_);
+        final long startNanos = nanoTime();
+        final long measureFromNanos = startNanos + MILLISECONDS.toNanos(warmupMs_);
+        final long endNanos = measureFromNanos + MILLISECONDS.toNanos(durationMs_);
+        final LoadResult result = new LoadResult();
+        final AtomicLong next = new AtomicLong();
+        final Thread[] workers = new Thread[concurrency_];
+        for(int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(() -> {
+                long scheduled;
+                // Each worker takes the next slot in the schedule, whenever
+                // it's free; slots already in the past go out right away.
+                while((scheduled = startNanos + next.getAndIncrement() * intervalNanos) < endNanos) {
+                    long now;
+                    while((now = nanoTime()) < scheduled) {
+                        parkNanos(scheduled - now);
+                    }
+                    final Either<?,?> response = closure_.request(requests_.get());
+                    final long done = nanoTime();
+                    if(scheduled >= measureFromNanos) {
+                        final Object failure = response.success() ? null : response.left();
+                        result.record(done - scheduled, done - now, response.success(),
+                            (failure instanceof HttpFailure) ? (HttpFailure)failure : null);
+                    }
+                }
+            }, "load-generator-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        for(final Thread worker : workers) {
+            worker.join();
+        }
+        result.finish(nanoTime() - measureFromNanos);
+        return result;
+    }
+
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.testing;
+
+import com.kolich.http.common.response.FailureType;
+import com.kolich.http.common.response.HttpFailure;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What a {@link LoadGenerator} run measured.  Response times run from when
+ * each request was scheduled to be sent, and are what callers of the
+ * system would see; service times run from when each request was actually
+ * sent.
+ */
+public final class LoadResult {
+
+    private static final FailureType[] FAILURE_TYPES = FailureType.values();
+
+    private final LatencyHistogram responseTimes_;
+    private final LatencyHistogram serviceTimes_;
+    private final LongAdder succeeded_;
+    private final LongAdder failed_;
+    private final AtomicLongArray failuresByType_;
+
+    // Set once every worker is done.
+    private long elapsedNanos_;
+
+    LoadResult() {
+        responseTimes_ = new LatencyHistogram();
+        serviceTimes_ = new LatencyHistogram();
+        succeeded_ = new LongAdder();
+        failed_ = new LongAdder();
+        failuresByType_ = new AtomicLongArray(FAILURE_TYPES.length);
+    }
+
+    void record(final long responseNanos,
+                final long serviceNanos,
+                final boolean success,
+                final HttpFailure failure) {
+        responseTimes_.record(responseNanos);
+        serviceTimes_.record(serviceNanos);
+        if(success) {
+            succeeded_.increment();
+        } else {
+            failed_.increment();
+            if(failure != null) {
+                failuresByType_.incrementAndGet(failure.getType().ordinal());
+            }
+        }
+    }
+
+    void finish(final long elapsedNanos) {
+        elapsedNanos_ = elapsedNanos;
+    }
+
+    /**
+     * From when each request was scheduled to be sent until it was done,
+     * corrected for coordinated omission.
+     */
+    public LatencyHistogram getResponseTimes() {
+        return responseTimes_;
+    }
+
+    /**
+     * From when each request was actually sent until it was done.
+     */
+    public LatencyHistogram getServiceTimes() {
+        return serviceTimes_;
+    }
+
+    public long getSucceeded() {
+        return succeeded_.sum();
+    }
+
+    public long getFailed() {
+        return failed_.sum();
+    }
+
+    /**
+     * Failures whose closure returned an {@link HttpFailure}, by type.
+     */
+    public Map<FailureType,Long> getFailuresByType() {
+        final Map<FailureType,Long> failures = new EnumMap<>(FailureType.class);
+        for(final FailureType type : FAILURE_TYPES) {
+            final long count = failuresByType_.get(type.ordinal());
+            if(count > 0L) {
+                failures.put(type, count);
+            }
+        }
+        return Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * Requests completed per second over the measured part of the run,
+     * until the last request was done; lower than the requested rate if
+     * the closure couldn't keep up.
+     */
+    public double getThroughput() {
+        return (getSucceeded() + getFailed()) / (elapsedNanos_ / 1e9d);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("throughput=%.1f/s, succeeded=%d, failed=%d %s%n" +
+            "  response: %s%n" +
+            "  service:  %s", getThroughput(), getSucceeded(), getFailed(),
+            getFailuresByType(), responseTimes_, serviceTimes_);
+    }
+
+}
@@ -0,0 +1,518 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.testing;
+
+import com.kolich.http.common.conn.UnixDomainSockets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * An embedded HTTP/1.1 server on the loopback interface, for testing and
+ * load testing offline.  Each path is stubbed with a canned response, which
+ * can be chunked, delayed, trickled out slowly, or cut off with a connection
+ * reset.  Connections are kept alive and each gets its own thread.  It can
+ * also listen on a Unix domain socket, serving the same stubs.
+ *
+ * Responses are rendered up front and requests are parsed in place, so the
+ * server allocates next to nothing per request and stays out of the way of
+ * the client in allocation profiles.  Request bodies are read and thrown
+ * away, if they have a Content-Length; chunked request bodies aren't
+ * understood.
+ */
+public final class StubHttpServer implements Closeable {
+
+    private static final int MAX_REQUEST_HEADER_BYTES = 16384;
+
+    private static final String CONTENT_LENGTH = "content-length:";
+
+    private final ServerSocket socket_;
+    private final Stub notFound_;
+    private final LongAdder connections_ = new LongAdder();
+
+    private volatile Stub[] stubs_ = new Stub[0];
+
+    private Path unixSocketPath_ = null;
+    private ServerSocketChannel unixSocket_ = null;
+
+    public StubHttpServer() throws IOException {
+        socket_ = new ServerSocket(0, 512, InetAddress.getLoopbackAddress());
+        notFound_ = new Stub(null).status(404);
+        final Thread acceptor = new Thread(this::accept, "stub-http-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Stubs the given path, minus any query string, with a 200 OK and an
+     * empty body until configured otherwise, replacing any existing stub for
+     * the same path.  Paths that aren't stubbed get a 404 Not Found.
+     */
+    public synchronized Stub stub(final String path) {
+        final Stub stub = new Stub(checkNotNull(path, "Path cannot be null."));
+        for(int i = 0; i < stubs_.length; i++) {
+            if(Arrays.equals(stubs_[i].path_, stub.path_)) {
+                final Stub[] stubs = stubs_.clone();
+                stubs[i] = stub;
+                stubs_ = stubs;
+                return stub;
+            }
+        }
+        final Stub[] stubs = Arrays.copyOf(stubs_, stubs_.length + 1);
+        stubs[stubs.length - 1] = stub;
+        stubs_ = stubs;
+        return stub;
+    }
+
+    /**
+     * Also listens on a Unix domain socket bound to the given path, which
+     * must not exist yet, answering with the same stubs.  Requires JDK 16
+     * or later.  A stub that resets the connection only closes it there;
+     * Unix domain sockets don't have a RST.
+     */
+    public synchronized StubHttpServer listen(final Path socketPath) throws IOException {
+        checkState(unixSocket_ == null, "Already listening on a Unix domain socket.");
+        unixSocket_ = UnixDomainSockets.openServerChannel(
+            checkNotNull(socketPath, "Socket path cannot be null."));
+        unixSocketPath_ = socketPath;
+        final ServerSocketChannel channel = unixSocket_;
+        final Thread acceptor = new Thread(() -> accept(channel), "stub-http-server-uds");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return this;
+    }
+
+    /**
+     * The number of client connections accepted so far.
+     */
+    public long getConnections() {
+        return connections_.sum();
+    }
+
+    public int getPort() {
+        return socket_.getLocalPort();
+    }
+
+    public URI getUri(final String path) {
+        return URI.create("http://localhost:" + getPort() + path);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        socket_.close();
+        if(unixSocket_ != null) {
+            unixSocket_.close();
+            Files.deleteIfExists(unixSocketPath_);
+        }
+    }
+
+    /**
+     * The response to requests for one path.  Configure it before sending
+     * requests its way.
+     */
+    public static final class Stub {
+
+        private final byte[] path_;
+
+        private int status_ = 200;
+        private String contentType_ = "text/plain";
+        private byte[] body_ = new byte[0];
+        private String[] headers_ = new String[0];
+        private int chunkSize_ = 0;
+
+        // Read by connection threads, which may already be running.
+        private volatile byte[] response_;
+        private volatile long latencyMs_ = 0L;
+        private volatile int trickleBytes_ = 0;
+        private volatile long trickleIntervalMs_ = 0L;
+        private volatile int resetAfterBytes_ = -1;
+
+        private Stub(final String path) {
+            path_ = (path != null) ? path.getBytes(US_ASCII) : null;
+            render();
+        }
+
+        public Stub status(final int status) {
+            checkArgument(status >= 100 && status <= 999, "Status must be three digits.");
+            status_ = status;
+            return render();
+        }
+
+        public Stub body(final byte[] body,
+                         final String contentType) {
+            body_ = checkNotNull(body, "Body cannot be null.");
+            contentType_ = checkNotNull(contentType, "Content type cannot be null.");
+            return render();
+        }
+
+        public Stub body(final String body,
+                         final String contentType) {
+            return body(body.getBytes(UTF_8), contentType);
+        }
+
+        /**
+         * A body of the given number of bytes of text.
+         */
+        public Stub body(final int size) {
+            final byte[] body = new byte[size];
+            for(int i = 0; i < size; i++) {
+                body[i] = (byte)((i % 64 == 63) ? '\n' : 'a' + (i % 26));
+            }
+            return body(body, "text/plain; charset=UTF-8");
+        }
+
+        public Stub header(final String name,
+                           final String value) {
+            headers_ = Arrays.copyOf(headers_, headers_.length + 2);
+            headers_[headers_.length - 2] = checkNotNull(name, "Header name cannot be null.");
+            headers_[headers_.length - 1] = checkNotNull(value, "Header value cannot be null.");
+            return render();
+        }
+
+        /**
+         * Sends the body with chunked transfer encoding, in chunks of the
+         * given number of bytes, instead of with a Content-Length.
+         */
+        public Stub chunked(final int chunkSize) {
+            checkArgument(chunkSize > 0, "Chunk size must be greater than zero.");
+            chunkSize_ = chunkSize;
+            return render();
+        }
+
+        /**
+         * Waits this long after reading a request before responding.
+         */
+        public Stub latency(final long latencyMs) {
+            checkArgument(latencyMs >= 0L, "Latency must be >= 0.");
+            latencyMs_ = latencyMs;
+            return this;
+        }
+
+        /**
+         * Sends the response this many bytes at a time, waiting the given
+         * interval in between, like a slow or congested server.
+         */
+        public Stub trickle(final int bytes,
+                            final long intervalMs) {
+            checkArgument(bytes > 0, "Trickle bytes must be greater than zero.");
+            checkArgument(intervalMs >= 0L, "Trickle interval must be >= 0.");
+            trickleBytes_ = bytes;
+            trickleIntervalMs_ = intervalMs;
+            return this;
+        }
+
+        /**
+         * Resets the connection, with a TCP RST, after sending this many
+         * bytes of the response; zero resets it without sending anything.
+         */
+        public Stub resetAfter(final int bytes) {
+            checkArgument(bytes >= 0, "Reset after bytes must be >= 0.");
+            resetAfterBytes_ = bytes;
+            return this;
+        }
+
+        public Stub reset() {
+            return resetAfter(0);
+        }
+
+        private Stub render() {
+            final StringBuilder head = new StringBuilder()
+                .append("HTTP/1.1 ").append(status_).append(" Stub\r\n")
+                .append("Content-Type: ").append(contentType_).append("\r\n");
+            if(chunkSize_ > 0) {
+                head.append("Transfer-Encoding: chunked\r\n");
+            } else {
+                head.append("Content-Length: ").append(body_.length).append("\r\n");
+            }
+            for(int i = 0; i < headers_.length; i += 2) {
+                head.append(headers_[i]).append(": ").append(headers_[i + 1]).append("\r\n");
+            }
+            head.append("\r\n");
+            final ByteArrayOutputStream response = new ByteArrayOutputStream(
+                head.length() + body_.length + 64);
+            response.writeBytes(head.toString().getBytes(US_ASCII));
+            if(chunkSize_ > 0) {
+                for(int offset = 0; offset < body_.length; offset += chunkSize_) {
+                    final int length = Math.min(chunkSize_, body_.length - offset);
+                    response.writeBytes((Integer.toHexString(length) + "\r\n").getBytes(US_ASCII));
+                    response.write(body_, offset, length);
+                    response.writeBytes("\r\n".getBytes(US_ASCII));
+                }
+                response.writeBytes("0\r\n\r\n".getBytes(US_ASCII));
+            } else {
+                response.writeBytes(body_);
+            }
+            response_ = response.toByteArray();
+            return this;
+        }
+
+        /**
+         * Sends the response.  Returns false if the connection was reset
+         * and is done for.  The socket is null for Unix domain sockets.
+         */
+        private boolean respond(final Socket socket,
+                                final OutputStream out) throws IOException {
+            final long latencyMs = latencyMs_;
+            if(latencyMs > 0L) {
+                sleep(latencyMs);
+            }
+            final byte[] response = response_;
+            final int resetAfterBytes = resetAfterBytes_;
+            final int limit = (resetAfterBytes >= 0) ?
+                Math.min(resetAfterBytes, response.length) : response.length;
+            final int trickleBytes = trickleBytes_;
+            if(trickleBytes > 0) {
+                final long trickleIntervalMs = trickleIntervalMs_;
+                for(int offset = 0; offset < limit; offset += trickleBytes) {
+                    if(offset > 0) {
+                        sleep(trickleIntervalMs);
+                    }
+                    out.write(response, offset, Math.min(trickleBytes, limit - offset));
+                    out.flush();
+                }
+            } else if(limit > 0) {
+                out.write(response, 0, limit);
+                out.flush();
+            }
+            if(resetAfterBytes >= 0) {
+                // Closing with a zero linger timeout sends a RST, not a FIN.
+                // Without a socket, on a Unix domain socket, just close.
+                if(socket != null) {
+                    socket.setSoLinger(true, 0);
+                    socket.close();
+                }
+                return false;
+            }
+            return true;
+        }
+
+        private static void sleep(final long ms) throws IOException {
+            try {
+                Thread.sleep(ms);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted.", e);
+            }
+        }
+
+    }
+
+    private void accept() {
+        while(!socket_.isClosed()) {
+            try {
+                final Socket client = socket_.accept();
+                connections_.increment();
+                client.setTcpNoDelay(true);
+                final Thread worker = new Thread(() -> serve(client),
+                    "stub-http-server-worker");
+                worker.setDaemon(true);
+                worker.start();
+            } catch (IOException e) {
+                // Closed.
+            }
+        }
+    }
+
+    private void accept(final ServerSocketChannel channel) {
+        while(channel.isOpen()) {
+            try {
+                final SocketChannel client = channel.accept();
+                connections_.increment();
+                final Thread worker = new Thread(() -> serve(client),
+                    "stub-http-server-uds-worker");
+                worker.setDaemon(true);
+                worker.start();
+            } catch (IOException e) {
+                // Closed.
+            }
+        }
+    }
+
+    private void serve(final Socket client) {
+        try(Socket s = client;
+            InputStream in = s.getInputStream();
+            OutputStream out = s.getOutputStream()) {
+            serve(s, in, out);
+        } catch (IOException e) {
+            // Client went away.
+        }
+    }
+
+    private void serve(final SocketChannel client) {
+        try(SocketChannel c = client;
+            InputStream in = Channels.newInputStream(c);
+            OutputStream out = Channels.newOutputStream(c)) {
+            serve(null, in, out);
+        } catch (IOException e) {
+            // Client went away.
+        }
+    }
+
+    private void serve(final Socket s,
+                       final InputStream in,
+                       final OutputStream out) throws IOException {
+        final byte[] buffer = new byte[MAX_REQUEST_HEADER_BYTES];
+        int start = 0, length = 0;
+        while(true) {
+            final int end = endOfHeaders(buffer, start, length);
+            if(end == -1) {
+                // Not all of the request headers are here yet; shift what
+                // is to the front of the buffer, and read some more.
+                System.arraycopy(buffer, start, buffer, 0, length - start);
+                length -= start;
+                start = 0;
+                if(length == buffer.length) {
+                    return; // Request headers too large, give up.
+                }
+                final int read = in.read(buffer, length, buffer.length - length);
+                if(read == -1) {
+                    return;
+                }
+                length += read;
+                continue;
+            }
+            final Stub stub = getStub(buffer, start, end);
+            long body = getContentLength(buffer, start, end);
+            start = end;
+            // Throw away the request body, if any.
+            while(body > 0L) {
+                if(start == length) {
+                    start = length = 0;
+                    final int read = in.read(buffer);
+                    if(read == -1) {
+                        return;
+                    }
+                    length = read;
+                }
+                final int skip = (int)Math.min(body, length - start);
+                start += skip;
+                body -= skip;
+            }
+            if(!stub.respond(s, out)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the index just past the empty line ending the request headers
+     * starting at the given index, or -1 if they're not all here yet.
+     */
+    private static int endOfHeaders(final byte[] buffer,
+                                    final int start,
+                                    final int length) {
+        for(int i = start + 3; i < length; i++) {
+            if(buffer[i] == '\n' && buffer[i - 1] == '\r' &&
+                buffer[i - 2] == '\n' && buffer[i - 3] == '\r') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private Stub getStub(final byte[] buffer,
+                         final int start,
+                         final int end) {
+        // The path sits between the first two spaces of the request line,
+        // minus any query string.
+        int from = start;
+        while(from < end && buffer[from] != ' ') {
+            from++;
+        }
+        int to = ++from;
+        while(to < end && buffer[to] != ' ' && buffer[to] != '?') {
+            to++;
+        }
+        for(final Stub stub : stubs_) {
+            if(Arrays.equals(stub.path_, 0, stub.path_.length, buffer, from, to)) {
+                return stub;
+            }
+        }
+        return notFound_;
+    }
+
+    /**
+     * The Content-Length of the request, or zero if it has none.
+     */
+    private static long getContentLength(final byte[] buffer,
+                                         final int start,
+                                         final int end) {
+        int line = start;
+        for(int i = start; i < end - 1; i++) {
+            if(buffer[i] == '\r' && buffer[i + 1] == '\n') {
+                if(startsWithIgnoreCase(buffer, line, i, CONTENT_LENGTH)) {
+                    long length = 0L;
+                    for(int j = line + CONTENT_LENGTH.length(); j < i; j++) {
+                        final byte b = buffer[j];
+                        if(b >= '0' && b <= '9') {
+                            length = length * 10L + (b - '0');
+                        }
+                    }
+                    return length;
+                }
+                line = i + 2;
+            }
+        }
+        return 0L;
+    }
+
+    private static boolean startsWithIgnoreCase(final byte[] buffer,
+                                                final int from,
+                                                final int to,
+                                                final String prefix) {
+        if(to - from < prefix.length()) {
+            return false;
+        }
+        for(int i = 0; i < prefix.length(); i++) {
+            if(Character.toLowerCase(buffer[from + i]) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
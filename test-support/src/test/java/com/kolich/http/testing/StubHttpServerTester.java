@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2015 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.http.testing;
+
+import com.kolich.common.functional.either.Either;
+import com.kolich.http.HttpClient4ClosureBuilder;
+import com.kolich.http.common.response.HttpFailure;
+import com.kolich.http.helpers.StatusCodeAndHeaderClosures.StatusCodeOrHttpFailureClosure;
+import com.kolich.http.helpers.StringClosures.StringOrHttpFailureClosure;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+
+/**
+ * Sends a request to each kind of stub and prints what came back, then
+ * drives a fast stub and an overloaded slow stub with a {@link LoadGenerator}
+ * and prints their latencies.  The overloaded stub's response times should
+ * be far worse than its service times, since requests queue up waiting for
+ * a free worker.
+ */
+public final class StubHttpServerTester {
+
+    public static void main(String[] args) throws Exception {
+        final HttpClient client = new HttpClient4ClosureBuilder()
+            .useProxySelector(false)
+            .setMaxTotalConnections(64)
+            .setMaxConnectionsPerRoute(64)
+            .getNewHttpClientInstance();
+        try(StubHttpServer server = new StubHttpServer()) {
+            server.stub("/static").body("Hello, world!", "text/plain");
+            server.stub("/chunked").body(100000).chunked(4096);
+            server.stub("/latency").body("late", "text/plain").latency(200L);
+            server.stub("/trickle").body(1000).trickle(100, 20L);
+            server.stub("/reset").body(1000).resetAfter(500);
+            server.stub("/status").status(503).header("Retry-After", "1");
+            for(final String path : new String[]{"/static", "/chunked", "/latency",
+                "/trickle", "/reset", "/status", "/missing"}) {
+                final long start = System.nanoTime();
+                final Either<HttpFailure,String> result =
+                    new StringOrHttpFailureClosure(client).get(server.getUri(path));
+                final long ms = (System.nanoTime() - start) / 1000000L;
+                System.out.println(path + " (" + ms + "ms): " + (result.success() ?
+                    result.right().length() + " chars" :
+                    result.left().getType() + " " + result.left().getStatusCode()));
+            }
+
+            server.stub("/fast").body(1024);
+            server.stub("/slow").body(1024).latency(50L);
+            final StatusCodeOrHttpFailureClosure closure =
+                new StatusCodeOrHttpFailureClosure(client);
+            // Well within what the server can handle.
+            System.out.println("/fast at 500/s: " + new LoadGenerator(closure,
+                () -> new HttpGet(server.getUri("/fast")))
+                .setRate(500.0d)
+                .setConcurrency(16)
+                .setWarmupMs(1000L)
+                .setDurationMs(3000L)
+                .run());
+            // Four workers at 50ms a request can only manage 80 a second.
+            System.out.println("/slow at 100/s: " + new LoadGenerator(closure,
+                () -> new HttpGet(server.getUri("/slow")))
+                .setRate(100.0d)
+                .setConcurrency(4)
+                .setWarmupMs(500L)
+                .setDurationMs(3000L)
+                .run());
+        }
+    }
+
+}